@@ -0,0 +1,162 @@
+import java.util.SplittableRandom;
+
+/**
+ * Walker's alias method over the transitions of a compiled world.  The k
+ * transitions of slot sa become k equal-width columns; column i keeps its
+ * own successor, a threshold, and an alias successor that fills the rest
+ * of the column.  A uniform draw r picks column i = floor(r * k), and the
+ * remainder r * k - i picks the column's own successor if it is below the
+ * threshold and the alias otherwise, so a draw costs one lookup whatever
+ * k is.  The columns of slot sa are laid out along the model's transition
+ * arrays, starting at transitionBegin(sa).
+ *
+ * Like CompiledWorld, a table is immutable once built and can be shared by
+ * any number of threads.
+ */
+
+public class AliasTable {
+
+  private final CompiledWorld model;
+  private final double[] threshold; // per column, in [0, 1]
+  private final int[] own;          // per column, the successor below the threshold
+  private final int[] alias;        // per column, the successor above it
+
+  public AliasTable( CompiledWorld model ) {
+    this.model = model;
+    int columns = model.transitionCount();
+    threshold = new double[columns];
+    own = new int[columns];
+    alias = new int[columns];
+
+    int widest = 0;
+    for ( int sa = 0; sa < model.slotCount(); sa++ ) {
+      widest = Math.max( widest, model.transitionEnd( sa ) - model.transitionBegin( sa ) );
+    }
+    double[] scaled = new double[widest];
+    int[] small = new int[widest];
+    int[] large = new int[widest];
+    for ( int sa = 0; sa < model.slotCount(); sa++ ) {
+      build( sa, scaled, small, large );
+    }
+  }
+
+  // Vose's construction for one slot: columns under the average are topped
+  // up from columns over it until every column holds exactly 1/k
+  private void build( int sa, double[] scaled, int[] small, int[] large ) {
+    int begin = model.transitionBegin( sa );
+    int k = model.transitionEnd( sa ) - begin;
+    if ( k == 0 ) {
+      return;
+    }
+    double total = 0.0;
+    for ( int i = 0; i < k; i++ ) {
+      total += model.probability( begin + i );
+    }
+    int smalls = 0;
+    int larges = 0;
+    for ( int i = 0; i < k; i++ ) {
+      scaled[i] = model.probability( begin + i ) * k / total;
+      own[begin + i] = model.successor( begin + i );
+      alias[begin + i] = own[begin + i];
+      if ( scaled[i] < 1.0 ) {
+        small[smalls++] = i;
+      }
+      else {
+        large[larges++] = i;
+      }
+    }
+    while ( smalls > 0 && larges > 0 ) {
+      int less = small[--smalls];
+      int more = large[--larges];
+      threshold[begin + less] = scaled[less];
+      alias[begin + less] = own[begin + more];
+      scaled[more] -= 1.0 - scaled[less];
+      if ( scaled[more] < 1.0 ) {
+        small[smalls++] = more;
+      }
+      else {
+        large[larges++] = more;
+      }
+    }
+    // Whatever is left is full up to rounding error
+    while ( larges > 0 ) {
+      threshold[begin + large[--larges]] = 1.0;
+    }
+    while ( smalls > 0 ) {
+      threshold[begin + small[--smalls]] = 1.0;
+    }
+  }
+
+  public CompiledWorld model() {
+    return model;
+  }
+
+  // The successor of slot sa that the uniform draw r in [0, 1) lands on
+  public int sample( int sa, double r ) {
+    int begin = model.transitionBegin( sa );
+    double scaled = r * ( model.transitionEnd( sa ) - begin );
+    int i = (int) scaled;
+    int column = begin + i;
+    return scaled - i < threshold[column] ? own[column] : alias[column];
+  }
+
+  /**
+   * java AliasTable mediumGrid.lay [draws]
+   *
+   * Checks the sampled frequencies of every slot against its transition
+   * probabilities, then times the alias draw against CompiledWorld's
+   * cumulative scan.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      long draws = args.length > 1 ? Long.parseLong( args[1] ) : 50000000L;
+      CompiledWorld model = world.compile();
+      AliasTable table = new AliasTable( model );
+      SplittableRandom random = new SplittableRandom( 2026875034 );
+
+      double worst = 0.0;
+      int perSlot = 10000;
+      double[] frequency = new double[model.stateCount()];
+      for ( int sa = 0; sa < model.slotCount(); sa++ ) {
+        for ( int i = 0; i < perSlot; i++ ) {
+          frequency[table.sample( sa, random.nextDouble() )] += 1.0 / perSlot;
+        }
+        for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+          frequency[model.successor( t )] -= model.probability( t );
+        }
+        for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+          worst = Math.max( worst, Math.abs( frequency[model.successor( t )] ) );
+          frequency[model.successor( t )] = 0.0;
+        }
+      }
+      System.out.printf( "%s, largest frequency error over %d draws per slot: %.4f%n",
+          model, perSlot, worst );
+
+      int slots = model.slotCount();
+      for ( int round = 0; round < 2; round++ ) { // the first round warms up the JIT
+        long sum = 0;
+        long start = System.nanoTime();
+        for ( long i = 0; i < draws; i++ ) {
+          sum += model.sample( (int) ( i % slots ), random.nextDouble() );
+        }
+        double scanSeconds = ( System.nanoTime() - start ) / 1e9;
+        start = System.nanoTime();
+        for ( long i = 0; i < draws; i++ ) {
+          sum += table.sample( (int) ( i % slots ), random.nextDouble() );
+        }
+        double aliasSeconds = ( System.nanoTime() - start ) / 1e9;
+        if ( round == 1 ) {
+          System.out.printf( "Cumulative scan %12.0f draws/s%n", draws / scanSeconds );
+          System.out.printf( "Alias table     %12.0f draws/s  (checksum %d)%n", draws / aliasSeconds, sum );
+        }
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // AliasTable class
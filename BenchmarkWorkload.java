@@ -0,0 +1,154 @@
+/**
+ * The default-package side of the JMH suite in bench/.  Each method does
+ * one unit of the work a benchmark measures, with all setup done in
+ * setUp() so the measured calls see warm caches.
+ *
+ * Besides the bundled .lay files, setUp() accepts two synthetic layouts:
+ * "open:N" is an N x N room inside a wall border with a +1 in the top
+ * left corner and a -1 below it, and "maze:N" is the same room with every
+ * other column walled except for a gap that alternates between the top
+ * and the bottom, so the path from the far side winds through the whole
+ * grid.  "gen:N" is an N x N perfect maze from MazeGenerator, seeded with
+ * SEED, whose branches give policy iteration more to do than maze:N's
+ * single corridor.
+ */
+
+public class BenchmarkWorkload implements bench.Workload {
+
+  private static final long SEED = 2026875034;
+
+  private String layout;
+  private GridWorld world;
+  private State[] states;      // by state id
+  private Action[][] actions;  // A of each state, by state id
+  private int nextState;       // cursor for actions() and transitions()
+  private int nextAction;
+  private State current;       // act()'s trajectory
+
+  public void setUp( String layout ) throws Exception {
+    this.layout = layout;
+    world = new GridWorld( layout( layout ) );
+    world.setSeed( SEED );
+    states = world.getStates().toArray( new State[0] );
+    actions = new Action[states.length][];
+    for ( int s = 0; s < states.length; s++ ) {
+      actions[s] = world.A( states[s] ).toArray( new Action[0] );
+    }
+    current = world.getRandomState();
+    world.act( current, actions[id( current )][0] ); // builds act's tables
+  }
+
+  static PackedLayout layout( String name ) throws java.io.IOException {
+    int colon = name.indexOf( ':' );
+    if ( colon < 0 ) {
+      return PackedLayout.load( name );
+    }
+    int n = Integer.parseInt( name.substring( colon + 1 ) );
+    String kind = name.substring( 0, colon );
+    if ( kind.equals( "gen" ) ) {
+      return new MazeGenerator( n, n, SEED ).layout();
+    }
+    PackedLayout grid = new PackedLayout( n + 2, n + 2 );
+    for ( int x = 1; x <= n; x++ ) {
+      for ( int y = 1; y <= n; y++ ) {
+        boolean wall = kind.equals( "maze" ) && x % 2 == 0
+            && y != ( x % 4 == 0 ? 1 : n );
+        if ( !wall ) {
+          grid.setWall( x, y, false );
+        }
+      }
+    }
+    if ( !kind.equals( "open" ) && !kind.equals( "maze" ) ) {
+      throw new IllegalArgumentException( "Unknown synthetic layout: " + name );
+    }
+    grid.setTerminal( 1, n, 1.0 );
+    grid.setTerminal( 1, n - 1, -1.0 );
+    return grid;
+  }
+
+  private static int id( State s ) {
+    return ( (GridState) s ).getId();
+  }
+
+  public int actions() {
+    State s = states[nextState];
+    nextState = nextState + 1 == states.length ? 0 : nextState + 1;
+    return world.A( s ).size();
+  }
+
+  public int transitions() {
+    Action[] available = actions[nextState];
+    while ( nextAction >= available.length ) {
+      nextAction = 0;
+      nextState = nextState + 1 == states.length ? 0 : nextState + 1;
+      available = actions[nextState];
+    }
+    return world.P( states[nextState], available[nextAction++] ).size();
+  }
+
+  public int act() {
+    Action[] available = actions[id( current )];
+    current = world.act( current, available[( nextAction++ & Integer.MAX_VALUE ) % available.length] ).getState();
+    if ( world.isTerminal( current ) ) {
+      current = world.getRandomState();
+    }
+    return id( current );
+  }
+
+  public long learn() throws Exception {
+    world.setSeed( SEED );
+    QLearner learner = new QLearner( 0.4 );
+    learner.learn( world );
+    return learner.getIterations();
+  }
+
+  public long solve() throws Exception {
+    world.setSeed( SEED );
+    PolicyIteration solver = new PolicyIteration();
+    solver.solve( world );
+    return solver.getIterations();
+  }
+
+  public long solveExact() throws Exception {
+    world.setSeed( SEED );
+    PolicyIteration solver = new PolicyIteration();
+    solver.setExactEvaluation();
+    solver.solve( world );
+    return solver.getIterations();
+  }
+
+  public int stateCount() {
+    return states.length;
+  }
+
+  public String toString() {
+    return layout + ": " + world.compile();
+  }
+
+  /**
+   * java BenchmarkWorkload maze:64
+   *
+   * Runs each workload once, as a quick check outside JMH.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      BenchmarkWorkload workload = new BenchmarkWorkload();
+      workload.setUp( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      System.out.println( workload );
+      long start = System.nanoTime();
+      long iterations = workload.learn();
+      System.out.printf( "QLearner.learn         %10d iterations  %8.3f s%n",
+          iterations, ( System.nanoTime() - start ) / 1e9 );
+      start = System.nanoTime();
+      iterations = workload.solve();
+      System.out.printf( "PolicyIteration.solve  %10d iterations  %8.3f s%n",
+          iterations, ( System.nanoTime() - start ) / 1e9 );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // BenchmarkWorkload class
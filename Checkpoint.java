@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary snapshot of a learner's or solver's tables.  The file is a
+ * fixed header followed by primitive arrays, all big-endian:
+ *
+ *   int    magic "GWCK", int version
+ *   int    kind: Q_TABLE or UTILITY_POLICY
+ *   long   CompiledWorld.contentHash() of the layout
+ *   double gamma, alpha, epsilon, living reward
+ *   long   the settings key of the solver that took it, see SolveCache
+ *   int    states, int actions (the width of a row of Q)
+ *   long   episodes, long iterations
+ *   long   length, then that many doubles: Q by state id * actions +
+ *          action id, or the utility by state id
+ *   int    length, then that many ints: the policy's action slot by
+ *          state id, -1 for none (empty for a Q-table)
+ *
+ * write() streams through a FileChannel into a temporary file and then
+ * renames it over the target, so a reader never sees half a checkpoint.
+ * load() memory-maps the file and copies the arrays out of the mapping.
+ * A checkpoint of a Q-table in an OffHeapStore reads the values from the
+ * store as it writes them, so a table too large for a Java array can be
+ * written, though load() cannot read it back; a file-backed store is its
+ * own checkpoint for that.
+ */
+
+public class Checkpoint {
+
+  public static final int Q_TABLE = 1;
+  public static final int UTILITY_POLICY = 2;
+
+  private static final int MAGIC = 0x4757434B; // "GWCK"
+  private static final int VERSION = 3;
+  private static final int HEADER_BYTES = 4 * 3 + 8 + 8 * 4 + 8 + 4 * 2 + 8 * 2;
+  private static final int BUFFER_BYTES = 1 << 20;
+  private static final long WINDOW = 1L << 28; // bytes mapped at a time
+
+  private final int kind;
+  private final long layoutHash;
+  private final double gamma;
+  private final double alpha;
+  private final double epsilon;
+  private final double livingReward;
+  private final long settings;
+  private final int states;
+  private final int actions;
+  private final long episodes;
+  private final long iterations;
+  private final double[] values;     // null if the values are in stored
+  private final OffHeapStore stored;
+  private final int[] policy;
+
+  public Checkpoint( int kind, long layoutHash, double gamma, double alpha, double epsilon,
+                     double livingReward, long settings, int states, int actions, long episodes, long iterations,
+                     double[] values, int[] policy ) {
+    this( kind, layoutHash, gamma, alpha, epsilon, livingReward, settings, states, actions, episodes,
+        iterations, values, null, policy );
+  }
+
+  /*
+  A checkpoint whose values are read from stored when it is written
+  rather than copied first.  It is not a snapshot: write it before the
+  store changes again.
+  */
+  public Checkpoint( int kind, long layoutHash, double gamma, double alpha, double epsilon,
+                     double livingReward, long settings, int states, int actions, long episodes,
+                     long iterations, OffHeapStore stored, int[] policy ) {
+    this( kind, layoutHash, gamma, alpha, epsilon, livingReward, settings, states, actions, episodes,
+        iterations, null, stored, policy );
+  }
+
+  private Checkpoint( int kind, long layoutHash, double gamma, double alpha, double epsilon,
+                      double livingReward, long settings, int states, int actions, long episodes,
+                      long iterations, double[] values, OffHeapStore stored, int[] policy ) {
+    this.kind = kind;
+    this.layoutHash = layoutHash;
+    this.gamma = gamma;
+    this.alpha = alpha;
+    this.epsilon = epsilon;
+    this.livingReward = livingReward;
+    this.settings = settings;
+    this.states = states;
+    this.actions = actions;
+    this.episodes = episodes;
+    this.iterations = iterations;
+    this.values = values;
+    this.stored = stored;
+    this.policy = policy;
+  }
+
+  public int getKind() {
+    return kind;
+  }
+
+  public long getLayoutHash() {
+    return layoutHash;
+  }
+
+  public double getGamma() {
+    return gamma;
+  }
+
+  public double getAlpha() {
+    return alpha;
+  }
+
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  public double getLivingReward() {
+    return livingReward;
+  }
+
+  // The settings key of the solver, which SolveCache checks on a load
+  public long getSettings() {
+    return settings;
+  }
+
+  public int getStates() {
+    return states;
+  }
+
+  public int getActions() {
+    return actions;
+  }
+
+  public long getEpisodes() {
+    return episodes;
+  }
+
+  public long getIterations() {
+    return iterations;
+  }
+
+  // The arrays themselves, not copies
+  public double[] values() {
+    if ( values == null ) {
+      throw new IllegalStateException( "The values of this checkpoint are in an off-heap store" );
+    }
+    return values;
+  }
+
+  public int[] policy() {
+    return policy;
+  }
+
+  // Throws unless this checkpoint was taken of the given kind, on the same
+  // layout, with the same discount and living reward, and holds arrays of
+  // the lengths its states and actions call for
+  public void check( int kind, World world, double gamma ) {
+    CompiledWorld model = world.compile();
+    if ( this.kind != kind ) {
+      throw new IllegalArgumentException( "Checkpoint holds kind " + this.kind + ", not " + kind );
+    }
+    if ( layoutHash != model.contentHash() || states != model.stateCount() ) {
+      throw new IllegalArgumentException( "Checkpoint was taken on a different layout" );
+    }
+    if ( this.gamma != gamma || livingReward != world.getLivingReward() ) {
+      throw new IllegalArgumentException( "Checkpoint was taken with gamma " + this.gamma
+          + " and living reward " + livingReward + ", not " + gamma + " and " + world.getLivingReward() );
+    }
+    long valueCount = values != null ? values.length : stored.length();
+    long expected = kind == Q_TABLE ? (long) states * actions : states;
+    if ( valueCount != expected ) {
+      throw new IllegalArgumentException( "Checkpoint holds " + valueCount + " values, not " + expected );
+    }
+    if ( kind == UTILITY_POLICY && policy.length != states ) {
+      throw new IllegalArgumentException( "Checkpoint holds a policy of " + policy.length + " states, not " + states );
+    }
+  }
+
+  public void write( String filename ) throws IOException {
+    Path path = Paths.get( filename ).toAbsolutePath();
+    Path temporary = Files.createTempFile( path.getParent(), path.getFileName().toString(), ".tmp" );
+    try {
+      try ( FileChannel channel = FileChannel.open( temporary, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING ) ) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_BYTES );
+        buffer.putInt( MAGIC ).putInt( VERSION ).putInt( kind ).putLong( layoutHash );
+        buffer.putDouble( gamma ).putDouble( alpha ).putDouble( epsilon ).putDouble( livingReward ).putLong( settings );
+        buffer.putInt( states ).putInt( actions ).putLong( episodes ).putLong( iterations );
+        if ( values != null ) {
+          buffer.putLong( values.length );
+          for ( double v : values ) {
+            if ( buffer.remaining() < 8 ) {
+              drain( channel, buffer );
+            }
+            buffer.putDouble( v );
+          }
+        }
+        else {
+          buffer.putLong( stored.length() );
+          for ( long i = 0; i < stored.length(); i++ ) {
+            if ( buffer.remaining() < 8 ) {
+              drain( channel, buffer );
+            }
+            buffer.putDouble( stored.get( i ) );
+          }
+        }
+        if ( buffer.remaining() < 4 ) {
+          drain( channel, buffer );
+        }
+        buffer.putInt( policy.length );
+        for ( int p : policy ) {
+          if ( buffer.remaining() < 4 ) {
+            drain( channel, buffer );
+          }
+          buffer.putInt( p );
+        }
+        drain( channel, buffer );
+        channel.force( false );
+      }
+      Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } // try
+    finally {
+      Files.deleteIfExists( temporary );
+    } // finally
+  }
+
+  private static void drain( FileChannel channel, ByteBuffer buffer ) throws IOException {
+    buffer.flip();
+    while ( buffer.hasRemaining() ) {
+      channel.write( buffer );
+    }
+    buffer.clear();
+  }
+
+  public static Checkpoint load( String filename ) throws IOException {
+    try ( FileChannel channel = FileChannel.open( Paths.get( filename ), StandardOpenOption.READ ) ) {
+      long size = channel.size();
+      if ( size < HEADER_BYTES + 12 ) {
+        throw new IOException( "Too short for a checkpoint: " + filename );
+      }
+      MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + 8 );
+      if ( header.getInt() != MAGIC ) {
+        throw new IOException( "Not a checkpoint: " + filename );
+      }
+      int version = header.getInt();
+      if ( version != VERSION ) {
+        throw new IOException( "Unsupported checkpoint version " + version + ": " + filename );
+      }
+      int kind = header.getInt();
+      long layoutHash = header.getLong();
+      double gamma = header.getDouble();
+      double alpha = header.getDouble();
+      double epsilon = header.getDouble();
+      double livingReward = header.getDouble();
+      long settings = header.getLong();
+      int states = header.getInt();
+      int actions = header.getInt();
+      long episodes = header.getLong();
+      long iterations = header.getLong();
+      long length = header.getLong();
+
+      long offset = HEADER_BYTES + 8;
+      if ( length < 0 || length > ( size - offset - 4 ) / 8 ) {
+        throw new IOException( "Truncated checkpoint: " + filename );
+      }
+      if ( length > Integer.MAX_VALUE - 8 ) {
+        throw new IOException( length + " values are too many for an array: " + filename );
+      }
+      int valueCount = (int) length;
+      double[] values = new double[valueCount];
+      for ( int i = 0; i < valueCount; ) {
+        int n = (int) Math.min( valueCount - i, WINDOW / 8 );
+        channel.map( FileChannel.MapMode.READ_ONLY, offset, n * 8L ).asDoubleBuffer().get( values, i, n );
+        i += n;
+        offset += n * 8L;
+      }
+      int policyCount = channel.map( FileChannel.MapMode.READ_ONLY, offset, 4 ).getInt();
+      offset += 4;
+      if ( policyCount < 0 || offset + policyCount * 4L != size ) {
+        throw new IOException( "Truncated checkpoint: " + filename );
+      }
+      int[] policy = new int[policyCount];
+      for ( int i = 0; i < policyCount; ) {
+        int n = (int) Math.min( policyCount - i, WINDOW / 4 );
+        channel.map( FileChannel.MapMode.READ_ONLY, offset, n * 4L ).asIntBuffer().get( policy, i, n );
+        i += n;
+        offset += n * 4L;
+      }
+      return new Checkpoint( kind, layoutHash, gamma, alpha, epsilon, livingReward, settings, states, actions,
+          episodes, iterations, values, policy );
+    }
+  }
+
+  public String toString() {
+    return ( kind == Q_TABLE ? "Q-table" : "utility/policy" ) + " checkpoint of " + states
+        + " states, layout " + Long.toHexString( layoutHash ) + ", gamma " + gamma + ", alpha " + alpha
+        + ", epsilon " + epsilon + ", living reward " + livingReward + ", settings "
+        + Long.toHexString( settings ) + ", " + episodes + " episodes, "
+        + iterations + " iterations";
+  }
+
+  /**
+   * java Checkpoint mediumGrid.lay [checkpoint file]
+   *
+   * Learns with periodic checkpoints, then resumes a fresh learner from
+   * the last one, and round-trips a PolicyIteration solution.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      String filename = args.length > 1 ? args[1] : "qlearner.ckpt";
+
+      QLearner cold = new QLearner( 0.4 );
+      cold.setCheckpoint( filename, 20 );
+      long start = System.nanoTime();
+      cold.learn( world );
+      System.out.printf( "Cold start:  %d episodes, %d iterations, %.3f s, %d checkpoints written%n",
+          cold.getEpisodes(), cold.getIterations(), ( System.nanoTime() - start ) / 1e9,
+          cold.getCheckpoints() );
+
+      start = System.nanoTime();
+      Checkpoint checkpoint = load( filename );
+      System.out.printf( "Loaded %s in %.3f ms%n", checkpoint, ( System.nanoTime() - start ) / 1e6 );
+      QLearner warm = new QLearner( 0.4 );
+      start = System.nanoTime();
+      warm.learn( world, checkpoint );
+      System.out.printf( "Warm start:  %d more episodes, %d more iterations, %.3f s%n",
+          warm.getEpisodes() - checkpoint.getEpisodes(), warm.getIterations() - checkpoint.getIterations(),
+          ( System.nanoTime() - start ) / 1e9 );
+
+      PolicyIteration solution = new PolicyIteration();
+      solution.solve( world );
+      solution.checkpoint( world ).write( filename );
+      PolicyIteration restored = new PolicyIteration();
+      restored.restore( world, load( filename ) );
+      int differences = 0;
+      for ( State s : world.getStates() ) {
+        Action a = restored.pi( s );
+        if ( a == null ? solution.pi( s ) != null : !a.equals( solution.pi( s ) ) ) {
+          differences++;
+        }
+      }
+      System.out.println( "PolicyIteration restored with " + differences + " differing actions" );
+      Files.deleteIfExists( Paths.get( filename ) );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // Checkpoint class
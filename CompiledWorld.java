@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An int-indexed snapshot of a World's transition model.  Every state
+ * gets a dense id in the order of World.getStates(), and the actions
+ * and transitions are stored in compressed sparse row (CSR) form:
+ *
+ *   the actions of state s are the slots actionStart[s] .. actionStart[s+1]-1,
+ *   the transitions of slot sa are transitionStart[sa] .. transitionStart[sa+1]-1,
+ *   and transition t moves to state successor[t] with probability probability[t].
+ *
+ * Solvers sweep these arrays instead of calling World.P, which allocates
+ * a fresh list of Transitions on every call.  The model is immutable once
+ * built, so one instance can be shared by any number of threads.
+ */
+
+public class CompiledWorld {
+
+  private final State[] states;
+  private final HashMap<State,Integer> ids;
+  private final boolean[] terminal;
+  private final double[] reward;     // R(s), including the living reward
+
+  private final Action[] actionSet;  // every distinct action, in compareTo order
+  private final int[] actionStart;   // per state, into the slot arrays
+  private final int[] actionId;      // per slot, index into actionSet
+  private final int[] transitionStart;
+  private final int[] successor;
+  private final double[] probability;
+  private final long contentHash;
+
+  public CompiledWorld( World world ) {
+    ArrayList<State> worldStates = world.getStates();
+    int n = worldStates.size();
+    states = worldStates.toArray( new State[n] );
+    ids = new HashMap<State,Integer>( n * 2 );
+    terminal = new boolean[n];
+    reward = new double[n];
+    for ( int i = 0; i < n; i++ ) {
+      ids.put( states[i], i );
+      terminal[i] = world.isTerminal( states[i] );
+      reward[i] = world.R( states[i] );
+    }
+
+    // First pass: collect the action alphabet and size the arrays
+    TreeSet<Action> alphabet = new TreeSet<Action>();
+    int slots = 0;
+    int transitions = 0;
+    List<List<Action>> actions = new ArrayList<List<Action>>( n );
+    for ( int i = 0; i < n; i++ ) {
+      List<Action> a = terminal[i] ? new ArrayList<Action>() : world.A( states[i] );
+      actions.add( a );
+      alphabet.addAll( a );
+      slots += a.size();
+      for ( Action action : a ) {
+        transitions += world.P( states[i], action ).size();
+      }
+    }
+    actionSet = alphabet.toArray( new Action[alphabet.size()] );
+
+    // Second pass: fill the CSR arrays
+    actionStart = new int[n + 1];
+    actionId = new int[slots];
+    transitionStart = new int[slots + 1];
+    successor = new int[transitions];
+    probability = new double[transitions];
+    int sa = 0;
+    int t = 0;
+    for ( int i = 0; i < n; i++ ) {
+      actionStart[i] = sa;
+      for ( Action action : actions.get( i ) ) {
+        actionId[sa] = actionIndex( action );
+        transitionStart[sa] = t;
+        for ( Transition transition : world.P( states[i], action ) ) {
+          Integer next = ids.get( transition.getState() );
+          if ( next == null ) {
+            throw new IllegalStateException( "Transition from " + states[i]
+                + " leaves the state space: " + transition.getState() );
+          }
+          successor[t] = next;
+          probability[t] = transition.getProbability();
+          t++;
+        }
+        sa++;
+      }
+    }
+    actionStart[n] = sa;
+    transitionStart[sa] = t;
+    contentHash = hash();
+  }
+
+  // The same model under another living reward, sharing every array but
+  // the rewards
+  private CompiledWorld( CompiledWorld model, double livingReward ) {
+    states = model.states;
+    ids = model.ids;
+    terminal = model.terminal;
+    reward = new double[states.length];
+    for ( int s = 0; s < states.length; s++ ) {
+      reward[s] = terminal[s] ? model.reward[s] : livingReward;
+    }
+    actionSet = model.actionSet;
+    actionStart = model.actionStart;
+    actionId = model.actionId;
+    transitionStart = model.transitionStart;
+    successor = model.successor;
+    probability = model.probability;
+    contentHash = model.contentHash;
+  }
+
+  // What compiling the world under livingReward would give, without
+  // calling A or P again
+  public CompiledWorld withLivingReward( double livingReward ) {
+    return new CompiledWorld( this, livingReward );
+  }
+
+  public int stateCount() {
+    return states.length;
+  }
+
+  public int actionCount() {
+    return actionSet.length;
+  }
+
+  public int slotCount() {
+    return actionId.length;
+  }
+
+  public int transitionCount() {
+    return successor.length;
+  }
+
+  // Returns the id of s, or -1 if s is not a state of the compiled world
+  public int id( State s ) {
+    Integer i = ids.get( s );
+    return i == null ? -1 : i;
+  }
+
+  public State state( int s ) {
+    return states[s];
+  }
+
+  public boolean isTerminal( int s ) {
+    return terminal[s];
+  }
+
+  public double reward( int s ) {
+    return reward[s];
+  }
+
+  public int actionBegin( int s ) {
+    return actionStart[s];
+  }
+
+  public int actionEnd( int s ) {
+    return actionStart[s + 1];
+  }
+
+  public int actionId( int sa ) {
+    return actionId[sa];
+  }
+
+  public Action action( int sa ) {
+    return actionSet[actionId[sa]];
+  }
+
+  public Action actionOf( int a ) {
+    return actionSet[a];
+  }
+
+  // Returns the index of a in the action alphabet, or -1 if it never occurs
+  public int actionIndex( Action a ) {
+    for ( int i = 0; i < actionSet.length; i++ ) {
+      if ( actionSet[i].equals( a ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Returns the slot of action a in state s, or -1 if a is not available
+  public int slot( int s, Action a ) {
+    for ( int sa = actionStart[s]; sa < actionStart[s + 1]; sa++ ) {
+      if ( actionSet[actionId[sa]].equals( a ) ) {
+        return sa;
+      }
+    }
+    return -1;
+  }
+
+  public int transitionBegin( int sa ) {
+    return transitionStart[sa];
+  }
+
+  public int transitionEnd( int sa ) {
+    return transitionStart[sa + 1];
+  }
+
+  public int successor( int t ) {
+    return successor[t];
+  }
+
+  public double probability( int t ) {
+    return probability[t];
+  }
+
+  // Expected utility of taking slot sa: the sum over its transitions of p * u
+  public double expectedUtility( int sa, double[] u ) {
+    double sum = 0.0;
+    for ( int t = transitionStart[sa]; t < transitionStart[sa + 1]; t++ ) {
+      sum += probability[t] * u[successor[t]];
+    }
+    return sum;
+  }
+
+  // Picks the successor of slot sa that the uniform draw r in [0, 1) falls
+  // on, scanning the cumulative probabilities like GridWorld.act does
+  public int sample( int sa, double r ) {
+    int last = transitionStart[sa + 1] - 1;
+    double cumulative = 0.0;
+    for ( int t = transitionStart[sa]; t < last; t++ ) {
+      cumulative += probability[t];
+      if ( r < cumulative ) {
+        return successor[t];
+      }
+    }
+    return successor[last];
+  }
+
+  // A 64-bit hash of the model's structure: its states, terminals, terminal
+  // rewards, actions and transitions, but not the living reward, so the
+  // same layout always hashes the same.  Computed once when the model is
+  // built, so it is as safe to share as the arrays.
+  public long contentHash() {
+    return contentHash;
+  }
+
+  private long hash() {
+    long h = Hashing.mix( 0, states.length );
+    for ( int s = 0; s < states.length; s++ ) {
+      h = Hashing.mix( h, terminal[s] ? Double.doubleToLongBits( reward[s] ) : 0 );
+      h = Hashing.mix( h, actionStart[s + 1] - actionStart[s] );
+    }
+    for ( int sa = 0; sa < actionId.length; sa++ ) {
+      h = Hashing.mix( h, actionId[sa] );
+      h = Hashing.mix( h, transitionStart[sa + 1] - transitionStart[sa] );
+    }
+    for ( int t = 0; t < successor.length; t++ ) {
+      h = Hashing.mix( h, successor[t] );
+      h = Hashing.mix( h, Double.doubleToLongBits( probability[t] ) );
+    }
+    return h;
+  }
+
+  public String toString() {
+    return states.length + " states, " + actionId.length + " state-action pairs, "
+        + successor.length + " transitions";
+  }
+
+} // CompiledWorld class
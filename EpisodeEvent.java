@@ -0,0 +1,41 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event spanning one QLearner episode.  Record it with
+ *
+ *   java -XX:StartFlightRecording:filename=learn.jfr,settings=profile QLearner mediumGrid.lay
+ *   jfr print --events gridworld.Episode learn.jfr
+ *
+ * QLearner asks enabled() before it builds an event, so a run without a
+ * recording allocates none.
+ */
+
+@Name( "gridworld.Episode" )
+@Label( "Q-Learning Episode" )
+@Category( "Grid World" )
+@Description( "One QLearner episode, from a random start to a terminal state" )
+public class EpisodeEvent extends jdk.jfr.Event {
+
+  private static final EventType TYPE = EventType.getEventType( EpisodeEvent.class );
+
+  @Label( "Episode" )
+  long episode;
+
+  @Label( "Length" )
+  @Description( "Steps taken in the episode" )
+  long length;
+
+  @Label( "Max Delta" )
+  @Description( "Largest change to a Q-value during the episode" )
+  double maxDelta;
+
+  // Whether a recording currently wants these events
+  static boolean enabled() {
+    return TYPE.isEnabled();
+  }
+
+} // EpisodeEvent class
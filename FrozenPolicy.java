@@ -0,0 +1,92 @@
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A grid policy frozen into one byte per cell, for serving after training.
+ * Cell (x, y) holds the ordinal of its action's direction at y * width + x,
+ * or NONE for walls, terminals and cells the policy had no action for.
+ * A lookup is an array read: no GridState to build, no hashing, and the
+ * whole policy of a 1000x1000 maze fits in a megabyte.
+ */
+
+public class FrozenPolicy {
+
+  public static final byte NONE = -1;
+
+  private final int width;
+  private final int height;
+  private final byte[] codes;       // direction ordinal by y * width + x, NONE if none
+
+  public FrozenPolicy( int width, int height, byte[] codes ) {
+    if ( codes.length != cells( width, height ) ) {
+      throw new IllegalArgumentException( codes.length + " codes for a " + width + "x" + height + " grid" );
+    }
+    this.width = width;
+    this.height = height;
+    this.codes = codes;
+  }
+
+  // Freezes pi, such as QLearner::pi or PolicyIteration::pi, over the
+  // states of world
+  public static FrozenPolicy of( GridWorld world, Function<State,Action> pi ) {
+    PackedLayout layout = world.getLayout();
+    byte[] codes = new byte[cells( layout.width(), layout.height() )];
+    Arrays.fill( codes, NONE );
+    for ( State s : world.getStates() ) {
+      Action a = pi.apply( s );
+      if ( a != null ) {
+        GridState cell = (GridState) s;
+        codes[cell.getY() * layout.width() + cell.getX()] = (byte) ( (GridAction) a ).getDirection().ordinal();
+      }
+    }
+    return new FrozenPolicy( layout.width(), layout.height(), codes );
+  }
+
+  // The number of cells of a width x height grid, which must fit in one array
+  private static int cells( int width, int height ) {
+    long cells = (long) width * height;
+    if ( width < 0 || height < 0 || cells > Integer.MAX_VALUE ) {
+      throw new IllegalArgumentException( "A " + width + "x" + height + " grid does not fit in one array" );
+    }
+    return (int) cells;
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  // The action code of (x, y), NONE for cells off the grid
+  public byte code( int x, int y ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      return NONE;
+    }
+    return codes[y * width + x];
+  }
+
+  public GridAction action( int x, int y ) {
+    return action( code( x, y ) );
+  }
+
+  public static GridAction action( byte code ) {
+    return code == NONE ? null : GridAction.of( code );
+  }
+
+  // The codes of count cells, the i-th at (xs[from + i], ys[from + i]),
+  // into out[0 .. count-1]
+  public void lookup( int[] xs, int[] ys, int from, int count, byte[] out ) {
+    for ( int i = 0; i < count; i++ ) {
+      int x = xs[from + i];
+      int y = ys[from + i];
+      out[i] = x < 0 || x >= width || y < 0 || y >= height ? NONE : codes[y * width + x];
+    }
+  }
+
+  public String toString() {
+    return width + "x" + height + " frozen policy, " + codes.length + " bytes";
+  }
+
+} // FrozenPolicy class
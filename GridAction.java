@@ -1,4 +1,3 @@
-import java.util.Objects;
 import java.util.Comparator;
 
 public class GridAction extends Action implements Comparable<Action> {
@@ -6,25 +5,52 @@ public class GridAction extends Action implements Comparable<Action> {
     EAST, WEST, NORTH, SOUTH;
   } 
 
-  private actionDirection direction;
+  private final actionDirection direction;
+
+  public static final GridAction EAST = new GridAction(actionDirection.EAST);
+  public static final GridAction WEST = new GridAction(actionDirection.WEST);
+  public static final GridAction NORTH = new GridAction(actionDirection.NORTH);
+  public static final GridAction SOUTH = new GridAction(actionDirection.SOUTH);
+
+  private static final actionDirection[] DIRECTIONS = actionDirection.values();
+
+  private GridAction(actionDirection direction) {
+    this.direction = direction;
+  }
+
+  // The shared instance for a direction
+  public static GridAction of(actionDirection direction) {
+    switch (direction) {
+      case EAST:
+        return EAST;
+      case WEST:
+        return WEST;
+      case NORTH:
+        return NORTH;
+      default:
+        return SOUTH;
+    }
+  }
+
+  // The shared instance for a direction's ordinal, as packed policies
+  // such as FrozenPolicy store it
+  public static GridAction of(int ordinal) {
+    return of(DIRECTIONS[ordinal]);
+  }
 
   /* 
-  constructs a GridAction from a in {"north", "south", "east", "west" } 
+  The shared instance for a in {"north", "south", "east", "west" } 
   */
-  public GridAction( String a ) {
+  public static GridAction of(String a) {
     switch (a) {
       case "north":
-        this.direction = actionDirection.NORTH;
-        break;
+        return NORTH;
       case "south":
-        this.direction = actionDirection.SOUTH;
-        break;
+        return SOUTH;
       case "east":
-        this.direction = actionDirection.EAST;
-        break;
+        return EAST;
       case "west":
-        this.direction = actionDirection.WEST;
-        break;
+        return WEST;
       default:
         throw new IllegalArgumentException("Invalid action: " + a);
     }
@@ -37,7 +63,7 @@ public class GridAction extends Action implements Comparable<Action> {
 
   @Override
     protected Object clone() throws CloneNotSupportedException {
-        return new GridAction(this.direction.toString().toLowerCase());
+        return this; // GridActions are immutable
     }
 
     @Override
@@ -59,7 +85,7 @@ public class GridAction extends Action implements Comparable<Action> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(direction);
+        return 31 + direction.ordinal();
     }
 
     @Override
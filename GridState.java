@@ -1,14 +1,20 @@
-import java.util.Objects;
 import java.util.Comparator;
 import java.util.ArrayList;
 
 public class GridState extends State implements Comparable<State> {
   private int x;
   private int y;
+  private int id; // index in GridWorld.getStates(), -1 if not canonical
 
   public GridState(int x, int y) {
+      this(x, y, -1);
+  }
+
+  // GridWorld builds exactly one of these per open cell
+  GridState(int x, int y, int id) {
       this.x = x;
       this.y = y;
+      this.id = id;
   }
 
   public int getX() {
@@ -19,6 +25,10 @@ public class GridState extends State implements Comparable<State> {
       return y;
   }
 
+  int getId() {
+      return id;
+  }
+
   @Override
   protected Object clone() throws CloneNotSupportedException {
       return new GridState(this.x, this.y);
@@ -46,7 +56,7 @@ public class GridState extends State implements Comparable<State> {
 
   @Override
   public int hashCode() {
-      return Objects.hash(x, y);
+      return 31 * (31 + x) + y; // Objects.hash(x, y) without boxing
   }
 
   @Override
@@ -1,200 +1,262 @@
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.HashMap;
-import java.util.Scanner;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 public class GridWorld extends World {
 
-  private char[][] grid;
+  private PackedLayout grid;
   private int x; // Number of columns
   private int y; // Number of rows
+  private GridState[] cells;     // canonical state by y * x + column, null for walls
+  private Percept[] percepts;    // act's result by state id
+  private List<Transition>[] transitionCache; // P by state id * 4 + direction
+  private volatile Sampler sampler;           // act's alias table, built on first use
+  private List<GridState> edits = new ArrayList<GridState>(); // cells edited since takeEdits
+
+  private static final Double PROB_CORRECT_DIRECTION = 0.8;
+  private static final Double PROB_LEFT_RIGHT = 0.1;
+  private static final List<Action> NO_ACTIONS = List.of();
+  private static final List<Transition> NO_TRANSITIONS = List.of();
+
+  // Every combination of open directions, indexed by a bit mask with
+  // east = 1, west = 2, north = 4 and south = 8, in A's order
+  private static final List<Action>[] ACTION_SETS = actionSets();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static List<Action>[] actionSets() {
+    List<Action>[] sets = (List<Action>[]) new List[16];
+    GridAction[] order = { GridAction.EAST, GridAction.WEST, GridAction.NORTH, GridAction.SOUTH };
+    for (int mask = 0; mask < 16; mask++) {
+      ArrayList<Action> set = new ArrayList<>();
+      for (int d = 0; d < 4; d++) {
+        if ((mask & (1 << d)) != 0) {
+          set.add(order[d]);
+        }
+      }
+      sets[mask] = List.copyOf(set);
+    }
+    return sets;
+  }
 
   public GridWorld() {
     super();
   }
 
-  public GridWorld(String filename) throws FileNotFoundException { 
-		try (Scanner scanner = new Scanner(new File(filename))) {
-			StringBuilder gridString = new StringBuilder();
-			while (scanner.hasNextLine()) {
-				gridString.append(scanner.nextLine()).append("\n");
-			}
-
-			String[] lines = gridString.toString().split("\n");
-      x = lines[0].length();
-			y = lines.length;
-			grid = new char[x][y]; 
-			states = new ArrayList<State>(); 
-      terminals = new HashMap<State, Double>();
-
-			for (int i = 0; i < x; i++) { 
-				for (int j = 0; j < y; j++) { 
-					grid[i][j] = lines[j].charAt(i); 
-					if (grid[i][j] == '+') {
-						GridState terminalState = new GridState(i, j);
-						terminals.put(terminalState, 1.0);
-						states.add(terminalState); 
-					} 
-          else if (grid[i][j] == '-') {
-						GridState terminalState = new GridState(i, j);
-						terminals.put(terminalState, -1.0);
-						states.add(terminalState); 
-          }
-          else if (grid[i][j] != '%') { 
-						states.add(new GridState(i, j)); 
-					}
-				}
-			}
-		}
-	}
+  public GridWorld(String filename) throws IOException { 
+    this(PackedLayout.load(filename));
+  }
 
-  @Override
-    public ArrayList<Action> A( State s ) {
-      if (!(s instanceof GridState)) {
-        throw new IllegalArgumentException("A GridState object expected.");
+  public GridWorld(PackedLayout layout) {
+    grid = layout;
+    build();
+  }
+
+  // Builds the states, terminals and per-state caches from the layout
+  private void build() {
+    x = grid.width();
+    y = grid.height();
+    states = new ArrayList<State>(); 
+    terminals = new HashMap<State, Double>();
+    cells = new GridState[x * y];
+
+    for (int i = 0; i < x; i++) { 
+      for (int j = 0; j < y; j++) { 
+        if (grid.isWall(i, j)) {
+          continue;
+        }
+        GridState state = new GridState(i, j, states.size());
+        cells[j * x + i] = state;
+        states.add(state); 
+        if (grid.isTerminal(i, j)) {
+          terminals.put(state, grid.terminalReward(i, j));
+        } 
       }
-      ArrayList<Action> actionsList = new ArrayList<>();
+    }
+
+    buildPercepts();
+    transitionCache = newTransitionCache(states.size() * 4);
+  }
+
+  // What act returns on arriving in each state: its terminal reward, or
+  // the living reward
+  private void buildPercepts() {
+    Percept[] built = new Percept[states.size()];
+    for (State state : states) {
+      Double reward = terminals.get(state);
+      built[((GridState) state).getId()] = new Percept(state, reward != null ? reward : getLivingReward());
+    }
+    percepts = built;
+  }
+
+  @Override
+  public void setLivingReward(double livingReward) {
+    super.setLivingReward(livingReward);
+    if (states != null) {
+      buildPercepts();
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static List<Transition>[] newTransitionCache(int size) {
+    return (List<Transition>[]) new List[size];
+  }
+
+  public PackedLayout getLayout() {
+    return grid;
+  }
+
+  /*
+  Edits the layout in place.  Each edit rebuilds the states and drops
+  the compiled model, the transition cache and act's sampler, so the
+  world behaves as if it had been loaded from the edited layout; state
+  ids may change, but states are equal by their cell.  The edited cells
+  are remembered until takeEdits(), so an incremental solver such as
+  PrioritizedSweeping.resolve can start from them.
+  */
+  public void setWall(int x, int y) {
+    grid.setWall(x, y, true);
+    edited(x, y);
+  }
+
+  public void clearWall(int x, int y) {
+    grid.setWall(x, y, false);
+    edited(x, y);
+  }
+
+  // Makes (x, y) an open terminal with the given reward
+  public void setTerminalReward(int x, int y, double reward) {
+    grid.setTerminal(x, y, reward);
+    edited(x, y);
+  }
+
+  // The cells edited since the last call, as states at those cells
+  public List<GridState> takeEdits() {
+    List<GridState> taken = edits;
+    edits = new ArrayList<GridState>();
+    return taken;
+  }
+
+  private void edited(int x, int y) {
+    build();
+    compiled = null;
+    sampler = null;
+    edits.add(new GridState(x, y));
+  }
+
+  // The canonical state at (x, y), or null for walls and cells off the grid
+  public GridState state(int x, int y) {
+    if (x < 0 || x >= this.x || y < 0 || y >= this.y) {
+      return null;
+    }
+    return cells[y * this.x + x];
+  }
+
+  // The canonical instance equal to s, or null if s is not a state here
+  private GridState canonical(State s) {
+    if (!(s instanceof GridState)) {
+      throw new IllegalArgumentException("A GridState object expected.");
+    }
+    GridState gridState = (GridState) s;
+    return state(gridState.getX(), gridState.getY());
+  }
+
+  @Override
+    public List<Action> A( State s ) {
+      GridState gridState = canonical(s);
       // If the state is terminal, return an empty list
-      if (isTerminal(s)){
-        return actionsList;
+      if (gridState == null || isTerminal(gridState)){
+        return NO_ACTIONS;
       }
-      GridState gridState = (GridState) s;
-
-      // Check each direction and add action if it's not a wall
+      // Check each direction and include the action if it's not a wall
+      int open = 0;
       if (canMoveTo(gridState.getX()+1, gridState.getY())){
-        actionsList.add(new GridAction("east"));
+        open |= 1;
       }
       if (canMoveTo(gridState.getX()-1, gridState.getY())){
-        actionsList.add(new GridAction("west"));
+        open |= 2;
       }
       if (canMoveTo(gridState.getX(), gridState.getY()+1)){
-        actionsList.add(new GridAction("north"));
+        open |= 4;
       }
-
       if (canMoveTo(gridState.getX(), gridState.getY()-1)){
-        actionsList.add(new GridAction("south"));
+        open |= 8;
       } 
-      return actionsList;
+      return ACTION_SETS[open];
     }
 
     private boolean canMoveTo(int x, int y) {
-      // Check boundaries
-      if (x < 0 || x > this.x || y < 0 || y > this.y ) {
-        return false;
-      }
-      // Check wall
-      return grid[x][y] != '%';
+      // Cells outside the layout count as walls
+      return !grid.isWall(x, y);
     }
 
     /*
     PolicyIteration directly uses the transition model, but QLearner does
     not.  Like A(State), P should generate a probabilistic action even
     if it makes the agent bump into a wall.  In this case, the agent's
-    state will not change.
+    state will not change.  Each (state, action) list is built once on
+    first use and shared after that, so callers must not modify it.
     */
     @Override
-    public LinkedList<Transition> P(State s, Action a ){
-      LinkedList<Transition> transitions = new LinkedList<>();
+    public List<Transition> P(State s, Action a ){
       if (a == null) {
-        return transitions;
+        return NO_TRANSITIONS;
       }
-      GridState gridState = (GridState) s;
+      GridState gridState = canonical(s);
       GridAction gridAction = (GridAction) a;
+      if (gridState == null) {
+        return transitions((GridState) s, gridAction.getDirection());
+      }
+      int key = gridState.getId() * 4 + gridAction.getDirection().ordinal();
+      List<Transition> cached = transitionCache[key];
+      if (cached == null) {
+        cached = transitions(gridState, gridAction.getDirection());
+        transitionCache[key] = cached;
+      }
+      return cached;
+    }
 
-      GridState eastState = new GridState(gridState.getX()+1, gridState.getY());
-      GridState westState = new GridState(gridState.getX()-1, gridState.getY());
-      GridState northState = new GridState(gridState.getX(), gridState.getY()+1);
-      GridState southState = new GridState(gridState.getX(), gridState.getY()-1);
-
-      double probCorrectDirection = 0.8;
-      double probleftRight = 0.1;
-
-      switch (gridAction.getDirection()) {
+    private List<Transition> transitions(GridState gridState, GridAction.actionDirection direction) {
+      int sx = gridState.getX();
+      int sy = gridState.getY();
+      switch (direction) {
         case EAST:
-          if (canMoveTo(gridState.getX() + 1, gridState.getY())) {
-            transitions.add(new Transition(eastState, probCorrectDirection));
-          } 
-          else {
-            transitions.add(new Transition(gridState, probCorrectDirection));
-          }
-
-          // Check for deviations to north and south
-          if (canMoveTo(gridState.getX(), gridState.getY()+1)) {
-            transitions.add(new Transition(northState, probleftRight));
-          } 
-          else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          if (canMoveTo(gridState.getX(), gridState.getY()-1)) {
-            transitions.add(new Transition(southState, probleftRight));
-          } 
-          else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          break;
+          // Move east, or slip to the north or south
+          return List.of(move(gridState, sx + 1, sy, PROB_CORRECT_DIRECTION),
+                         move(gridState, sx, sy + 1, PROB_LEFT_RIGHT),
+                         move(gridState, sx, sy - 1, PROB_LEFT_RIGHT));
         case WEST:
-          if (canMoveTo(gridState.getX()-1, gridState.getY())) {
-            transitions.add(new Transition(westState, probCorrectDirection));
-          } 
-          else {
-            transitions.add(new Transition(gridState, probCorrectDirection));
-          }
-          // Check for deviations to north and south
-          if (canMoveTo(gridState.getX(), gridState.getY()+1)) {
-            transitions.add(new Transition(northState, probleftRight));
-          } 
-          else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          if (canMoveTo(gridState.getX(), gridState.getY()-1)) {
-            transitions.add(new Transition(southState, probleftRight));
-          } else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          break;
+          return List.of(move(gridState, sx - 1, sy, PROB_CORRECT_DIRECTION),
+                         move(gridState, sx, sy + 1, PROB_LEFT_RIGHT),
+                         move(gridState, sx, sy - 1, PROB_LEFT_RIGHT));
         case NORTH:
-          if (canMoveTo(gridState.getX(), gridState.getY()+1)) {
-            transitions.add(new Transition(northState, probCorrectDirection));
-          } else {
-            transitions.add(new Transition(gridState, probCorrectDirection));
-          }
-          // Check for deviations to east and west
-          if (canMoveTo(gridState.getX()+1, gridState.getY())) {
-            transitions.add(new Transition(eastState, probleftRight));
-          } else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          if (canMoveTo(gridState.getX()-1, gridState.getY())) {
-            transitions.add(new Transition(westState, probleftRight));
-          } else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          break;
+          // Move north, or slip to the east or west
+          return List.of(move(gridState, sx, sy + 1, PROB_CORRECT_DIRECTION),
+                         move(gridState, sx + 1, sy, PROB_LEFT_RIGHT),
+                         move(gridState, sx - 1, sy, PROB_LEFT_RIGHT));
         case SOUTH:
-          if (canMoveTo(gridState.getX(), gridState.getY()-1)) {
-            transitions.add(new Transition(southState, probCorrectDirection));
-          } else {
-            transitions.add(new Transition(gridState, probCorrectDirection));
-          }
-          // Check for deviations to east and west
-          if (canMoveTo(gridState.getX()+1, gridState.getY())) {
-            transitions.add(new Transition(eastState, probleftRight));
-          } else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          if (canMoveTo(gridState.getX()-1, gridState.getY() )) {
-            transitions.add(new Transition(westState, probleftRight));
-          } else {
-            transitions.add(new Transition(gridState, probleftRight));
-          }
-          break;
+          return List.of(move(gridState, sx, sy - 1, PROB_CORRECT_DIRECTION),
+                         move(gridState, sx + 1, sy, PROB_LEFT_RIGHT),
+                         move(gridState, sx - 1, sy, PROB_LEFT_RIGHT));
       }
-      return transitions;
+      return NO_TRANSITIONS;
+    }
+
+    // A transition to (x, y), or back to from if (x, y) is a wall
+    private Transition move(GridState from, int x, int y, Double probability) {
+      GridState to = canMoveTo(x, y) ? state(x, y) : from;
+      return new Transition(to, probability);
     }
 
+    /*
+    act samples from an alias table built over the compiled model, so a
+    step is one lookup and one draw from the calling thread's generator.
+    The table and the (state, direction) -> slot index are built on the
+    first call.  Actions outside A(s), and states that are not canonical
+    cells, fall back to scanning P; a move that stays on a wall or off
+    the grid pays the living reward like any other non-terminal step.
+    */
     @Override
     public Percept act(State s, Action a) {
       if (!(s instanceof GridState)) {
@@ -204,26 +266,70 @@ public class GridWorld extends World {
         throw new IllegalArgumentException("A GridAction object expected.");
       }
 
-      GridState newState = null;
-      LinkedList<Transition> possibleTransitions = P(s, a);
-      double randomChoice = Math.random(); // Random number between 0 and 1, this act as a random threshold
+      GridState gridState = canonical(s);
+      if (gridState != null) {
+        Sampler current = sampler();
+        int slot = current.slot(gridState.getId(), ((GridAction) a).getDirection());
+        if (slot >= 0) {
+          return percepts[current.table.sample(slot, nextTransitionDouble())];
+        }
+      }
+
+      List<Transition> possibleTransitions = P(s, a);
+      double randomChoice = nextTransitionDouble(); // Random number between 0 and 1, this act as a random threshold
       double cumulativeProbability = 0.0;
 
       //Randomly choose a transition based on the probability
-      for (Transition transition : possibleTransitions) {
+      GridState newState = (GridState) possibleTransitions.get(possibleTransitions.size() - 1).getState();
+      for (int i = 0; i < possibleTransitions.size(); i++) {
+        Transition transition = possibleTransitions.get(i);
         cumulativeProbability += transition.getProbability();
         if (randomChoice < cumulativeProbability) {
           newState = (GridState) transition.getState();
           break;
         }
       }
+      GridState arrived = canonical(newState);
+      if (arrived == null) {
+        return new Percept(newState, getLivingReward());
+      }
+      return percepts[arrived.getId()];
+    }
 
-      if (isTerminal(newState)) {
-        return new Percept(newState, terminals.get(newState));
-      } 
-      else {
-        return new Percept(newState, -0.04);
+    // The alias table and the slot of every (state id, direction) pair.
+    // State ids here are the compiled model's, since both follow states.
+    private static final class Sampler {
+      final AliasTable table;
+      final int[] slots; // by state id * 4 + direction, -1 if not in A
+
+      Sampler(CompiledWorld model) {
+        table = new AliasTable(model);
+        slots = new int[model.stateCount() * 4];
+        Arrays.fill(slots, -1);
+        for (int s = 0; s < model.stateCount(); s++) {
+          for (int sa = model.actionBegin(s); sa < model.actionEnd(s); sa++) {
+            slots[s * 4 + ((GridAction) model.action(sa)).getDirection().ordinal()] = sa;
+          }
+        }
       }
+
+      int slot(int s, GridAction.actionDirection direction) {
+        return slots[s * 4 + direction.ordinal()];
+      }
+    }
+
+    private Sampler sampler() {
+      Sampler current = sampler;
+      if (current == null) {
+        synchronized (this) {
+          current = sampler;
+          if (current == null) {
+            current = new Sampler(compile());
+            sampler = current;
+          }
+        }
+      }
+      return current;
     }
 
     @Override
@@ -232,7 +338,7 @@ public class GridWorld extends World {
         sb.append("Grid Layout:\n");
         for (int j = 0; j < y; j++) {
             for (int i = 0; i < x; i++) {
-                sb.append(grid[i][j]);
+                sb.append(grid.charAt(i, j));
             }
             sb.append("\n");
         }
@@ -253,52 +359,6 @@ public class GridWorld extends World {
         return sb.toString();
     }
 
-    public boolean hasContradictions(HashMap<State, Action> pi) {
-      boolean hasContradiction = false;
-      int contradictionCount = 0;
-      for (Map.Entry<State, Action> entry : pi.entrySet()) {
-        GridState state = (GridState) entry.getKey();
-        GridAction action = (GridAction) entry.getValue();
-        if(isTerminal(state)){
-          continue;
-        }
-
-        // Get the state that this action points to
-        GridState adjacentState = (GridState) getAdjacentState(state, action);
-        if (adjacentState != null && pi.containsKey(adjacentState) && !adjacentState.equals(state)) {
-          // Check if the adjacent state has an action pointing back to the original state
-          GridAction reverseAction = (GridAction) pi.get(adjacentState);
-          if (reverseAction != null && getAdjacentState(adjacentState, reverseAction).equals(state)) {
-            System.out.println("Contradiction found between " + state + " and " + adjacentState);
-            System.out.println("Action from " + state + " to " + adjacentState + ": " + action);
-            System.out.println("Action from " + adjacentState + " to " + state + ": " + reverseAction+"\n");
-            hasContradiction = true; // There's a contradiction
-            contradictionCount++;
-          }
-        }
-    }
-    if (hasContradiction) {
-      System.out.println("Total contradictions found: " + contradictionCount/2);
-    }
-    return hasContradiction; // No contradictions found
-  }
-
-  // Helper method to get the adjacent state based on the action
-  private State getAdjacentState(GridState state, GridAction action) {
-    switch (action.getDirection()) {
-      case NORTH:
-          return new GridState(state.getX(), state.getY()+1);
-      case SOUTH:
-          return new GridState(state.getX(), state.getY()-1);
-      case EAST:
-          return new GridState(state.getX()+1, state.getY());
-      case WEST:
-          return new GridState(state.getX()-1, state.getX());
-    }
-    return null;
-  }
-
-
     public static void main(String[] args) {
       try {
         GridWorld world = new GridWorld("rnGrid.lay");
@@ -307,12 +367,12 @@ public class GridWorld extends World {
         State initialState = new GridState(1, 1);
 
         // Check available actions from the initial state
-        ArrayList<Action> actions = world.A(initialState);
+        List<Action> actions = world.A(initialState);
         System.out.println("Available actions from initial state: "+actions);
         
         System.out.println("");
 
-        LinkedList<Transition> transitions = world.P(initialState, actions.get(0)); 
+        List<Transition> transitions = world.P(initialState, actions.get(0)); 
         System.out.println( transitions );
         System.out.println("");
 
@@ -333,8 +393,40 @@ public class GridWorld extends World {
         System.out.println("Terminal Test for non-terminal: "+ world.isTerminal(new GridState(1, 1)));
         System.out.println("Terminal Test for terminal: "+ world.isTerminal(new GridState(4, 3)));
 
-    } catch (FileNotFoundException e) {
-        System.out.println("Error: File not found. " + e.getMessage());
+        // The same seed replays the same trajectory
+        StringBuilder[] runs = { new StringBuilder(), new StringBuilder() };
+        for (StringBuilder run : runs) {
+          world.setSeed(42);
+          State s = initialState;
+          for (int i = 0; i < 10 && !world.isTerminal(s); i++) {
+            s = world.act(s, world.A(s).get(0)).getState();
+            run.append(s).append(' ');
+          }
+        }
+        System.out.println("Seeded trajectory: " + runs[0]);
+        System.out.println("Replayed identically: " + runs[0].toString().equals(runs[1].toString()));
+
+        // Heap bytes allocated per act call, once the caches are warm
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long calls = 1000000;
+        State s = initialState;
+        for (int round = 0; round < 2; round++) {
+          long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+          for (long i = 0; i < calls; i++) {
+            s = world.act(s, world.A(s).get(0)).getState();
+            if (world.isTerminal(s)) {
+              s = initialState;
+            }
+          }
+          long after = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+          if (round == 1) {
+            System.out.println("Bytes allocated per act call: " + (double) (after - before) / calls);
+          }
+        }
+
+    } catch (IOException e) {
+        System.out.println("Error: Could not read layout. " + e.getMessage());
     } catch (Exception e) {
         System.out.println("An error occurred: " + e.getMessage());
         e.printStackTrace();
@@ -0,0 +1,19 @@
+/**
+ * The hash step behind CompiledWorld's and OffHeapGrid's content hashes,
+ * the solvers' settings keys and SolveCache's keys.  Checkpoints and
+ * cache files store these hashes, so changing mix invalidates every one
+ * of them.
+ */
+
+public final class Hashing {
+
+  private Hashing() {
+  }
+
+  // Folds v into h
+  static long mix( long h, long v ) {
+    h = ( h ^ v ) * 0x9E3779B97F4A7C15L;
+    return h ^ ( h >>> 29 );
+  }
+
+} // Hashing class
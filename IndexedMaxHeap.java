@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * A binary max-heap of int ids in [0, capacity) with double keys.  Each id
+ * is in the heap at most once, and position[] tracks where it sits, so a
+ * key can be raised, lowered or removed in O(log n) without searching.
+ */
+
+public class IndexedMaxHeap {
+
+  private final int[] heap;     // ids, heap-ordered by key
+  private final int[] position; // index of each id in heap, -1 if absent
+  private final double[] key;   // key by id
+  private int size;
+
+  public IndexedMaxHeap( int capacity ) {
+    heap = new int[capacity];
+    position = new int[capacity];
+    key = new double[capacity];
+    Arrays.fill( position, -1 );
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains( int id ) {
+    return position[id] != -1;
+  }
+
+  public double key( int id ) {
+    return key[id];
+  }
+
+  public int peek() {
+    return heap[0];
+  }
+
+  public double peekKey() {
+    return key[heap[0]];
+  }
+
+  // Inserts id with key k, or moves it to key k if it is already present
+  public void set( int id, double k ) {
+    if ( position[id] == -1 ) {
+      heap[size] = id;
+      position[id] = size;
+      size++;
+      key[id] = k;
+      siftUp( position[id] );
+    }
+    else if ( k > key[id] ) {
+      key[id] = k;
+      siftUp( position[id] );
+    }
+    else {
+      key[id] = k;
+      siftDown( position[id] );
+    }
+  }
+
+  public int poll() {
+    int top = heap[0];
+    removeAt( 0 );
+    return top;
+  }
+
+  public void remove( int id ) {
+    if ( position[id] != -1 ) {
+      removeAt( position[id] );
+    }
+  }
+
+  public void clear() {
+    for ( int i = 0; i < size; i++ ) {
+      position[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  private void removeAt( int i ) {
+    int id = heap[i];
+    size--;
+    position[id] = -1;
+    if ( i == size ) {
+      return;
+    }
+    int moved = heap[size];
+    heap[i] = moved;
+    position[moved] = i;
+    siftUp( i );
+    siftDown( position[moved] );
+  }
+
+  private void siftUp( int i ) {
+    int id = heap[i];
+    while ( i > 0 ) {
+      int parent = ( i - 1 ) >>> 1;
+      if ( key[heap[parent]] >= key[id] ) {
+        break;
+      }
+      heap[i] = heap[parent];
+      position[heap[i]] = i;
+      i = parent;
+    }
+    heap[i] = id;
+    position[id] = i;
+  }
+
+  private void siftDown( int i ) {
+    int id = heap[i];
+    while ( true ) {
+      int child = 2 * i + 1;
+      if ( child >= size ) {
+        break;
+      }
+      if ( child + 1 < size && key[heap[child + 1]] > key[heap[child]] ) {
+        child++;
+      }
+      if ( key[id] >= key[heap[child]] ) {
+        break;
+      }
+      heap[i] = heap[child];
+      position[heap[i]] = i;
+      i = child;
+    }
+    heap[i] = id;
+    position[id] = i;
+  }
+
+} // IndexedMaxHeap class
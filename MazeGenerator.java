@@ -0,0 +1,496 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+ * Generates layouts one row at a time, so memory stays proportional to the
+ * width however tall the layout is, except for ROOMS below.  Rows go to a
+ * RowSink, which either streams them to a .lay file or sets the cells of a
+ * PackedLayout.
+ *
+ * There are three styles:
+ *
+ *   PERFECT  a maze with exactly one path between any two open cells,
+ *            built with Eller's algorithm.  Cells sit on odd coordinates
+ *            with walls between them, so a width of 2w + 1 holds w cells.
+ *   BRAIDED  the same maze, except that a wall between two cells that are
+ *            already connected is also removed with the loop probability,
+ *            which adds cycles.
+ *   ROOMS    open rooms of roomSize x roomSize cells separated by
+ *            one-cell walls, with one door in every wall two rooms share.
+ *            Each room cell is a wall with the wall density; cells the
+ *            walls cut off from the largest open region are walled in,
+ *            so every open cell reaches every terminal.
+ *
+ * The + and - terminals go at distinct random open cells that all reach
+ * each other.  Every cell of a maze is open and connected, so a maze
+ * draws them up front from the cells and streams its rows.  Walls inside
+ * rooms can enclose cells, so ROOMS first builds the whole layout as a
+ * bitmap, two bits a cell with the one the flood fill needs, keeps only
+ * the largest open region and draws the terminals from it.  The same seed and
+ * settings always produce the same layout.
+ */
+
+public class MazeGenerator {
+
+  public enum Style { PERFECT, BRAIDED, ROOMS }
+
+  // Receives the rows of a layout in order, y = 0 first.  The row array
+  // is reused for the next row.
+  public interface RowSink {
+    void row( int y, byte[] row ) throws IOException;
+  }
+
+  private final int width;
+  private final int height;
+  private long seed;
+  private Style style = Style.PERFECT;
+  private double loopProbability = 0.1;
+  private double wallDensity = 0.0;
+  private int roomSize;
+  private int plusTerminals = 1;
+  private int minusTerminals = 1;
+
+  private long[] terminalCells;     // y * width + x, sorted
+  private boolean[] terminalPlus;   // parallel to terminalCells
+  private int nextTerminal;
+
+  public MazeGenerator( int width, int height, long seed ) {
+    if ( width < 3 || height < 3 ) {
+      throw new IllegalArgumentException( "A layout needs at least 3x3 cells: " + width + "x" + height );
+    }
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+    roomSize = Math.max( width, height );
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  public void setSeed( long seed ) {
+    this.seed = seed;
+  }
+
+  public void setStyle( Style style ) {
+    this.style = style;
+  }
+
+  // For BRAIDED: the chance that a wall closing a loop is removed anyway
+  public void setLoopProbability( double loopProbability ) {
+    this.loopProbability = loopProbability;
+  }
+
+  // For ROOMS: the chance that a cell inside a room is a wall
+  public void setWallDensity( double wallDensity ) {
+    this.wallDensity = wallDensity;
+  }
+
+  // For ROOMS: the side of a room, not counting its walls
+  public void setRoomSize( int roomSize ) {
+    if ( roomSize < 1 ) {
+      throw new IllegalArgumentException( "Rooms must be at least 1 cell wide: " + roomSize );
+    }
+    this.roomSize = roomSize;
+  }
+
+  public void setTerminals( int plus, int minus ) {
+    if ( plus < 0 || minus < 0 ) {
+      throw new IllegalArgumentException( "Terminal counts cannot be negative: " + plus + ", " + minus );
+    }
+    plusTerminals = plus;
+    minusTerminals = minus;
+  }
+
+  // Streams the layout to a .lay file
+  public void write( String filename ) throws IOException {
+    try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( filename ), 1 << 16 ) ) {
+      write( out );
+    }
+  }
+
+  public void write( OutputStream out ) throws IOException {
+    generate( ( y, row ) -> {
+      out.write( row );
+      out.write( '\n' );
+    } );
+  }
+
+  // Builds the layout in memory, without a file or a String in between
+  public PackedLayout layout() {
+    PackedLayout layout = new PackedLayout( width, height );
+    try {
+      generate( ( y, row ) -> {
+        for ( int x = 0; x < width; x++ ) {
+          if ( row[x] == '+' ) {
+            layout.setTerminal( x, y, 1.0 );
+          }
+          else if ( row[x] == '-' ) {
+            layout.setTerminal( x, y, -1.0 );
+          }
+          else if ( row[x] != '%' ) {
+            layout.setWall( x, y, false );
+          }
+        }
+      } );
+    } // try
+    catch ( IOException e ) {
+      throw new IllegalStateException( e ); // the sink above never throws
+    } // catch
+    return layout;
+  }
+
+  public GridWorld world() {
+    return new GridWorld( layout() );
+  }
+
+  public void generate( RowSink sink ) throws IOException {
+    SplittableRandom random = new SplittableRandom( seed );
+    if ( style == Style.ROOMS ) {
+      long[] open = new long[(int) ( ( (long) width * height + 63 ) >>> 6 )];
+      rooms( ( y, row ) -> {
+        for ( int x = 0; x < width; x++ ) {
+          if ( row[x] == ' ' ) {
+            set( open, (long) y * width + x );
+          }
+        }
+      }, random );
+      long[] region = largestRegion( open );
+      placeTerminals( random, region );
+      byte[] row = new byte[width];
+      for ( int y = 0; y < height; y++ ) {
+        for ( int x = 0; x < width; x++ ) {
+          row[x] = isSet( region, (long) y * width + x ) ? (byte) ' ' : (byte) '%';
+        }
+        emit( sink, y, row );
+      }
+    }
+    else {
+      placeTerminals( random, null );
+      maze( sink, random );
+    }
+  }
+
+  // Eller's algorithm.  set[i] is the set of cell i in the current row;
+  // sets are relabelled 0.. at the start of every row, so the union-find
+  // arrays never need more than one slot per cell of a row.
+  private void maze( RowSink sink, SplittableRandom random ) throws IOException {
+    int w = ( width - 1 ) / 2;
+    int h = ( height - 1 ) / 2;
+    int[] set = new int[w];
+    int[] parent = new int[w];
+    int[] relabel = new int[w];
+    int[] remaining = new int[w];
+    boolean[] wentDown = new boolean[w];
+    byte[] row = new byte[width];
+    Arrays.fill( set, -1 );
+
+    Arrays.fill( row, (byte) '%' );
+    emit( sink, 0, row );
+    for ( int r = 0; r < h; r++ ) {
+      boolean last = r == h - 1;
+
+      // Compact the sets that came down from the row above, then give
+      // every other cell a set of its own
+      Arrays.fill( relabel, -1 );
+      int labels = 0;
+      for ( int i = 0; i < w; i++ ) {
+        if ( set[i] >= 0 ) {
+          if ( relabel[set[i]] < 0 ) {
+            relabel[set[i]] = labels++;
+          }
+          set[i] = relabel[set[i]];
+        }
+      }
+      for ( int i = 0; i < w; i++ ) {
+        if ( set[i] < 0 ) {
+          set[i] = labels++;
+        }
+      }
+      for ( int l = 0; l < labels; l++ ) {
+        parent[l] = l;
+        remaining[l] = 0;
+        wentDown[l] = false;
+      }
+
+      // Join neighbours in different sets at random, and all of them in the
+      // last row so the maze ends up connected
+      Arrays.fill( row, (byte) '%' );
+      for ( int i = 0; i < w; i++ ) {
+        row[2 * i + 1] = ' ';
+      }
+      for ( int i = 0; i < w - 1; i++ ) {
+        int a = find( parent, set[i] );
+        int b = find( parent, set[i + 1] );
+        if ( a != b ? last || random.nextBoolean()
+             : style == Style.BRAIDED && random.nextDouble() < loopProbability ) {
+          parent[b] = a;
+          row[2 * i + 2] = ' ';
+        }
+      }
+      emit( sink, 2 * r + 1, row );
+
+      // Every set carries on into the next row through at least one cell
+      Arrays.fill( row, (byte) '%' );
+      if ( !last ) {
+        for ( int i = 0; i < w; i++ ) {
+          set[i] = find( parent, set[i] );
+          remaining[set[i]]++;
+        }
+        for ( int i = 0; i < w; i++ ) {
+          int s = set[i];
+          remaining[s]--;
+          if ( random.nextBoolean() || ( remaining[s] == 0 && !wentDown[s] ) ) {
+            wentDown[s] = true;
+            row[2 * i + 1] = ' ';
+          }
+          else {
+            set[i] = -1;
+          }
+        }
+      }
+      emit( sink, 2 * r + 2, row );
+    }
+    Arrays.fill( row, (byte) '%' );
+    for ( int y = 2 * h + 1; y < height; y++ ) {
+      emit( sink, y, row ); // the spare row of an even height
+    }
+  }
+
+  private static int find( int[] parent, int l ) {
+    while ( parent[l] != l ) {
+      parent[l] = parent[parent[l]];
+      l = parent[l];
+    }
+    return l;
+  }
+
+  // Rooms start one cell in from the border, and every roomSize + 1 cells
+  // after that, so their walls fall on multiples of roomSize + 1.  The
+  // rows go to sink without terminals.
+  private void rooms( RowSink sink, SplittableRandom random ) throws IOException {
+    int pitch = roomSize + 1;
+    int[] door = new int[width / pitch + 1]; // per wall line, its door's offset
+    byte[] row = new byte[width];
+    for ( int y = 0; y < height; y++ ) {
+      Arrays.fill( row, (byte) '%' );
+      if ( y == 0 || y == height - 1 ) {
+        // border
+      }
+      else if ( y % pitch == 0 ) {
+        // A wall between two rows of rooms, with a door into each room below
+        for ( int x0 = 1; x0 < width - 1; x0 += pitch ) {
+          row[x0 + random.nextInt( Math.min( roomSize, width - 1 - x0 ) )] = ' ';
+        }
+      }
+      else {
+        int top = y - y % pitch + 1;
+        if ( y == top ) {
+          for ( int k = 1; k < door.length; k++ ) {
+            door[k] = random.nextInt( Math.min( roomSize, height - 1 - top ) );
+          }
+        }
+        for ( int x = 1; x < width - 1; x++ ) {
+          if ( x % pitch == 0 ) {
+            row[x] = door[x / pitch] == y - top ? (byte) ' ' : (byte) '%';
+          }
+          else {
+            row[x] = random.nextDouble() < wallDensity ? (byte) '%' : (byte) ' ';
+          }
+        }
+      }
+      sink.row( y, row );
+    }
+  }
+
+  /*
+  The cells of the largest 4-connected region of open cells, as a bitmap
+  over y * width + x.  Flood-fills every region once to find it, then
+  again from one of its cells, reusing the visited bitmap, so the whole
+  search takes one more bit a cell.
+  */
+  private long[] largestRegion( long[] open ) {
+    long cells = (long) width * height;
+    long[] visited = new long[open.length];
+    long bestCell = -1;
+    long bestSize = 0;
+    for ( long c = 0; c < cells; c++ ) {
+      if ( isSet( open, c ) && !isSet( visited, c ) ) {
+        long size = fill( open, visited, c );
+        if ( size > bestSize ) {
+          bestSize = size;
+          bestCell = c;
+        }
+      }
+    }
+    Arrays.fill( visited, 0 );
+    if ( bestCell >= 0 ) {
+      fill( open, visited, bestCell );
+    }
+    return visited;
+  }
+
+  // Breadth-first flood fill from start over open cells not yet visited;
+  // returns the number of cells it reached.  The queue is a ring that
+  // doubles when the frontier outgrows it.
+  private long fill( long[] open, long[] visited, long start ) {
+    long cells = (long) width * height;
+    long[] ring = new long[1024];
+    int head = 0;
+    int count = 1;
+    ring[0] = start;
+    set( visited, start );
+    long size = 0;
+    while ( count > 0 ) {
+      long c = ring[head];
+      head = ( head + 1 ) % ring.length;
+      count--;
+      size++;
+      long x = c % width;
+      for ( int d = 0; d < 4; d++ ) {
+        long n = d == 0 ? ( x + 1 < width ? c + 1 : -1 )
+            : d == 1 ? ( x > 0 ? c - 1 : -1 )
+            : d == 2 ? c + width : c - width;
+        if ( n < 0 || n >= cells || !isSet( open, n ) || isSet( visited, n ) ) {
+          continue;
+        }
+        set( visited, n );
+        if ( count == ring.length ) {
+          long[] grown = new long[ring.length * 2];
+          for ( int i = 0; i < count; i++ ) {
+            grown[i] = ring[( head + i ) % ring.length];
+          }
+          ring = grown;
+          head = 0;
+        }
+        ring[( head + count ) % ring.length] = n;
+        count++;
+      }
+    }
+    return size;
+  }
+
+  private static void set( long[] bits, long i ) {
+    bits[(int) ( i >>> 6 )] |= 1L << i;
+  }
+
+  private static boolean isSet( long[] bits, long i ) {
+    return ( bits[(int) ( i >>> 6 )] & ( 1L << i ) ) != 0;
+  }
+
+  /*
+  Draws the terminals: for a maze, from the cells on odd coordinates,
+  which are always open and connected; for rooms, from the cells set in
+  region, which must hold enough of them.
+  */
+  private void placeTerminals( SplittableRandom random, long[] region ) {
+    int count = plusTerminals + minusTerminals;
+    long cells = 0;
+    if ( region != null ) {
+      for ( long word : region ) {
+        cells += Long.bitCount( word );
+      }
+    }
+    else {
+      cells = (long) ( ( width - 1 ) / 2 ) * ( ( height - 1 ) / 2 );
+    }
+    if ( count > cells ) {
+      throw new IllegalArgumentException( count + " terminals do not fit in " + cells + " connected open cells" );
+    }
+    HashSet<Long> taken = new HashSet<Long>();
+    long[] cell = new long[count];
+    for ( int i = 0; i < count; i++ ) {
+      long c;
+      do {
+        int x;
+        int y;
+        if ( region != null ) {
+          x = 1 + random.nextInt( width - 2 );
+          y = 1 + random.nextInt( height - 2 );
+        }
+        else {
+          x = 2 * random.nextInt( ( width - 1 ) / 2 ) + 1;
+          y = 2 * random.nextInt( ( height - 1 ) / 2 ) + 1;
+        }
+        c = (long) y * width + x;
+      } while ( ( region != null && !isSet( region, c ) ) || !taken.add( c ) );
+      cell[i] = c;
+    }
+    // Sort by cell, keeping track of which were drawn as + terminals
+    Long[] order = new Long[count];
+    for ( int i = 0; i < count; i++ ) {
+      order[i] = cell[i] * 2 + ( i < plusTerminals ? 1 : 0 );
+    }
+    Arrays.sort( order );
+    terminalCells = new long[count];
+    terminalPlus = new boolean[count];
+    for ( int i = 0; i < count; i++ ) {
+      terminalCells[i] = order[i] / 2;
+      terminalPlus[i] = order[i] % 2 == 1;
+    }
+    nextTerminal = 0;
+  }
+
+  // Marks the terminals that fall in row y, then hands the row on
+  private void emit( RowSink sink, int y, byte[] row ) throws IOException {
+    while ( nextTerminal < terminalCells.length && terminalCells[nextTerminal] / width == y ) {
+      row[(int) ( terminalCells[nextTerminal] % width )] = terminalPlus[nextTerminal] ? (byte) '+' : (byte) '-';
+      nextTerminal++;
+    }
+    sink.row( y, row );
+  }
+
+  /**
+   * java MazeGenerator maze.lay 10000 10000 [perfect|braided|rooms] [seed]
+   */
+
+  public static void main( String args[] ) {
+    try {
+      String filename = args.length > 0 ? args[0] : "maze.lay";
+      int width = args.length > 1 ? Integer.parseInt( args[1] ) : 1001;
+      int height = args.length > 2 ? Integer.parseInt( args[2] ) : width;
+      MazeGenerator generator = new MazeGenerator( width, height,
+          args.length > 4 ? Long.parseLong( args[4] ) : 2026875034 );
+      if ( args.length > 3 ) {
+        generator.setStyle( Style.valueOf( args[3].toUpperCase() ) );
+      }
+      if ( generator.style == Style.ROOMS ) {
+        generator.setRoomSize( 15 );
+        generator.setWallDensity( 0.1 );
+      }
+      generator.setTerminals( 3, 3 );
+
+      long start = System.nanoTime();
+      generator.write( filename );
+      System.out.printf( "Wrote %dx%d %s layout to %s in %.2f s%n", width, height,
+          generator.style.name().toLowerCase(), filename, ( System.nanoTime() - start ) / 1e9 );
+
+      start = System.nanoTime();
+      PackedLayout layout = generator.layout();
+      System.out.printf( "Generated %s in memory in %.2f s%n", layout, ( System.nanoTime() - start ) / 1e9 );
+      PackedLayout loaded = PackedLayout.load( filename );
+      boolean same = loaded.width() == layout.width() && loaded.height() == layout.height()
+          && loaded.terminalCount() == layout.terminalCount();
+      for ( int y = 0; same && y < height; y++ ) {
+        for ( int x = 0; same && x < width; x++ ) {
+          same = loaded.charAt( x, y ) == layout.charAt( x, y );
+        }
+      }
+      System.out.println( "File and in-memory layouts match: " + same );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // MazeGenerator class
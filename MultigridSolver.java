@@ -0,0 +1,745 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A coarse-to-fine planner for grid worlds.  Cells are aggregated into
+ * blocks level by level: at each level, states whose cells fall in the
+ * same 2x2 block of the level below and are connected to each other within
+ * it become one coarse state, and terminals stay on their own.  Walls
+ * therefore never get averaged across, and a corridor in a maze stays a
+ * corridor at every level.  Each coarse state gets an aggregated MDP whose
+ * rewards and transitions are the averages of its members', with an action
+ * that is not available in a member counting as staying put.
+ *
+ * Solving runs from the coarsest level down.  The coarsest MDP is solved by
+ * policy iteration with each policy's linear system solved directly.  Its
+ * utilities are then copied down to the members of each coarse state as
+ * the warm start of the level below, which runs policy iteration again:
+ * each policy is evaluated by Gauss-Seidel sweeps ordered downwind, so that
+ * every state comes after the state its action mostly leads to and values
+ * travel from the terminals to the far end of a corridor in one sweep.
+ * Because the warm start already points almost every state the right way,
+ * a level needs only a few improvements, and the cells only a few sweeps.
+ *
+ * getFineSweeps() counts the passes over the cells, evaluation sweeps and
+ * improvement steps alike; getWork() adds the coarse passes, each weighted
+ * by the size of its level relative to the cells.
+ */
+
+public class MultigridSolver {
+
+  private double gamma = 0.9;
+  private double theta = 1E-9;      // largest change of a converged evaluation
+  private int evaluationSweeps = 4; // sweeps per evaluation while the policy is still changing
+  private int warmSweeps = 16;      // Bellman sweeps after copying utilities down a level
+  private int coarsest = 256;       // stop coarsening at this many states
+  private static final int DIRECT_LIMIT = 1024; // largest coarsest level solved directly
+
+  private HashMap<State,Double> u;  // utility function
+  private HashMap<State,Action> pi; // policy
+  private CompiledWorld model;
+  private double[] utility;         // utility by state id
+  private int[] policy;             // action slot by state id, -1 if none
+  private int actions;              // size of the action alphabet
+  private int[] slotOf;             // slot by state id * actions + action id, -1 if none
+
+  // The hierarchy: level 0 is the compiled model's states
+  private int levels;
+  private int[] size;               // states per level
+  private int[][] aggregate;        // level l state -> level l + 1 state
+  private int[][] memberStart;      // level l + 1 state -> its level l members, CSR
+  private int[][] member;
+  private double[][] weight;        // cells per state
+  private boolean[][] terminal;
+  private double[][] reward;        // mean reward of the cells
+
+  // Aggregated MDPs for levels >= 1, one row of transitions per state * actions + action id
+  private int[][] mdpStart;
+  private int[][] mdpTarget;
+  private double[][] mdpProbability;
+
+  private int[] iterations;         // policy improvements per level
+  private long[] sweeps;            // passes over the states per level
+  private long nanos;
+
+  public MultigridSolver() {
+    u = new HashMap<State,Double>();
+    pi = new HashMap<State,Action>();
+  }
+
+  public MultigridSolver( double theta ) {
+    this();
+    this.theta = theta;
+  }
+
+  public void setGamma( double gamma ) {
+    if ( gamma <= 0.0 || gamma >= 1.0 ) {
+      throw new IllegalArgumentException( "gamma must be in (0, 1): " + gamma );
+    }
+    this.gamma = gamma;
+  }
+
+  // Stops coarsening once a level has at most this many states
+  public void setCoarsest( int states ) {
+    if ( states < 1 ) {
+      throw new IllegalArgumentException( "The coarsest level needs at least one state: " + states );
+    }
+    coarsest = states;
+  }
+
+  public Action pi( State s ) {
+    if ( pi == null )
+      return null;
+    else
+      return pi.get( s );
+  }
+
+  public double utility( State s ) {
+    Double v = u.get( s );
+    return v == null ? 0.0 : v;
+  }
+
+  public int getLevels() {
+    return levels;
+  }
+
+  public int getLevelSize( int level ) {
+    return size[level];
+  }
+
+  public int getIterations( int level ) {
+    return iterations[level];
+  }
+
+  public long getSweeps( int level ) {
+    return sweeps[level];
+  }
+
+  public long getFineSweeps() {
+    return sweeps[0];
+  }
+
+  // Passes over the states of every level, in passes over the cells
+  public double getWork() {
+    double work = 0.0;
+    for ( int l = 0; l < levels; l++ ) {
+      work += sweeps[l] * (double) size[l] / size[0];
+    }
+    return work;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public void solve( World world ) {
+    long start = System.nanoTime();
+    model = world.compile();
+    buildHierarchy();
+    iterations = new int[levels];
+    sweeps = new long[levels];
+
+    // Starting from the value of collecting the reward forever puts every
+    // utility below its solution, so no early policy circles on hope
+    int top = levels - 1;
+    double[] v = new double[size[top]];
+    for ( int i = 0; i < size[top]; i++ ) {
+      v[i] = terminal[top][i] ? reward[top][i] : reward[top][i] / ( 1.0 - gamma );
+    }
+    int[] choice = solveLevel( top, v );
+    for ( int l = top - 1; l >= 0; l-- ) {
+      double[] finer = new double[size[l]];
+      for ( int i = 0; i < size[l]; i++ ) {
+        finer[i] = terminal[l][i] ? reward[l][i] : v[aggregate[l][i]];
+      }
+      v = finer;
+      for ( int k = 0; k < warmSweeps; k++ ) {
+        bellmanSweep( l, v );
+      }
+      choice = solveLevel( l, v );
+    }
+    utility = v;
+
+    policy = new int[model.stateCount()];
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      policy[s] = choice[s] == -1 ? -1 : slotOf[s * actions + choice[s]];
+    }
+    derivePolicy();
+    nanos = System.nanoTime() - start;
+  }
+
+  /*
+  Policy iteration on level l from the utilities v, which it leaves at the
+  solution; returns the action id of each state, or -1.  While the policy
+  keeps changing, each evaluation stops after evaluationSweeps sweeps; the
+  level is done once an improvement changes nothing after an evaluation
+  that converged.
+  */
+  private int[] solveLevel( int l, double[] v ) {
+    int[] choice = new int[size[l]];
+    Arrays.fill( choice, -1 );
+    int[] order = new int[size[l]];
+    boolean direct = l == levels - 1 && size[l] <= DIRECT_LIMIT;
+    int changed = improve( l, v, choice );
+    boolean converged = false;
+    while ( changed > 0 || !converged ) {
+      if ( direct ) {
+        solveDirect( l, v, choice );
+        converged = true;
+      }
+      else {
+        orderDownwind( l, choice, order );
+        converged = evaluate( l, v, choice, order, changed > 0 ? evaluationSweeps : Integer.MAX_VALUE );
+      }
+      changed = improve( l, v, choice );
+      iterations[l]++;
+    }
+    return choice;
+  }
+
+  private void buildHierarchy() {
+    int n = model.stateCount();
+    actions = model.actionCount();
+    slotOf = new int[n * actions];
+    Arrays.fill( slotOf, -1 );
+    int[] x = new int[n];
+    int[] y = new int[n];
+    boolean[] fineTerminal = new boolean[n];
+    double[] fineReward = new double[n];
+    double[] fineWeight = new double[n];
+    for ( int s = 0; s < n; s++ ) {
+      if ( !( model.state( s ) instanceof GridState ) ) {
+        throw new IllegalArgumentException( "MultigridSolver needs GridStates: " + model.state( s ) );
+      }
+      GridState cell = (GridState) model.state( s );
+      x[s] = cell.getX();
+      y[s] = cell.getY();
+      fineTerminal[s] = model.isTerminal( s );
+      fineReward[s] = model.reward( s );
+      fineWeight[s] = 1.0;
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        slotOf[s * actions + model.actionId( sa )] = sa;
+      }
+    }
+
+    int capacity = 40;
+    size = new int[capacity];
+    aggregate = new int[capacity][];
+    memberStart = new int[capacity][];
+    member = new int[capacity][];
+    weight = new double[capacity][];
+    terminal = new boolean[capacity][];
+    reward = new double[capacity][];
+    mdpStart = new int[capacity][];
+    mdpTarget = new int[capacity][];
+    mdpProbability = new double[capacity][];
+    size[0] = n;
+    weight[0] = fineWeight;
+    terminal[0] = fineTerminal;
+    reward[0] = fineReward;
+    levels = 1;
+
+    while ( size[levels - 1] > coarsest && levels < capacity ) {
+      int l = levels - 1;
+      int coarse = aggregate( l, x, y );
+      if ( coarse > 0.9 * size[l] ) {
+        break; // the blocks no longer merge anything
+      }
+      int[] cx = new int[coarse];
+      int[] cy = new int[coarse];
+      for ( int i = 0; i < size[l]; i++ ) {
+        cx[aggregate[l][i]] = x[i] >> 1;
+        cy[aggregate[l][i]] = y[i] >> 1;
+      }
+      x = cx;
+      y = cy;
+      size[levels] = coarse;
+      buildMembers( l );
+      buildCoarseMdp( l );
+      levels++;
+    }
+  }
+
+  // Unions the level l states that share a 2x2 block and a transition,
+  // leaving terminals alone, and numbers the unions; returns their count
+  private int aggregate( int l, int[] x, int[] y ) {
+    int n = size[l];
+    int[] parent = new int[n];
+    for ( int i = 0; i < n; i++ ) {
+      parent[i] = i;
+    }
+    for ( int i = 0; i < n; i++ ) {
+      if ( terminal[l][i] ) {
+        continue;
+      }
+      for ( int a = 0; a < actions; a++ ) {
+        for ( int t = rowBegin( l, i, a ); t < rowEnd( l, i, a ); t++ ) {
+          int j = target( l, t );
+          if ( j != i && !terminal[l][j] && x[i] >> 1 == x[j] >> 1 && y[i] >> 1 == y[j] >> 1 ) {
+            int ri = find( parent, i );
+            int rj = find( parent, j );
+            if ( ri != rj ) {
+              parent[Math.max( ri, rj )] = Math.min( ri, rj );
+            }
+          }
+        }
+      }
+    }
+    aggregate[l] = new int[n];
+    int count = 0;
+    for ( int i = 0; i < n; i++ ) {
+      int root = find( parent, i );
+      aggregate[l][i] = root == i ? count++ : aggregate[l][root];
+    }
+    return count;
+  }
+
+  private static int find( int[] parent, int i ) {
+    while ( parent[i] != i ) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  // The transitions of action id a in level l state i; the cells read the
+  // compiled model, where an unavailable action has none
+  private int rowBegin( int l, int i, int a ) {
+    if ( l > 0 ) {
+      return mdpStart[l][i * actions + a];
+    }
+    int sa = slotOf[i * actions + a];
+    return sa < 0 ? 0 : model.transitionBegin( sa );
+  }
+
+  private int rowEnd( int l, int i, int a ) {
+    if ( l > 0 ) {
+      return mdpStart[l][i * actions + a + 1];
+    }
+    int sa = slotOf[i * actions + a];
+    return sa < 0 ? 0 : model.transitionEnd( sa );
+  }
+
+  private int target( int l, int t ) {
+    return l == 0 ? model.successor( t ) : mdpTarget[l][t];
+  }
+
+  private double probability( int l, int t ) {
+    return l == 0 ? model.probability( t ) : mdpProbability[l][t];
+  }
+
+  private double expectedUtility( int l, int i, int a, double[] v ) {
+    double sum = 0.0;
+    for ( int t = rowBegin( l, i, a ); t < rowEnd( l, i, a ); t++ ) {
+      sum += probability( l, t ) * v[target( l, t )];
+    }
+    return sum;
+  }
+
+  private void buildMembers( int l ) {
+    int coarse = size[l + 1];
+    int[] start = new int[coarse + 1];
+    for ( int i = 0; i < size[l]; i++ ) {
+      start[aggregate[l][i] + 1]++;
+    }
+    for ( int c = 0; c < coarse; c++ ) {
+      start[c + 1] += start[c];
+    }
+    int[] list = new int[size[l]];
+    int[] fill = Arrays.copyOf( start, coarse );
+    for ( int i = 0; i < size[l]; i++ ) {
+      list[fill[aggregate[l][i]]++] = i;
+    }
+    memberStart[l + 1] = start;
+    member[l + 1] = list;
+
+    weight[l + 1] = new double[coarse];
+    terminal[l + 1] = new boolean[coarse];
+    reward[l + 1] = new double[coarse];
+    for ( int i = 0; i < size[l]; i++ ) {
+      int c = aggregate[l][i];
+      weight[l + 1][c] += weight[l][i];
+      reward[l + 1][c] += weight[l][i] * reward[l][i];
+      terminal[l + 1][c] = terminal[l][i];
+    }
+    for ( int c = 0; c < coarse; c++ ) {
+      reward[l + 1][c] /= weight[l + 1][c];
+    }
+  }
+
+  // The level l + 1 MDP: for each coarse state and action, the weighted
+  // average over its members of where that action takes them
+  private void buildCoarseMdp( int l ) {
+    int coarse = size[l + 1];
+    int[] start = new int[coarse * actions + 1];
+    int[] target = new int[Math.max( 16, size[l] * actions )];
+    double[] probability = new double[target.length];
+    double[] accumulated = new double[coarse];
+    int[] mark = new int[coarse];
+    Arrays.fill( mark, -1 );
+    int[] touched = new int[coarse];
+    int t = 0;
+    for ( int c = 0; c < coarse; c++ ) {
+      for ( int a = 0; a < actions; a++ ) {
+        int row = c * actions + a;
+        start[row] = t;
+        if ( terminal[l + 1][c] ) {
+          continue;
+        }
+        int count = 0;
+        for ( int m = memberStart[l + 1][c]; m < memberStart[l + 1][c + 1]; m++ ) {
+          int i = member[l + 1][m];
+          double w = weight[l][i] / weight[l + 1][c];
+          if ( rowBegin( l, i, a ) == rowEnd( l, i, a ) ) {
+            count = add( c, w, row, mark, touched, count, accumulated ); // stays put
+          }
+          for ( int k = rowBegin( l, i, a ); k < rowEnd( l, i, a ); k++ ) {
+            count = add( aggregate[l][target( l, k )], w * probability( l, k ), row,
+                mark, touched, count, accumulated );
+          }
+        }
+        if ( t + count > target.length ) {
+          target = Arrays.copyOf( target, Math.max( t + count, target.length * 2 ) );
+          probability = Arrays.copyOf( probability, target.length );
+        }
+        for ( int k = 0; k < count; k++ ) {
+          int j = touched[k];
+          target[t] = j;
+          probability[t] = accumulated[j];
+          accumulated[j] = 0.0;
+          t++;
+        }
+      }
+    }
+    start[coarse * actions] = t;
+    mdpStart[l + 1] = start;
+    mdpTarget[l + 1] = Arrays.copyOf( target, t );
+    mdpProbability[l + 1] = Arrays.copyOf( probability, t );
+  }
+
+  private static int add( int j, double p, int row, int[] mark, int[] touched, int count, double[] accumulated ) {
+    if ( mark[j] != row ) {
+      mark[j] = row;
+      touched[count++] = j;
+    }
+    accumulated[j] += p;
+    return count;
+  }
+
+  // One in-place Bellman sweep of level l
+  private void bellmanSweep( int l, double[] v ) {
+    for ( int i = 0; i < size[l]; i++ ) {
+      if ( terminal[l][i] ) {
+        continue;
+      }
+      double best = Double.NEGATIVE_INFINITY;
+      for ( int a = 0; a < actions; a++ ) {
+        if ( rowBegin( l, i, a ) < rowEnd( l, i, a ) ) {
+          best = Math.max( best, expectedUtility( l, i, a, v ) );
+        }
+      }
+      if ( best > Double.NEGATIVE_INFINITY ) {
+        v[i] = reward[l][i] + gamma * best;
+      }
+    }
+    sweeps[l]++;
+  }
+
+  // Makes the policy of level l greedy with respect to v, keeping a state's
+  // action unless another beats it by more than theta, so actions that tie
+  // to within the evaluation's accuracy cannot take turns; returns the
+  // number of states whose action changed
+  private int improve( int l, double[] v, int[] choice ) {
+    int changed = 0;
+    for ( int i = 0; i < size[l]; i++ ) {
+      if ( terminal[l][i] ) {
+        continue;
+      }
+      int best = -1;
+      double bestUtility = Double.NEGATIVE_INFINITY;
+      for ( int a = 0; a < actions; a++ ) {
+        if ( rowBegin( l, i, a ) == rowEnd( l, i, a ) ) {
+          continue;
+        }
+        double expected = expectedUtility( l, i, a, v );
+        if ( expected > bestUtility ) {
+          bestUtility = expected;
+          best = a;
+        }
+      }
+      if ( best != choice[i]
+          && ( choice[i] == -1 || bestUtility > expectedUtility( l, i, choice[i], v ) + theta ) ) {
+        choice[i] = best;
+        changed++;
+      }
+    }
+    sweeps[l]++;
+    return changed;
+  }
+
+  /*
+  Orders the states of level l so each comes after the state its action
+  most likely leads to: a breadth-first search backwards from the states
+  without an action, terminals first, along those most likely successors.
+  States on a policy cycle that never reaches a terminal go last.
+  */
+  private void orderDownwind( int l, int[] choice, int[] order ) {
+    int n = size[l];
+    int[] next = new int[n];
+    int[] predecessorStart = new int[n + 1];
+    for ( int i = 0; i < n; i++ ) {
+      next[i] = -1;
+      if ( choice[i] == -1 ) {
+        continue;
+      }
+      double best = 0.0;
+      for ( int t = rowBegin( l, i, choice[i] ); t < rowEnd( l, i, choice[i] ); t++ ) {
+        if ( probability( l, t ) > best && target( l, t ) != i ) {
+          best = probability( l, t );
+          next[i] = target( l, t );
+        }
+      }
+      if ( next[i] >= 0 ) {
+        predecessorStart[next[i] + 1]++;
+      }
+    }
+    for ( int i = 0; i < n; i++ ) {
+      predecessorStart[i + 1] += predecessorStart[i];
+    }
+    int[] predecessor = new int[predecessorStart[n]];
+    int[] fill = Arrays.copyOf( predecessorStart, n );
+    for ( int i = 0; i < n; i++ ) {
+      if ( next[i] >= 0 ) {
+        predecessor[fill[next[i]]++] = i;
+      }
+    }
+    boolean[] placed = new boolean[n];
+    int head = 0;
+    int tail = 0;
+    for ( int i = 0; i < n; i++ ) {
+      if ( next[i] < 0 ) {
+        order[tail++] = i;
+        placed[i] = true;
+      }
+    }
+    int rest = 0;
+    while ( tail < n ) {
+      while ( head < tail ) {
+        int i = order[head++];
+        for ( int k = predecessorStart[i]; k < predecessorStart[i + 1]; k++ ) {
+          if ( !placed[predecessor[k]] ) {
+            placed[predecessor[k]] = true;
+            order[tail++] = predecessor[k];
+          }
+        }
+      }
+      while ( rest < n && placed[rest] ) {
+        rest++;
+      }
+      if ( rest < n ) {
+        placed[rest] = true; // a policy cycle
+        order[tail++] = rest;
+      }
+    }
+  }
+
+  // Gauss-Seidel sweeps of the current policy's values in the given order,
+  // solving each state's self-transition exactly; returns whether the
+  // largest change of a sweep got below theta within the allowed sweeps
+  private boolean evaluate( int l, double[] v, int[] choice, int[] order, int allowed ) {
+    for ( int k = 0; k < allowed; k++ ) {
+      double change = 0.0;
+      for ( int i : order ) {
+        if ( choice[i] == -1 ) {
+          continue;
+        }
+        double sum = 0.0;
+        double self = 0.0;
+        for ( int t = rowBegin( l, i, choice[i] ); t < rowEnd( l, i, choice[i] ); t++ ) {
+          int j = target( l, t );
+          if ( j == i ) {
+            self += probability( l, t );
+          }
+          else {
+            sum += probability( l, t ) * v[j];
+          }
+        }
+        double next = ( reward[l][i] + gamma * sum ) / ( 1.0 - gamma * self );
+        change = Math.max( change, Math.abs( next - v[i] ) );
+        v[i] = next;
+      }
+      sweeps[l]++;
+      if ( change < theta ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Solves (I - gamma P_pi) v = r for level l's policy by LU decomposition
+  // with partial pivoting; states without an action keep their utility
+  private void solveDirect( int l, double[] v, int[] choice ) {
+    int n = size[l];
+    double[] a = new double[n * n];
+    for ( int i = 0; i < n; i++ ) {
+      a[i * n + i] = 1.0;
+      if ( choice[i] == -1 ) {
+        continue;
+      }
+      for ( int t = rowBegin( l, i, choice[i] ); t < rowEnd( l, i, choice[i] ); t++ ) {
+        a[i * n + target( l, t )] -= gamma * probability( l, t );
+      }
+      v[i] = reward[l][i];
+    }
+    for ( int k = 0; k < n; k++ ) {
+      int p = k;
+      for ( int i = k + 1; i < n; i++ ) {
+        if ( Math.abs( a[i * n + k] ) > Math.abs( a[p * n + k] ) ) {
+          p = i;
+        }
+      }
+      if ( p != k ) {
+        for ( int j = 0; j < n; j++ ) {
+          double swap = a[k * n + j];
+          a[k * n + j] = a[p * n + j];
+          a[p * n + j] = swap;
+        }
+        double swap = v[k];
+        v[k] = v[p];
+        v[p] = swap;
+      }
+      double d = a[k * n + k];
+      for ( int i = k + 1; i < n; i++ ) {
+        double f = a[i * n + k] / d;
+        if ( f != 0.0 ) {
+          for ( int j = k + 1; j < n; j++ ) {
+            a[i * n + j] -= f * a[k * n + j];
+          }
+          v[i] -= f * v[k];
+        }
+      }
+    }
+    for ( int i = n - 1; i >= 0; i-- ) {
+      double sum = v[i];
+      for ( int j = i + 1; j < n; j++ ) {
+        sum -= a[i * n + j] * v[j];
+      }
+      v[i] = sum / a[i * n + i];
+    }
+  }
+
+  // Copies the solution into the State-keyed maps behind pi(State) and
+  // toString.  Terminal states get a null action.
+  private void derivePolicy() {
+    u.clear();
+    pi.clear();
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      State state = model.state( s );
+      u.put( state, utility[s] );
+      pi.put( state, policy[s] == -1 ? null : model.action( policy[s] ) );
+    }
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append( levels + " levels (" );
+    for ( int l = 0; l < levels; l++ ) {
+      sb.append( l > 0 ? " > " : "" ).append( size[l] );
+    }
+    sb.append( " states), " + iterations[0] + " fine policy iterations, " + sweeps[0]
+        + " fine sweeps, " + String.format( "%.1f", getWork() ) + " sweeps of work, "
+        + nanos / 1000 + " us\n" );
+    sb.append( "u = " + u );
+    sb.append( "\npi = " + pi );
+    return sb.toString();
+  }
+
+  /**
+   * java MultigridSolver [size | layout.lay] [gamma]
+   *
+   * Solves a generated size x size perfect maze (1001 by default) or a
+   * layout file with MultigridSolver and with ValueIteration, and with
+   * PolicyIteration evaluating each policy exactly when the world is small
+   * enough for it to finish, then counts the states whose action is worse
+   * than the reference's by more than 1E-6 under the reference utilities.
+   * The default gamma of 0.999 lets the terminals matter across the maze.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      String source = args.length > 0 ? args[0] : "1001";
+      double gamma = args.length > 1 ? Double.parseDouble( args[1] ) : 0.999;
+      World world;
+      if ( source.endsWith( ".lay" ) ) {
+        world = new GridWorld( source );
+      }
+      else {
+        int n = Integer.parseInt( source );
+        world = new MazeGenerator( n, n, 2026875034 ).world();
+      }
+      CompiledWorld model = world.compile();
+      System.out.println( model );
+
+      MultigridSolver solution = new MultigridSolver();
+      solution.setGamma( gamma );
+      solution.solve( world );
+      System.out.print( "MultigridSolver: " + solution.getLevels() + " levels (" );
+      for ( int l = 0; l < solution.getLevels(); l++ ) {
+        System.out.print( ( l > 0 ? " > " : "" ) + solution.getLevelSize( l ) );
+      }
+      System.out.printf( " states), %d fine sweeps, %.1f sweeps of work, %.2f s%n",
+          solution.getFineSweeps(), solution.getWork(), solution.getNanos() / 1e9 );
+
+      ValueIteration valueIteration = new ValueIteration();
+      valueIteration.setGamma( gamma );
+      long start = System.nanoTime();
+      valueIteration.solve( world );
+      System.out.printf( "ValueIteration:  %d sweeps, %.2f s%n", valueIteration.getIterations(),
+          ( System.nanoTime() - start ) / 1e9 );
+      System.out.println( "  states whose action is worse: "
+          + worse( model, solution, valueIteration::pi, valueIteration::utility ) );
+
+      if ( model.stateCount() <= 20000 ) {
+        PolicyIteration policyIteration = new PolicyIteration();
+        policyIteration.setGamma( gamma );
+        policyIteration.setExactEvaluation();
+        start = System.nanoTime();
+        policyIteration.solve( world );
+        System.out.printf( "PolicyIteration: %d iterations, %d sweeps, %.2f s%n",
+            policyIteration.getIterations(), policyIteration.getSweeps(), ( System.nanoTime() - start ) / 1e9 );
+        System.out.println( "  states whose action is worse: "
+            + worse( model, solution, policyIteration::pi, valueIteration::utility ) );
+      }
+      else {
+        System.out.println( "PolicyIteration: skipped, " + model.stateCount() + " states is too many for exact evaluation" );
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+  // Counts the states where the solution's action has a lower expected
+  // utility than the reference action, by more than 1E-6
+  private static int worse( CompiledWorld model, MultigridSolver solution,
+      Function<State,Action> reference, ToDoubleFunction<State> utility ) {
+    double[] u = new double[model.stateCount()];
+    for ( int s = 0; s < u.length; s++ ) {
+      u[s] = utility.applyAsDouble( model.state( s ) );
+    }
+    int count = 0;
+    for ( int s = 0; s < u.length; s++ ) {
+      Action a = solution.pi( model.state( s ) );
+      Action b = reference.apply( model.state( s ) );
+      if ( a != null && b != null && !a.equals( b )
+          && model.expectedUtility( model.slot( s, a ), u ) < model.expectedUtility( model.slot( s, b ), u ) - 1E-6 ) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+} // MultigridSolver class
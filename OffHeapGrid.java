@@ -0,0 +1,522 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * A grid world whose layout and solver tables all live in OffHeapStores,
+ * for mazes too big for GridWorld's per-state objects.  A state is its
+ * cell index y * width + x, so there are no State objects, no id map and
+ * no compiled model: walls and terminals are bitmaps of one bit a cell,
+ * and transitions are computed from the walls when they are needed, with
+ * GridWorld's probabilities.  Only the terminal rewards, a few entries,
+ * are on the heap, so the heap a grid costs does not grow with it.
+ *
+ * PolicyIteration.solve(OffHeapGrid) and QLearner.learn(OffHeapGrid) keep
+ * their tables in the grid too, through table().  A grid made with a
+ * directory maps every store from a file there, so the solver tables
+ * outlive the process and a solver can pick them up again; without one
+ * they are in direct memory.  The layout itself is rebuilt from its
+ * source each time: a .lay file, a MazeGenerator or a PackedLayout.
+ */
+
+public class OffHeapGrid implements AutoCloseable {
+
+  // East, west, north and south, GridAction's order; y + 1 is north
+  private static final int[] DX = { 1, -1, 0, 0 };
+  private static final int[] DY = { 0, 0, 1, -1 };
+  // The directions a move in each direction can slip to instead
+  private static final int[][] SLIPS = { { 2, 3 }, { 2, 3 }, { 0, 1 }, { 0, 1 } };
+  private static final double PROB_CORRECT_DIRECTION = 0.8;
+  private static final double PROB_LEFT_RIGHT = 0.1;
+
+  private final int width;
+  private final int height;
+  private final String directory;       // null to keep the stores in direct memory
+  private final OffHeapStore walls;     // bit c set if cell c is a wall
+  private final OffHeapStore terminals; // bit c set if cell c is a terminal
+  private long[] terminalCells = new long[0];     // sorted cell indexes
+  private double[] terminalRewards = new double[0];
+  private int loadedTerminals;          // appended while loading, not yet sorted
+  private final LinkedHashMap<String,OffHeapStore> tables = new LinkedHashMap<String,OffHeapStore>();
+  private long openCells;
+  private long contentHash;             // 0 until first asked for
+  private double livingReward = -0.04;
+  private long seed = 2026875034;
+  private SplittableRandom random = new SplittableRandom( seed );
+
+  // An all-wall grid of the given size, with its stores in directory, or
+  // in direct memory if directory is null
+  public OffHeapGrid( int width, int height, String directory ) throws IOException {
+    if ( width < 1 || height < 1 ) {
+      throw new IllegalArgumentException( "Grid must be at least 1x1: " + width + "x" + height );
+    }
+    this.width = width;
+    this.height = height;
+    this.directory = directory;
+    long words = ( (long) width * height + 63 ) >>> 6;
+    if ( directory != null ) {
+      // The layout is rebuilt every time, so its old files are of no use
+      Files.deleteIfExists( path( "walls" ) );
+      Files.deleteIfExists( path( "terminals" ) );
+    }
+    walls = store( "walls", words );
+    try {
+      terminals = store( "terminals", words );
+    } // try
+    catch ( IOException | RuntimeException e ) {
+      walls.close();
+      throw e;
+    } // catch
+    for ( long i = 0; i < words; i++ ) {
+      walls.setLong( i, -1L );
+    }
+  }
+
+  // Streams a .lay file into a grid, reading it twice: once for its size
+  // and once for its cells.  The format is PackedLayout's.
+  public static OffHeapGrid load( String filename, String directory ) throws IOException {
+    int width = 0;
+    int height = 0;
+    try ( InputStream in = new BufferedInputStream( new FileInputStream( filename ), 1 << 16 ) ) {
+      int x = 0;
+      boolean pendingLine = false;
+      for ( int b = in.read(); b != -1; b = in.read() ) {
+        if ( b == '\n' ) {
+          width = height == 0 ? x : width;
+          height++;
+          x = 0;
+          pendingLine = false;
+        }
+        else if ( b != '\r' ) {
+          x++;
+          pendingLine = true;
+        }
+      }
+      if ( pendingLine ) {
+        width = height == 0 ? x : width;
+        height++;
+      }
+    } // try
+    if ( width == 0 ) {
+      throw new IOException( "Empty layout: " + filename );
+    }
+    OffHeapGrid grid = new OffHeapGrid( width, height, directory );
+    try ( InputStream in = new BufferedInputStream( new FileInputStream( filename ), 1 << 16 ) ) {
+      int x = 0;
+      int y = 0;
+      for ( int b = in.read(); b != -1; b = in.read() ) {
+        if ( b == '\n' ) {
+          y++;
+          x = 0;
+        }
+        else if ( b != '\r' ) {
+          if ( x < width ) {
+            grid.put( x, y, (byte) b );
+          }
+          x++;
+        }
+      }
+    } // try
+    grid.sortTerminals();
+    return grid;
+  }
+
+  // Generates a layout straight into a grid, one row at a time.  Mazes
+  // need only a row of heap; ROOMS builds its bitmap on the heap first.
+  public static OffHeapGrid generate( MazeGenerator generator, String directory ) throws IOException {
+    OffHeapGrid grid = new OffHeapGrid( generator.width(), generator.height(), directory );
+    generator.generate( ( y, row ) -> {
+      for ( int x = 0; x < row.length; x++ ) {
+        grid.put( x, y, row[x] );
+      }
+    } );
+    grid.sortTerminals();
+    return grid;
+  }
+
+  public static OffHeapGrid of( PackedLayout layout, String directory ) throws IOException {
+    OffHeapGrid grid = new OffHeapGrid( layout.width(), layout.height(), directory );
+    for ( int y = 0; y < layout.height(); y++ ) {
+      for ( int x = 0; x < layout.width(); x++ ) {
+        if ( !layout.isWall( x, y ) ) {
+          grid.setWall( x, y, false );
+        }
+      }
+    }
+    for ( int i = 0; i < layout.terminalCount(); i++ ) {
+      grid.appendTerminal( layout.terminalX( i ), layout.terminalY( i ), layout.terminalReward( i ) );
+    }
+    grid.sortTerminals();
+    return grid;
+  }
+
+  private void put( int x, int y, byte b ) {
+    if ( b == '+' ) {
+      appendTerminal( x, y, 1.0 );
+    }
+    else if ( b == '-' ) {
+      appendTerminal( x, y, -1.0 );
+    }
+    else if ( b != '%' ) {
+      setWall( x, y, false );
+    }
+  }
+
+  // Collects a terminal while loading, growing the arrays by doubling;
+  // sortTerminals puts them in order once every cell has been put.  Each
+  // cell is loaded once, so there are no duplicates to merge.
+  private void appendTerminal( int x, int y, double reward ) {
+    setWall( x, y, false );
+    if ( loadedTerminals == terminalCells.length ) {
+      int capacity = Math.max( 16, loadedTerminals * 2 );
+      terminalCells = Arrays.copyOf( terminalCells, capacity );
+      terminalRewards = Arrays.copyOf( terminalRewards, capacity );
+    }
+    long cell = cell( x, y );
+    terminalCells[loadedTerminals] = cell;
+    terminalRewards[loadedTerminals] = reward;
+    loadedTerminals++;
+    setBit( terminals, cell, true );
+  }
+
+  // Trims the loaded terminals and sorts them by cell, rewards alongside.
+  // Cells come in raster order, so the sort normally finds them sorted.
+  private void sortTerminals() {
+    long[] cells = Arrays.copyOf( terminalCells, loadedTerminals );
+    double[] rewards = Arrays.copyOf( terminalRewards, loadedTerminals );
+    long[] sorted = cells.clone();
+    Arrays.sort( sorted );
+    double[] sortedRewards = new double[rewards.length];
+    for ( int i = 0; i < cells.length; i++ ) {
+      sortedRewards[Arrays.binarySearch( sorted, cells[i] )] = rewards[i];
+    }
+    terminalCells = sorted;
+    terminalRewards = sortedRewards;
+    loadedTerminals = 0;
+    contentHash = 0;
+  }
+
+  private Path path( String name ) {
+    return Paths.get( directory, name + ".store" );
+  }
+
+  private OffHeapStore store( String name, long length ) throws IOException {
+    return directory == null ? OffHeapStore.allocate( length ) : OffHeapStore.map( path( name ).toString(), length );
+  }
+
+  /*
+  The solver table called name, of length values: mapped from name.store
+  in the grid's directory, where it may hold what an earlier process left,
+  or zeroed in direct memory.  Asking for the same name again returns the
+  same store.  The grid closes its tables when it is closed.
+  */
+  public OffHeapStore table( String name, long length ) throws IOException {
+    OffHeapStore table = tables.get( name );
+    if ( table == null ) {
+      table = store( name, length );
+      tables.put( name, table );
+    }
+    else if ( table.length() != length ) {
+      throw new IllegalArgumentException( "Table " + name + " holds " + table.length() + " values, not " + length );
+    }
+    return table;
+  }
+
+  // A table of at least bytes bytes, for codes read through getByte
+  public OffHeapStore byteTable( String name, long bytes ) throws IOException {
+    return table( name, OffHeapStore.lengthOfBytes( bytes ) );
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  public long cells() {
+    return (long) width * height;
+  }
+
+  public long openCells() {
+    return openCells;
+  }
+
+  public long cell( int x, int y ) {
+    return (long) y * width + x;
+  }
+
+  // Cells outside the grid are walls
+  public boolean isWall( int x, int y ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      return true;
+    }
+    return isWall( cell( x, y ) );
+  }
+
+  public boolean isWall( long cell ) {
+    return bit( walls, cell );
+  }
+
+  public boolean isTerminal( long cell ) {
+    return bit( terminals, cell );
+  }
+
+  private static boolean bit( OffHeapStore bits, long cell ) {
+    return ( bits.getLong( cell >>> 6 ) & ( 1L << cell ) ) != 0;
+  }
+
+  private static void setBit( OffHeapStore bits, long cell, boolean value ) {
+    long word = bits.getLong( cell >>> 6 );
+    bits.setLong( cell >>> 6, value ? word | ( 1L << cell ) : word & ~( 1L << cell ) );
+  }
+
+  public void setWall( int x, int y, boolean wall ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      throw new IndexOutOfBoundsException( "(" + x + ", " + y + ") is outside the "
+          + width + "x" + height + " grid" );
+    }
+    long cell = cell( x, y );
+    if ( wall ) {
+      clearTerminal( x, y );
+    }
+    if ( isWall( cell ) != wall ) {
+      setBit( walls, cell, wall );
+      openCells += wall ? -1 : 1;
+      contentHash = 0;
+    }
+  }
+
+  // Makes (x, y) an open terminal cell with the given reward
+  public void setTerminal( int x, int y, double reward ) {
+    setWall( x, y, false );
+    long cell = cell( x, y );
+    int i = Arrays.binarySearch( terminalCells, cell );
+    if ( i < 0 ) {
+      i = -i - 1;
+      terminalCells = insert( terminalCells, i, cell );
+      terminalRewards = Arrays.copyOf( terminalRewards, terminalRewards.length + 1 );
+      System.arraycopy( terminalRewards, i, terminalRewards, i + 1, terminalRewards.length - 1 - i );
+      setBit( terminals, cell, true );
+    }
+    terminalRewards[i] = reward;
+    contentHash = 0;
+  }
+
+  public void clearTerminal( int x, int y ) {
+    int i = Arrays.binarySearch( terminalCells, cell( x, y ) );
+    if ( i >= 0 ) {
+      setBit( terminals, terminalCells[i], false );
+      int moved = terminalCells.length - 1 - i;
+      System.arraycopy( terminalCells, i + 1, terminalCells, i, moved );
+      System.arraycopy( terminalRewards, i + 1, terminalRewards, i, moved );
+      terminalCells = Arrays.copyOf( terminalCells, terminalCells.length - 1 );
+      terminalRewards = Arrays.copyOf( terminalRewards, terminalRewards.length - 1 );
+      contentHash = 0;
+    }
+  }
+
+  private static long[] insert( long[] a, int i, long value ) {
+    long[] b = new long[a.length + 1];
+    System.arraycopy( a, 0, b, 0, i );
+    b[i] = value;
+    System.arraycopy( a, i, b, i + 1, a.length - i );
+    return b;
+  }
+
+  public int terminalCount() {
+    return terminalCells.length;
+  }
+
+  // What arriving in cell pays: its terminal reward, or the living reward
+  public double reward( long cell ) {
+    if ( isTerminal( cell ) ) {
+      return terminalRewards[Arrays.binarySearch( terminalCells, cell )];
+    }
+    return livingReward;
+  }
+
+  public void setLivingReward( double livingReward ) {
+    this.livingReward = livingReward;
+  }
+
+  public double getLivingReward() {
+    return livingReward;
+  }
+
+  // The directions open from (x, y) as a mask with east = 1, west = 2,
+  // north = 4 and south = 8, like GridWorld's action sets
+  public int moves( int x, int y ) {
+    int open = 0;
+    for ( int d = 0; d < 4; d++ ) {
+      if ( !isWall( x + DX[d], y + DY[d] ) ) {
+        open |= 1 << d;
+      }
+    }
+    return open;
+  }
+
+  public int moves( long cell ) {
+    return moves( (int) ( cell % width ), (int) ( cell / width ) );
+  }
+
+  // Where a move from (x, y) in direction d ends up if it does not slip:
+  // the neighbour, or (x, y) itself if the neighbour is a wall
+  public long target( int x, int y, int d ) {
+    int nx = x + DX[d];
+    int ny = y + DY[d];
+    return isWall( nx, ny ) ? cell( x, y ) : cell( nx, ny );
+  }
+
+  // The sum over next cells of P(next | (x, y), d) * u[next]
+  public double expectedUtility( int x, int y, int d, OffHeapStore u ) {
+    return PROB_CORRECT_DIRECTION * u.get( target( x, y, d ) )
+        + PROB_LEFT_RIGHT * u.get( target( x, y, SLIPS[d][0] ) )
+        + PROB_LEFT_RIGHT * u.get( target( x, y, SLIPS[d][1] ) );
+  }
+
+  // Samples the cell a move from cell in direction d ends up in
+  public long step( long cell, int d ) {
+    double r = random.nextDouble();
+    int moved = r < PROB_CORRECT_DIRECTION ? d
+        : r < PROB_CORRECT_DIRECTION + PROB_LEFT_RIGHT ? SLIPS[d][0] : SLIPS[d][1];
+    return target( (int) ( cell % width ), (int) ( cell / width ), moved );
+  }
+
+  // A random open cell that is not a terminal, as World.getRandomState
+  // draws; rejection sampling, since open cells are not listed anywhere
+  public long randomState() {
+    if ( openCells == terminalCells.length ) {
+      throw new IllegalStateException( "The grid has no open cell that is not a terminal" );
+    }
+    long cells = cells();
+    long cell;
+    do {
+      cell = random.nextLong( cells );
+    } while ( isWall( cell ) || isTerminal( cell ) );
+    return cell;
+  }
+
+  public double nextRandomDouble() {
+    return random.nextDouble();
+  }
+
+  public int nextRandomInt( int bound ) {
+    return random.nextInt( bound );
+  }
+
+  public void setSeed( long seed ) {
+    this.seed = seed;
+    random = new SplittableRandom( seed );
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  // Tells this layout from any other, for the tags of solver tables
+  public long contentHash() {
+    if ( contentHash == 0 ) {
+      long h = Hashing.mix( Hashing.mix( 0, width ), height );
+      for ( long i = 0; i < walls.length(); i++ ) {
+        h = Hashing.mix( h, walls.getLong( i ) );
+      }
+      for ( int i = 0; i < terminalCells.length; i++ ) {
+        h = Hashing.mix( h, terminalCells[i] );
+        h = Hashing.mix( h, Double.doubleToLongBits( terminalRewards[i] ) );
+      }
+      contentHash = h == 0 ? 1 : h;
+    }
+    return contentHash;
+  }
+
+  // The bytes of the layout and of every table so far
+  public long offHeapBytes() {
+    long values = walls.length() + terminals.length();
+    for ( OffHeapStore table : tables.values() ) {
+      values += table.length();
+    }
+    return values * 8;
+  }
+
+  public void close() throws IOException {
+    for ( OffHeapStore table : tables.values() ) {
+      table.close();
+    }
+    tables.clear();
+    walls.close();
+    terminals.close();
+  }
+
+  public String toString() {
+    return width + "x" + height + " grid, " + openCells + " open cells, " + terminalCells.length
+        + " terminals, " + ( offHeapBytes() >> 10 ) + " KB off the heap"
+        + ( directory != null ? " in " + directory : " in direct memory" );
+  }
+
+  /**
+   * java -Xmx16m OffHeapGrid [largest] [steps]
+   *
+   * Generates mazes from 501 up to largest, 2001 by default, doubling the
+   * side each time, into mapped stores in a temporary directory.  On each
+   * it runs policy iteration for at most five iterations, fewer when the
+   * policy stops changing first, then Q-learning for the given number of
+   * steps, 2000000 by default, rounded up to the next stop-condition
+   * check within the episode.  Prints the heap in use next to the bytes
+   * off the heap: the heap stays flat at a megabyte or two while the
+   * grids grow sixteenfold, or more with a larger largest.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      int largest = args.length > 0 ? Integer.parseInt( args[0] ) : 2001;
+      long steps = args.length > 1 ? Long.parseLong( args[1] ) : 2000000;
+      Runtime runtime = Runtime.getRuntime();
+      for ( int n = 501; n <= largest; n = 2 * n - 1 ) {
+        Path dir = Files.createTempDirectory( "grid" );
+        try ( OffHeapGrid grid = generate( new MazeGenerator( n, n, 2026875034 ), dir.toString() ) ) {
+          PolicyIteration solution = new PolicyIteration();
+          solution.setStopCondition( m -> m.getIterations() >= 5 );
+          long start = System.nanoTime();
+          solution.solve( grid );
+          long piNanos = System.nanoTime() - start;
+
+          QLearner learner = new QLearner( 0.4 );
+          learner.setStopCondition( TrainingMonitor.stepLimit( steps ) );
+          start = System.nanoTime();
+          learner.learn( grid );
+          long qNanos = System.nanoTime() - start;
+
+          System.gc();
+          long heap = runtime.totalMemory() - runtime.freeMemory();
+          System.out.printf( "%,d cells: %,d KB of heap in use, %,d MB off it; "
+              + "%d iterations in %.1f s, %,d Q steps in %.1f s%n", grid.cells(), heap >> 10,
+              grid.offHeapBytes() >> 20, solution.getIterations(), piNanos / 1e9,
+              learner.getMetrics().getSteps(), qNanos / 1e9 );
+        } // try
+        finally {
+          try ( Stream<Path> files = Files.list( dir ) ) {
+            for ( Path file : (Iterable<Path>) files::iterator ) {
+              Files.delete( file );
+            }
+          } // try
+          Files.delete( dir );
+        } // finally
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // OffHeapGrid class
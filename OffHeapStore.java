@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed-length array of doubles outside the Java heap, for tables too
+ * big to keep on it: a Q-table of a 20000x20000 maze is 12.8 GB.  The
+ * values live in direct ByteBuffers, or in buffers memory-mapped from a
+ * file, in chunks of CHUNK values since one buffer holds at most 2 GB.
+ * The collector never scans or copies them, so the store itself costs
+ * the heap a few objects however long it is.  Whatever else its owner
+ * keeps per state, such as QLearner's compiled model and greedy cache,
+ * is still on the heap; OffHeapGrid keeps the layout and every solver
+ * table in stores instead, so nothing grows with the maze.  Besides
+ * doubles, a store can be read as longs or as bytes, for bitmaps and
+ * policies.
+ *
+ * A file-backed store outlives the process.  Its file is a header
+ * followed by the values, all big-endian like a Checkpoint:
+ *
+ *   long   magic "GWOFFHAP", int version, int unused
+ *   long   length, the number of values
+ *   long   tag, set by the owner to tell whose values these are
+ *
+ * map() creates the file zeroed, or reopens one of the same length with
+ * its values and tag, which is how QLearner resumes after a restart.
+ * Writes land in the page cache and reach the file when the kernel
+ * writes them back or on force(); a killed process loses none of them.
+ *
+ * Java 17's MemorySegment API is still incubating, so this is built on
+ * ByteBuffer; a segment would allow one mapping per file and unmapping
+ * on close().  Here the mappings are released when the store is
+ * collected.
+ */
+
+public class OffHeapStore implements AutoCloseable {
+
+  public static final int CHUNK = 1 << 27;      // values per buffer, 1 GB
+
+  private static final long MAGIC = 0x47574F4646484150L; // "GWOFFHAP"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8 + 4 + 4 + 8 + 8;
+  private static final int SHIFT = 27;
+  private static final long MASK = CHUNK - 1;
+  private static final long BYTE_MASK = ( (long) CHUNK << 3 ) - 1;
+
+  private final long length;
+  private final ByteBuffer[] chunks;
+  private final ByteBuffer header;   // null unless file-backed
+  private final FileChannel channel; // null unless file-backed
+  private final boolean fresh;
+
+  private OffHeapStore( long length, ByteBuffer[] chunks, ByteBuffer header, FileChannel channel, boolean fresh ) {
+    this.length = length;
+    this.chunks = chunks;
+    this.header = header;
+    this.channel = channel;
+    this.fresh = fresh;
+  }
+
+  // A zeroed store of length values in direct memory, which counts
+  // against -XX:MaxDirectMemorySize, by default the maximum heap size
+  public static OffHeapStore allocate( long length ) {
+    ByteBuffer[] chunks = new ByteBuffer[chunkCount( length )];
+    for ( int c = 0; c < chunks.length; c++ ) {
+      chunks[c] = ByteBuffer.allocateDirect( chunkBytes( length, c ) );
+    }
+    return new OffHeapStore( length, chunks, null, null, true );
+  }
+
+  /*
+  A store of length values mapped from filename.  A missing or empty
+  file is created zeroed; an existing one must be a store of the same
+  length, whose values and tag are kept.
+  */
+  public static OffHeapStore map( String filename, long length ) throws IOException {
+    Path path = Paths.get( filename );
+    boolean fresh = !Files.exists( path ) || Files.size( path ) == 0;
+    FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE );
+    try {
+      long bytes = HEADER_BYTES + length * 8;
+      if ( !fresh && channel.size() < HEADER_BYTES ) {
+        throw new IOException( filename + " is not an off-heap store" );
+      }
+      if ( fresh ) {
+        // Sparse on most file systems: pages are only allocated once written
+        channel.write( ByteBuffer.wrap( new byte[1] ), bytes - 1 );
+      }
+      MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES );
+      if ( fresh ) {
+        header.putLong( 0, MAGIC );
+        header.putInt( 8, VERSION );
+        header.putLong( 16, length );
+        header.putLong( 24, 0 );
+      }
+      else if ( header.getLong( 0 ) != MAGIC || header.getInt( 8 ) != VERSION ) {
+        throw new IOException( filename + " is not a version " + VERSION + " off-heap store" );
+      }
+      else if ( header.getLong( 16 ) != length || channel.size() < bytes ) {
+        throw new IOException( filename + " holds " + header.getLong( 16 ) + " values, not " + length );
+      }
+      ByteBuffer[] chunks = new ByteBuffer[chunkCount( length )];
+      for ( int c = 0; c < chunks.length; c++ ) {
+        chunks[c] = channel.map( FileChannel.MapMode.READ_WRITE,
+            HEADER_BYTES + ( (long) c << SHIFT ) * 8, chunkBytes( length, c ) );
+      }
+      return new OffHeapStore( length, chunks, header, channel, fresh );
+    } // try
+    catch ( IOException | RuntimeException e ) {
+      channel.close();
+      throw e;
+    } // catch
+  }
+
+  private static int chunkCount( long length ) {
+    if ( length < 0 ) {
+      throw new IllegalArgumentException( "Length must not be negative: " + length );
+    }
+    return (int) ( ( length + CHUNK - 1 ) >>> SHIFT );
+  }
+
+  private static int chunkBytes( long length, int c ) {
+    return (int) Math.min( CHUNK, length - ( (long) c << SHIFT ) ) * 8;
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public boolean isMapped() {
+    return channel != null;
+  }
+
+  // Whether the values started out zeroed rather than read from a file
+  public boolean isFresh() {
+    return fresh;
+  }
+
+  public double get( long i ) {
+    return chunks[(int) ( i >>> SHIFT )].getDouble( (int) ( i & MASK ) << 3 );
+  }
+
+  public void set( long i, double value ) {
+    chunks[(int) ( i >>> SHIFT )].putDouble( (int) ( i & MASK ) << 3, value );
+  }
+
+  // The same slots read as longs, for bitmaps kept 64 bits a value
+  public long getLong( long i ) {
+    return chunks[(int) ( i >>> SHIFT )].getLong( (int) ( i & MASK ) << 3 );
+  }
+
+  public void setLong( long i, long value ) {
+    chunks[(int) ( i >>> SHIFT )].putLong( (int) ( i & MASK ) << 3, value );
+  }
+
+  // The length of the smallest store that holds bytes bytes through
+  // getByte and setByte
+  public static long lengthOfBytes( long bytes ) {
+    return ( bytes + 7 ) >>> 3;
+  }
+
+  // The same memory read as 8 * length() bytes, for tables of small codes
+  public byte getByte( long i ) {
+    return chunks[(int) ( i >>> ( SHIFT + 3 ) )].get( (int) ( i & BYTE_MASK ) );
+  }
+
+  public void setByte( long i, byte value ) {
+    chunks[(int) ( i >>> ( SHIFT + 3 ) )].put( (int) ( i & BYTE_MASK ), value );
+  }
+
+  public void fill( double value ) {
+    for ( long i = 0; i < length; i++ ) {
+      set( i, value );
+    }
+  }
+
+  public long tag() {
+    return header == null ? 0 : header.getLong( 24 );
+  }
+
+  // Does nothing for a store in direct memory, which has nowhere to keep it
+  public void setTag( long tag ) {
+    if ( header != null ) {
+      header.putLong( 24, tag );
+    }
+  }
+
+  // Copies the values into a heap array, for a Checkpoint
+  public double[] toArray() {
+    if ( length > Integer.MAX_VALUE - 8 ) {
+      throw new IllegalStateException( length + " values do not fit in an array" );
+    }
+    double[] values = new double[(int) length];
+    for ( int i = 0; i < values.length; i++ ) {
+      values[i] = get( i );
+    }
+    return values;
+  }
+
+  public void copyFrom( double[] values ) {
+    if ( values.length != length ) {
+      throw new IllegalArgumentException( values.length + " values for a store of " + length );
+    }
+    for ( int i = 0; i < values.length; i++ ) {
+      set( i, values[i] );
+    }
+  }
+
+  // Writes a file-backed store's dirty pages to the file
+  public void force() {
+    if ( header != null ) {
+      ( (MappedByteBuffer) header ).force();
+      for ( ByteBuffer chunk : chunks ) {
+        ( (MappedByteBuffer) chunk ).force();
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    force();
+    if ( channel != null ) {
+      channel.close();
+    }
+  }
+
+  public String toString() {
+    return length + " values off the heap"
+        + ( isMapped() ? ", mapped from a file" + ( fresh ? ", new" : ", reopened" ) : ", in direct memory" );
+  }
+
+  /**
+   * java OffHeapStore [size] [steps]
+   *
+   * Learns a generated maze, 201 by default, for the given number of Q
+   * steps, 2000000 by default, with the Q-table on the heap, in direct
+   * memory, and mapped from a file, and prints the steps per second of
+   * each and the heap in use with the learner still alive.  Then reopens
+   * the file as a restarted process would and checks the table is still
+   * there, and maps stores of growing size to show the heap does not grow
+   * with them.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      int n = args.length > 0 ? Integer.parseInt( args[0] ) : 201;
+      long steps = args.length > 1 ? Long.parseLong( args[1] ) : 2000000;
+      GridWorld world = new MazeGenerator( n, n, 2026875034 ).world();
+      CompiledWorld model = world.compile();
+      long size = (long) model.stateCount() * model.actionCount();
+      Path dir = Files.createTempDirectory( "offheap" );
+      String file = dir.resolve( "q.store" ).toString();
+      Runtime runtime = Runtime.getRuntime();
+
+      // A first round warms up the JIT for all three
+      for ( int round = 0; round < 2; round++ ) {
+        for ( String backend : new String[] { "heap", "direct", "mapped" } ) {
+          Files.deleteIfExists( Paths.get( file ) );
+          OffHeapStore store = backend.equals( "heap" ) ? null
+              : backend.equals( "direct" ) ? allocate( size ) : map( file, size );
+          QLearner learner = new QLearner( 0.4 );
+          learner.setStorage( store );
+          learner.setStopCondition( m -> m.getSteps() >= steps );
+          world.setSeed( 2026875034 );
+          long start = System.nanoTime();
+          learner.learn( world );
+          long nanos = System.nanoTime() - start;
+          if ( round == 1 ) {
+            System.gc();
+            long heap = runtime.totalMemory() - runtime.freeMemory();
+            System.out.printf( "%-6s %d steps at %.2f M steps/s, %,d KB of heap in use%n", backend,
+                learner.getMetrics().getSteps(), learner.getMetrics().getSteps() / ( nanos / 1e3 ), heap >> 10 );
+          }
+          if ( store != null ) {
+            store.close();
+          }
+        }
+      }
+
+      // A restarted learner finds the table and picks it up
+      try ( OffHeapStore store = map( file, size ) ) {
+        System.out.println( store );
+        QLearner learner = new QLearner( 0.4 );
+        learner.setStorage( store );
+        learner.setStopCondition( m -> m.getSteps() >= steps );
+        world.setSeed( 2026875034 );
+        learner.learn( world );
+        System.out.printf( "resumed for %d more steps%n", learner.getMetrics().getSteps() );
+      } // try
+
+      // Mapping a store costs the heap a few objects whatever its size
+      for ( long length = 1L << 24; length <= 1L << 30; length <<= 3 ) {
+        Path big = dir.resolve( "big.store" );
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        try ( OffHeapStore store = map( big.toString(), length ) ) {
+          store.set( length - 1, 1.0 );
+          System.gc();
+          long after = runtime.totalMemory() - runtime.freeMemory();
+          System.out.printf( "%,d values (%,d MB) mapped, heap grew by %,d KB%n",
+              length, length * 8 >> 20, ( after - before ) >> 10 );
+        } // try
+        Files.delete( big );
+      }
+      Files.delete( Paths.get( file ) );
+      Files.delete( dir );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // OffHeapStore class
@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A grid layout packed one bit per cell.  Cell (x, y) is a wall if bit
+ * y * width + x of walls is set.  The few terminal cells live in a side
+ * table of cell indexes, kept sorted for binary search, with their rewards
+ * in a parallel array.  Cells outside the grid are walls.
+ *
+ * load() streams a .lay file through memory-mapped windows one byte at a
+ * time, so a layout never exists as a String or char[][].  The format is
+ * the one GridWorld has always read: '%' is a wall, '+' a terminal worth
+ * 1, '-' a terminal worth -1, and anything else an open cell.  The first
+ * line sets the width; missing cells at the end of a shorter line are
+ * walls, and a '\r' before a line break is ignored.
+ */
+
+public class PackedLayout {
+
+  private static final long WINDOW = 1L << 28; // bytes mapped at a time
+
+  private int width;
+  private int height;
+  private long[] walls;
+  private long[] terminalCells = new long[0];     // sorted cell indexes
+  private double[] terminalRewards = new double[0];
+  private int loadedTerminals;                    // terminals appended by load
+  private long loadNanos;
+
+  // An all-wall layout of the given size
+  public PackedLayout( int width, int height ) {
+    if ( width < 1 || height < 1 ) {
+      throw new IllegalArgumentException( "Layout must be at least 1x1: " + width + "x" + height );
+    }
+    this.width = width;
+    this.height = height;
+    walls = new long[(int) ( ( (long) width * height + 63 ) >>> 6 )];
+    Arrays.fill( walls, -1L );
+  }
+
+  public static PackedLayout load( String filename ) throws IOException {
+    long start = System.nanoTime();
+    Path path = Paths.get( filename );
+    try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+      long size = channel.size();
+      int width = firstLineWidth( channel, size );
+      if ( width == 0 ) {
+        throw new IOException( "Empty layout: " + filename );
+      }
+      // Every line but a short last one takes at least width + 1 bytes
+      PackedLayout layout = new PackedLayout( width, (int) ( size / ( width + 1 ) + 1 ) );
+      int x = 0;
+      int y = 0;
+      boolean pendingLine = false;
+      for ( long offset = 0; offset < size; offset += WINDOW ) {
+        MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, offset,
+            Math.min( WINDOW, size - offset ) );
+        while ( buffer.hasRemaining() ) {
+          byte b = buffer.get();
+          if ( b == '\n' ) {
+            y++;
+            x = 0;
+            pendingLine = false;
+          }
+          else if ( b != '\r' ) {
+            if ( y >= layout.height ) {
+              layout.grow( y + 1 );
+            }
+            layout.put( x, y, b );
+            x++;
+            pendingLine = true;
+          }
+        }
+      }
+      layout.sortTerminals();
+      layout.height = pendingLine ? y + 1 : y;
+      layout.walls = Arrays.copyOf( layout.walls,
+          (int) ( ( (long) layout.width * layout.height + 63 ) >>> 6 ) );
+      layout.loadNanos = System.nanoTime() - start;
+      return layout;
+    }
+  }
+
+  private static int firstLineWidth( FileChannel channel, long size ) throws IOException {
+    int width = 0;
+    for ( long offset = 0; offset < size; offset += WINDOW ) {
+      MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, offset,
+          Math.min( WINDOW, size - offset ) );
+      while ( buffer.hasRemaining() ) {
+        byte b = buffer.get();
+        if ( b == '\n' ) {
+          return width;
+        }
+        if ( b != '\r' ) {
+          width++;
+        }
+      }
+    }
+    return width;
+  }
+
+  // Adds all-wall rows until the layout is at least rows high
+  private void grow( int rows ) {
+    int old = walls.length;
+    rows = Math.max( rows, height * 2 );
+    walls = Arrays.copyOf( walls, (int) ( ( (long) width * rows + 63 ) >>> 6 ) );
+    Arrays.fill( walls, old, walls.length, -1L );
+    height = rows;
+  }
+
+  private void put( int x, int y, byte b ) {
+    if ( x >= width || b == '%' ) {
+      return; // past the first line's width, or already a wall
+    }
+    setWall( x, y, false );
+    if ( b == '+' ) {
+      appendTerminal( x, y, 1.0 );
+    }
+    else if ( b == '-' ) {
+      appendTerminal( x, y, -1.0 );
+    }
+  }
+
+  // Collects a terminal while loading, growing the arrays by doubling;
+  // sortTerminals puts them in order once the whole file has been read
+  private void appendTerminal( int x, int y, double reward ) {
+    if ( loadedTerminals == terminalCells.length ) {
+      int capacity = Math.max( 16, loadedTerminals * 2 );
+      terminalCells = Arrays.copyOf( terminalCells, capacity );
+      terminalRewards = Arrays.copyOf( terminalRewards, capacity );
+    }
+    terminalCells[loadedTerminals] = (long) y * width + x;
+    terminalRewards[loadedTerminals] = reward;
+    loadedTerminals++;
+  }
+
+  // Trims the loaded terminals and sorts them by cell, rewards alongside.
+  // Cells come in raster order, so the sort normally finds them sorted.
+  private void sortTerminals() {
+    long[] cells = Arrays.copyOf( terminalCells, loadedTerminals );
+    double[] rewards = Arrays.copyOf( terminalRewards, loadedTerminals );
+    long[] sorted = cells.clone();
+    Arrays.sort( sorted );
+    double[] sortedRewards = new double[rewards.length];
+    for ( int i = 0; i < cells.length; i++ ) {
+      sortedRewards[Arrays.binarySearch( sorted, cells[i] )] = rewards[i];
+    }
+    terminalCells = sorted;
+    terminalRewards = sortedRewards;
+    loadedTerminals = 0;
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  public boolean isWall( int x, int y ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      return true;
+    }
+    long cell = (long) y * width + x;
+    return ( walls[(int) ( cell >>> 6 )] & ( 1L << cell ) ) != 0;
+  }
+
+  public void setWall( int x, int y, boolean wall ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      throw new IndexOutOfBoundsException( "(" + x + ", " + y + ") is outside the "
+          + width + "x" + height + " layout" );
+    }
+    long cell = (long) y * width + x;
+    if ( wall ) {
+      walls[(int) ( cell >>> 6 )] |= 1L << cell;
+      clearTerminal( x, y );
+    }
+    else {
+      walls[(int) ( cell >>> 6 )] &= ~( 1L << cell );
+    }
+  }
+
+  public boolean isTerminal( int x, int y ) {
+    return terminalIndex( x, y ) >= 0;
+  }
+
+  // The reward of terminal (x, y), or NaN if it is not a terminal
+  public double terminalReward( int x, int y ) {
+    int i = terminalIndex( x, y );
+    return i >= 0 ? terminalRewards[i] : Double.NaN;
+  }
+
+  // Makes (x, y) an open terminal cell with the given reward
+  public void setTerminal( int x, int y, double reward ) {
+    setWall( x, y, false );
+    int i = terminalIndex( x, y );
+    if ( i >= 0 ) {
+      terminalRewards[i] = reward;
+      return;
+    }
+    i = -i - 1;
+    int n = terminalCells.length;
+    terminalCells = Arrays.copyOf( terminalCells, n + 1 );
+    terminalRewards = Arrays.copyOf( terminalRewards, n + 1 );
+    System.arraycopy( terminalCells, i, terminalCells, i + 1, n - i );
+    System.arraycopy( terminalRewards, i, terminalRewards, i + 1, n - i );
+    terminalCells[i] = (long) y * width + x;
+    terminalRewards[i] = reward;
+  }
+
+  public void clearTerminal( int x, int y ) {
+    int i = terminalIndex( x, y );
+    if ( i < 0 ) {
+      return;
+    }
+    int n = terminalCells.length;
+    System.arraycopy( terminalCells, i + 1, terminalCells, i, n - i - 1 );
+    System.arraycopy( terminalRewards, i + 1, terminalRewards, i, n - i - 1 );
+    terminalCells = Arrays.copyOf( terminalCells, n - 1 );
+    terminalRewards = Arrays.copyOf( terminalRewards, n - 1 );
+  }
+
+  public int terminalCount() {
+    return terminalCells.length;
+  }
+
+  public int terminalX( int i ) {
+    return (int) ( terminalCells[i] % width );
+  }
+
+  public int terminalY( int i ) {
+    return (int) ( terminalCells[i] / width );
+  }
+
+  public double terminalReward( int i ) {
+    return terminalRewards[i];
+  }
+
+  private int terminalIndex( int x, int y ) {
+    if ( x < 0 || x >= width || y < 0 || y >= height ) {
+      return -1;
+    }
+    return Arrays.binarySearch( terminalCells, (long) y * width + x );
+  }
+
+  // The .lay character for (x, y)
+  public char charAt( int x, int y ) {
+    if ( isWall( x, y ) ) {
+      return '%';
+    }
+    int i = terminalIndex( x, y );
+    if ( i >= 0 ) {
+      return terminalRewards[i] > 0 ? '+' : '-';
+    }
+    return ' ';
+  }
+
+  public long getLoadNanos() {
+    return loadNanos;
+  }
+
+  // Heap bytes held by the packed arrays, not counting object headers
+  public long residentBytes() {
+    return walls.length * 8L + terminalCells.length * 16L;
+  }
+
+  public double bytesPerCell() {
+    return residentBytes() / ( (double) width * height );
+  }
+
+  public String toString() {
+    return width + "x" + height + " layout, " + terminalCount() + " terminals, "
+        + residentBytes() + " bytes (" + String.format( "%.3f", bytesPerCell() ) + " per cell)";
+  }
+
+  /**
+   * java PackedLayout mediumGrid.lay
+   */
+
+  public static void main( String args[] ) {
+    try {
+      PackedLayout layout = load( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      System.out.println( layout + ", loaded in " + layout.getLoadNanos() / 1000 + " us" );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // PackedLayout class
@@ -0,0 +1,222 @@
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hogwild-style Q-learning: several worker threads run episodes over the
+ * same compiled world and update one shared Q-table without locks.  The
+ * table stores each double as its raw long bits in an AtomicLongArray, so
+ * reads and writes of single entries are atomic.  A read-modify-write can
+ * still lose a concurrent update, which Hogwild accepts.  Each worker
+ * samples transitions from the compiled model with its own SplittableRandom,
+ * split from one seeded root, instead of sharing World.random.
+ *
+ * Convergence is checked globally with QLearner's test: once the workers
+ * together have taken more steps than there are states, the first episode
+ * on any worker whose largest Q change is below theta stops every worker.
+ */
+
+public class ParallelQLearner {
+
+  private final int workers;
+  private double alpha = 0.7;
+  private double epsilon = 0.2;
+  private double gamma = 0.9;
+  private double theta = 10E-5; // threshold of changes for convergence
+  private long seed = 2026875034;
+  private CompiledWorld model;
+  private int actions;          // width of a row of q
+  private AtomicLongArray q;    // Double bits of q[s * actions + a]
+  private HashMap<State,Action> pi;
+
+  private final AtomicLong episodes = new AtomicLong();
+  private final AtomicLong iterations = new AtomicLong();
+  private volatile boolean converged;
+  private long nanos;
+
+  public ParallelQLearner( int workers ) {
+    if ( workers < 1 ) {
+      throw new IllegalArgumentException( "At least one worker is needed: " + workers );
+    }
+    this.workers = workers;
+    pi = new HashMap<State,Action>();
+  }
+
+  public ParallelQLearner( int workers, double epsilon ) {
+    this( workers );
+    this.epsilon = epsilon;
+  }
+
+  public void setSeed( long seed ) {
+    this.seed = seed;
+  }
+
+  public long getEpisodes() {
+    return episodes.get();
+  }
+
+  public long getIterations() {
+    return iterations.get();
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public void learn( World world ) throws InterruptedException {
+    long start = System.nanoTime();
+    SplittableRandom root = new SplittableRandom( seed );
+    initializeQ( world, root );
+    episodes.set( 0 );
+    iterations.set( 0 );
+    converged = false;
+
+    Thread[] threads = new Thread[workers];
+    for ( int w = 0; w < workers; w++ ) {
+      SplittableRandom random = root.split();
+      threads[w] = new Thread( () -> work( random ), "q-worker-" + w );
+      threads[w].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    derivePi();
+    nanos = System.nanoTime() - start;
+  }
+
+  private void work( SplittableRandom random ) {
+    while ( !converged ) {
+      int s = randomState( random );
+      double delta = 0.0; //delta is the maximum change in q-value in an episode
+      long steps = 0;
+      while ( !model.isTerminal( s ) ) {
+        int sa = epsilonGreedy( s, random );
+        int nextState = model.sample( sa, random.nextDouble() );
+        int qa = s * actions + model.actionId( sa );
+        double oldQ = Double.longBitsToDouble( q.getAcquire( qa ) );
+        // If the next state is terminal, its value is its reward
+        double maxQ = model.isTerminal( nextState ) ? model.reward( nextState ) : maxQ( nextState );
+        double newQ = oldQ + alpha * ( model.reward( nextState ) + gamma * maxQ - oldQ );
+        delta = Math.max( delta, Math.abs( oldQ - newQ ) );
+        q.setRelease( qa, Double.doubleToRawLongBits( newQ ) );
+        s = nextState;
+        steps++;
+      }
+      long total = iterations.addAndGet( steps );
+      episodes.incrementAndGet();
+      if ( delta < theta && total > model.stateCount() ) {
+        converged = true;
+      }
+    }
+  }
+
+  private int randomState( SplittableRandom random ) {
+    int s = random.nextInt( model.stateCount() );
+    while ( model.isTerminal( s ) ) {
+      s = random.nextInt( model.stateCount() );
+    }
+    return s;
+  }
+
+  // Returns the slot of the action to take in state s
+  private int epsilonGreedy( int s, SplittableRandom random ) {
+    if ( random.nextDouble() < epsilon ) {
+      return model.actionBegin( s ) + random.nextInt( model.actionEnd( s ) - model.actionBegin( s ) );
+    }
+    return maxQAction( s );
+  }
+
+  private int maxQAction( int s ) {
+    int bestAction = -1;
+    double bestQ = Double.NEGATIVE_INFINITY;
+    int row = s * actions;
+    for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+      double qValue = Double.longBitsToDouble( q.getAcquire( row + model.actionId( sa ) ) );
+      if ( qValue > bestQ ) {
+        bestQ = qValue;
+        bestAction = sa;
+      }
+    }
+    return bestAction;
+  }
+
+  private double maxQ( int s ) {
+    return Double.longBitsToDouble( q.getAcquire( s * actions + model.actionId( maxQAction( s ) ) ) );
+  }
+
+  private void initializeQ( World world, SplittableRandom random ) {
+    model = world.compile();
+    actions = model.actionCount();
+    q = new AtomicLongArray( model.stateCount() * actions );
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      if ( model.isTerminal( s ) ) {
+        continue;
+      }
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        q.set( s * actions + model.actionId( sa ), Double.doubleToRawLongBits( random.nextDouble() ) );
+      }
+    }
+  }
+
+  private void derivePi() {
+    pi.clear();
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      int sa = model.isTerminal( s ) ? -1 : maxQAction( s );
+      pi.put( model.state( s ), sa == -1 ? null : model.action( sa ) );
+    }
+  }
+
+  public Action pi( State s ) {
+    if ( pi == null )
+      return null;
+    else
+      return pi.get( s );
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append( workers + " workers\n" );
+    sb.append( episodes + " episodes\n" );
+    sb.append( iterations + " iterations\n" );
+    sb.append( "pi = " + pi );
+    return sb.toString();
+  }
+
+  /**
+   * java ParallelQLearner mediumGrid.lay [1,2,4,8]
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      String[] counts = ( args.length > 1 ? args[1] : "1,2,4,8" ).split( "," );
+      ValueIteration reference = new ValueIteration();
+      reference.solve( world );
+      for ( int i = 0; i < 20; i++ ) {
+        new ParallelQLearner( 2, 0.4 ).learn( world ); // warm up the JIT
+      }
+      for ( String count : counts ) {
+        ParallelQLearner learner = new ParallelQLearner( Integer.parseInt( count.trim() ), 0.4 );
+        learner.learn( world );
+        double seconds = learner.getNanos() / 1e9;
+        int agree = 0;
+        for ( State s : world.getStates() ) {
+          Action a = learner.pi( s );
+          if ( a == null ? reference.pi( s ) == null : a.equals( reference.pi( s ) ) ) {
+            agree++;
+          }
+        }
+        System.out.printf( "%2d workers  %8d episodes  %10d steps  %7.3f s  %10.0f episodes/s  %11.0f steps/s  %d/%d states optimal%n",
+            learner.workers, learner.getEpisodes(), learner.getIterations(), seconds,
+            learner.getEpisodes() / seconds, learner.getIterations() / seconds,
+            agree, world.getStates().size() );
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // ParallelQLearner class
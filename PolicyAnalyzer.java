@@ -0,0 +1,377 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * Checks the graph a deterministic policy draws over a world: each state
+ * points to the successor its action most probably leads to, and the
+ * analyzer finds the cycles of any length, the states that cannot reach a
+ * terminal, and for every other state the terminal it drains to and how
+ * many steps away it is.
+ *
+ * The graph has at most one edge per state, so one pass of iterative
+ * colouring covers it in O(S): walk from each unvisited state until the
+ * walk meets a terminal, a dead end, a state finished earlier, or a state
+ * on the walk itself, which closes a cycle, then settle the walk in
+ * reverse.  There is no recursion, so a path through a million-cell maze
+ * needs no deep stack, and the work arrays and the report are reused
+ * from call to call, so analysing a policy allocates nothing once they
+ * have grown to the size of the world.  A Report is only valid until the
+ * next call on the same analyzer.
+ */
+
+public class PolicyAnalyzer {
+
+  public static final int NONE = -1;
+
+  private static final byte WHITE = 0;   // not reached yet
+  private static final byte GRAY = 1;    // on the current walk
+  private static final byte BLACK = 2;   // settled
+
+  private byte[] colour = new byte[0];
+  private int[] walk = new int[0];       // states of the current walk, in order
+  private int[] position = new int[0];   // index of each gray state in walk
+  private int[] next = new int[0];       // successor by state id, NONE if none
+  private boolean[] terminal = new boolean[0];
+  private final Report report = new Report();
+
+  /**
+   * What an analysis found.  Per state: the terminal it drains to and its
+   * distance in steps, or NONE for both if it cannot reach one, and
+   * whether it lies on a cycle.  Per terminal: the number of states that
+   * drain to it and the farthest of them.  A state whose action runs into
+   * a wall and leaves it in place is a cycle of length one, counted apart
+   * as a stall, since some optimal policies bump a wall on purpose.
+   */
+  public static final class Report {
+
+    private int states;
+    private int terminals;
+    private int cycles;          // of length two or more
+    private int cycleStates;     // on those cycles
+    private int longestCycle;
+    private int stalls;          // states whose successor is themselves
+    private int deadEnds;        // non-terminal states without an action
+    private int unreaching;      // states that cannot reach a terminal
+    private int maxDistance;
+    private int[] goal = new int[0];
+    private int[] distance = new int[0];
+    private boolean[] onCycle = new boolean[0];
+    private int[] basin = new int[0];       // by terminal id, states draining to it
+    private int[] farthest = new int[0];    // by terminal id, the largest distance
+
+    private void reset( int n ) {
+      if ( goal.length < n ) {
+        goal = new int[n];
+        distance = new int[n];
+        onCycle = new boolean[n];
+        basin = new int[n];
+        farthest = new int[n];
+      }
+      Arrays.fill( onCycle, 0, n, false );
+      Arrays.fill( basin, 0, n, 0 );
+      Arrays.fill( farthest, 0, n, 0 );
+      states = n;
+      terminals = 0;
+      cycles = 0;
+      cycleStates = 0;
+      longestCycle = 0;
+      stalls = 0;
+      deadEnds = 0;
+      unreaching = 0;
+      maxDistance = 0;
+    }
+
+    public int states() {
+      return states;
+    }
+
+    public int terminals() {
+      return terminals;
+    }
+
+    public int cycles() {
+      return cycles;
+    }
+
+    public int cycleStates() {
+      return cycleStates;
+    }
+
+    public int longestCycle() {
+      return longestCycle;
+    }
+
+    public int stalls() {
+      return stalls;
+    }
+
+    public int deadEnds() {
+      return deadEnds;
+    }
+
+    public int unreaching() {
+      return unreaching;
+    }
+
+    public int maxDistance() {
+      return maxDistance;
+    }
+
+    // Whether every state reaches a terminal
+    public boolean isProper() {
+      return unreaching == 0;
+    }
+
+    // The terminal s drains to, NONE if it reaches none
+    public int goal( int s ) {
+      return goal[s];
+    }
+
+    // Steps from s to its terminal, NONE if it reaches none
+    public int distance( int s ) {
+      return distance[s];
+    }
+
+    public boolean onCycle( int s ) {
+      return onCycle[s];
+    }
+
+    // The number of states, the terminal t included, that drain to t
+    public int basin( int t ) {
+      return basin[t];
+    }
+
+    // The largest distance to the terminal t
+    public int farthest( int t ) {
+      return farthest[t];
+    }
+
+    public String toString() {
+      return states + " states, " + terminals + " terminals, "
+          + ( states - unreaching ) + " reach one in at most " + maxDistance + " steps; "
+          + cycles + " cycles over " + cycleStates + " states (longest " + longestCycle + "), "
+          + stalls + " stalls, " + deadEnds + " dead ends, " + unreaching + " cannot reach a terminal";
+    }
+
+  } // Report class
+
+  /*
+  Analyses the policy given as a successor array over states 0 .. n-1:
+  successor[s] is where s's action leads, or NONE if s has no action.
+  Terminals are ends of the walk whatever their successor is.
+  */
+  public Report analyze( int[] successor, boolean[] isTerminal, int n ) {
+    grow( n );
+    report.reset( n );
+    Arrays.fill( colour, 0, n, WHITE );
+    for ( int start = 0; start < n; start++ ) {
+      if ( colour[start] != WHITE ) {
+        continue;
+      }
+
+      // Walk forward until the path meets something already decided
+      int length = 0;
+      int s = start;
+      while ( true ) {
+        if ( colour[s] == BLACK ) {
+          break;
+        }
+        if ( colour[s] == GRAY ) {
+          closeCycle( position[s], length );
+          break;
+        }
+        colour[s] = GRAY;
+        position[s] = length;
+        walk[length++] = s;
+        if ( isTerminal[s] ) {
+          settleTerminal( s );
+          length--;
+          break;
+        }
+        if ( successor[s] == NONE ) {
+          report.deadEnds++;
+          settleUnreaching( s );
+          length--;
+          break;
+        }
+        s = successor[s];
+      }
+
+      // Settle the rest of the walk from its end back to start, each
+      // state one step farther than the state it points to
+      for ( int i = length - 1; i >= 0; i-- ) {
+        int u = walk[i];
+        if ( colour[u] == BLACK ) {
+          continue;          // on the cycle just closed
+        }
+        int v = successor[u];
+        if ( report.goal[v] == NONE ) {
+          settleUnreaching( u );
+        }
+        else {
+          int g = report.goal[v];
+          int d = report.distance[v] + 1;
+          report.goal[u] = g;
+          report.distance[u] = d;
+          report.basin[g]++;
+          if ( d > report.farthest[g] ) {
+            report.farthest[g] = d;
+          }
+          if ( d > report.maxDistance ) {
+            report.maxDistance = d;
+          }
+          colour[u] = BLACK;
+        }
+      }
+    }
+    return report;
+  }
+
+  // Analyses pi, such as QLearner::pi or PolicyIteration::pi, over the
+  // compiled model of a world, following each state's action to its most
+  // probable successor
+  public Report analyze( CompiledWorld model, Function<State,Action> pi ) {
+    int n = model.stateCount();
+    grow( n );
+    for ( int s = 0; s < n; s++ ) {
+      terminal[s] = model.isTerminal( s );
+      next[s] = NONE;
+      Action a = terminal[s] ? null : pi.apply( model.state( s ) );
+      int sa = a == null ? -1 : model.slot( s, a );
+      if ( sa == -1 ) {
+        continue;
+      }
+      double most = -1.0;
+      for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+        if ( model.probability( t ) > most ) {
+          most = model.probability( t );
+          next[s] = model.successor( t );
+        }
+      }
+    }
+    return analyze( next, terminal, n );
+  }
+
+  public Report analyze( World world, Function<State,Action> pi ) {
+    return analyze( world.compile(), pi );
+  }
+
+  private void grow( int n ) {
+    if ( colour.length < n ) {
+      colour = new byte[n];
+      walk = new int[n];
+      position = new int[n];
+      next = new int[n];
+      terminal = new boolean[n];
+    }
+  }
+
+  // The walk from index from to the end closes a cycle: none of it can
+  // reach a terminal
+  private void closeCycle( int from, int length ) {
+    int size = length - from;
+    if ( size == 1 ) {
+      report.stalls++;
+    }
+    else {
+      report.cycles++;
+      report.cycleStates += size;
+      if ( size > report.longestCycle ) {
+        report.longestCycle = size;
+      }
+    }
+    for ( int i = from; i < length; i++ ) {
+      report.onCycle[walk[i]] = true;
+      settleUnreaching( walk[i] );
+    }
+  }
+
+  private void settleTerminal( int s ) {
+    report.terminals++;
+    report.goal[s] = s;
+    report.distance[s] = 0;
+    report.basin[s]++;
+    colour[s] = BLACK;
+  }
+
+  private void settleUnreaching( int s ) {
+    report.unreaching++;
+    report.goal[s] = NONE;
+    report.distance[s] = NONE;
+    colour[s] = BLACK;
+  }
+
+  /**
+   * java PolicyAnalyzer [size | layout.lay]
+   *
+   * Solves a generated maze, 201 by default, or a layout with exact
+   * PolicyIteration and analyses its policy, then makes two neighbouring
+   * cells point at each other and analyses it again.  Prints the reports,
+   * the time per analysis and the bytes each one allocates.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      String source = args.length > 0 ? args[0] : "201";
+      GridWorld world;
+      if ( source.endsWith( ".lay" ) ) {
+        world = new GridWorld( source );
+      }
+      else {
+        int n = Integer.parseInt( source );
+        world = new MazeGenerator( n, n, 2026875034 ).world();
+      }
+      PolicyIteration solution = new PolicyIteration();
+      solution.setExactEvaluation();
+      if ( !source.endsWith( ".lay" ) ) {
+        // At 0.9 the utilities of cells far from the goal tie, and a
+        // policy over ties can point neighbours at each other
+        solution.setGamma( 0.999 );
+      }
+      solution.solve( world );
+      HashMap<State,Action> pi = new HashMap<State,Action>();
+      for ( State s : world.getStates() ) {
+        pi.put( s, solution.pi( s ) );
+      }
+      Function<State,Action> policy = pi::get;
+      PolicyAnalyzer analyzer = new PolicyAnalyzer();
+      System.out.println( analyzer.analyze( world, policy ) );
+
+      com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+      int rounds = 20;
+      for ( int round = 0; round < 2; round++ ) {
+        long bytes = threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+        long start = System.nanoTime();
+        for ( int i = 0; i < rounds; i++ ) {
+          analyzer.analyze( world, policy );
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes( Thread.currentThread().getId() ) - bytes;
+        if ( round == 1 ) {
+          System.out.printf( "%.2f ms and %d bytes allocated per analysis%n",
+              nanos / 1e6 / rounds, bytes / rounds );
+        }
+      }
+
+      // Point two neighbouring cells at each other and analyse again
+      for ( State s : world.getStates() ) {
+        GridState a = (GridState) s;
+        GridState b = world.state( a.getX() + 1, a.getY() );
+        if ( b != null && !world.isTerminal( a ) && !world.isTerminal( b ) ) {
+          pi.put( a, GridAction.EAST );
+          pi.put( b, GridAction.WEST );
+          System.out.println( "Looping " + a + " and " + b );
+          System.out.println( analyzer.analyze( world, policy ) );
+          break;
+        }
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // PolicyAnalyzer class
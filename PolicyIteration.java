@@ -1,13 +1,45 @@
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.Set;
-import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
 
-public class PolicyIteration {
+public class PolicyIteration implements AutoCloseable {
 
   private int iterations;
   private double gamma = 0.9;
   private HashMap<State,Double> u;  // utility function
   private HashMap<State,Action> pi; // policy
+  private CompiledWorld model;
+  private double[] utility;         // utility by state id
+  private double[] uPrime;          // scratch buffer for policy evaluation
+  private int[] policy;             // action slot by state id, -1 if none
+  private ForkJoinPool pool;        // null to sweep on the calling thread
+  private boolean ownsPool;         // whether close() shuts pool down
+  private long flops;               // floating-point operations spent so far
+  private long sweeps;              // passes over the states spent so far
+  private long policyTransitions;   // transitions under the current policy
+  private OffHeapGrid grid;         // the grid of solve(OffHeapGrid), null otherwise
+  private OffHeapStore gridUtility; // its utilities by cell
+  private OffHeapStore gridScratch; // the previous sweep's
+  private OffHeapStore gridPolicy;  // its direction by cell, one byte each, -1 if none
+  private final TrainingMonitor monitor = new TrainingMonitor();
+
+  /*
+  How each policy is evaluated before the next improvement step: a fixed
+  number of Bellman backups (one by default, the textbook modified policy
+  iteration), backups until the largest change is below a tolerance, or
+  an exact solve of the policy's linear system.
+  */
+  public enum Evaluation { SWEEPS, TOLERANCE, EXACT }
+
+  private Evaluation evaluation = Evaluation.SWEEPS;
+  private int evaluationSweeps = 1;
+  private double tolerance = 1E-9;
+
+  private static final int CHUNK = 4096; // states per parallel task
+  private static final double EXACT_TOLERANCE = 1E-12;
+  private static final int MAX_TOLERANCE_SWEEPS = 100000; // per evaluation
 
   public PolicyIteration() { 
     u = new HashMap<State,Double>();
@@ -15,113 +47,640 @@ public class PolicyIteration {
     iterations = 0;
   }
 
+  // Sweeps on the given pool; the results match the sequential solver
+  public PolicyIteration( ForkJoinPool pool ) {
+    this();
+    this.pool = pool;
+  }
+
+  // Sweeps on a pool of its own, which close() shuts down
+  public PolicyIteration( int parallelism ) {
+    this( parallelism > 1 ? new ForkJoinPool( parallelism ) : null );
+    ownsPool = pool != null;
+  }
+
+  // Shuts down the pool made by PolicyIteration(int); a pool passed in
+  // belongs to the caller and is left running
+  public void close() {
+    if ( ownsPool ) {
+      pool.shutdown();
+      ownsPool = false;
+      pool = null;
+    }
+  }
+
   public Action pi( State s ) {
-    if ( pi == null )
+    if ( grid != null ) {
+      GridState cell = (GridState) s;
+      if ( grid.isWall( cell.getX(), cell.getY() ) )
+        return null;
+      byte d = gridPolicy.getByte( grid.cell( cell.getX(), cell.getY() ) );
+      return d < 0 ? null : GridAction.of( d );
+    }
+    else if ( pi == null )
       return null;
     else
       return pi.get( s );
   }
 
+  public int getIterations() {
+    return iterations;
+  }
+
+  public long getFlops() {
+    return flops;
+  }
+
+  // Passes over the states: evaluation backups, matrix products and
+  // improvement steps
+  public long getSweeps() {
+    return sweeps;
+  }
+
+  // Calls listener after every n-th iteration and once at the end
+  public void addListener(TrainingListener listener, int n) {
+    monitor.addListener(listener, n);
+  }
+
+  // Stops solving after the first iteration that satisfies the condition
+  public void setStopCondition(Predicate<TrainingMetrics> stopCondition) {
+    monitor.setStopCondition(stopCondition);
+  }
+
+  public TrainingMetrics getMetrics() {
+    return monitor.metrics();
+  }
+
+  // Runs k Jacobi backups of each policy before improving it
+  public void setEvaluationSweeps( int k ) {
+    if ( k < 1 ) {
+      throw new IllegalArgumentException( "At least one sweep is needed: " + k );
+    }
+    evaluation = Evaluation.SWEEPS;
+    evaluationSweeps = k;
+  }
+
+  // Runs Jacobi backups until no utility changes by tolerance or more,
+  // or for at most MAX_TOLERANCE_SWEEPS backups, since a tolerance below
+  // what doubles can resolve would never be met
+  public void setEvaluationTolerance( double tolerance ) {
+    if ( !( tolerance > 0.0 ) ) {
+      throw new IllegalArgumentException( "Tolerance must be positive: " + tolerance );
+    }
+    evaluation = Evaluation.TOLERANCE;
+    this.tolerance = tolerance;
+  }
+
+  // Solves (I - gamma P_pi) u = r for each policy with BiCGSTAB
+  public void setExactEvaluation() {
+    evaluation = Evaluation.EXACT;
+  }
+
+  public void setGamma(double gamma) {
+    if (gamma <= 0.0 || gamma >= 1.0) {
+      throw new IllegalArgumentException("gamma must be in (0, 1): " + gamma);
+    }
+    this.gamma = gamma;
+  }
+
+  public double getGamma() {
+    return gamma;
+  }
+
+  // The settings besides gamma that change what solve computes: the
+  // evaluation and its sweep count or tolerance, folded into one number
+  public long settingsKey() {
+    long h = Hashing.mix( 0, evaluation.ordinal() );
+    if ( evaluation == Evaluation.SWEEPS ) {
+      h = Hashing.mix( h, evaluationSweeps );
+    }
+    else if ( evaluation == Evaluation.TOLERANCE ) {
+      h = Hashing.mix( h, Double.doubleToLongBits( tolerance ) );
+    }
+    return h;
+  }
+
   public void solve(World world) throws Exception {
-		boolean unchanged;
+    grid = null;
+    model = world.compile();
 		initializePolicy(world);
+    iterate();
+    derivePolicy();
+	}
+
+  /*
+  Solves a grid whose layout lives off the heap, with every table in it
+  too: the utilities, the previous sweep's, and the policy at one byte a
+  cell, mapped into the grid's directory if it has one.  A state is its
+  cell and transitions come from the walls, so there is no compiled model
+  and the heap does not grow with the grid; pi reads the policy table.
+  Sweeps run on the calling thread, and exact evaluation is not offered,
+  since BiCGSTAB would need five more tables.  Tables left by a solve of
+  the same layout, gamma, living reward and settings are picked up where
+  they stopped, which lets a long solve span several runs.
+  */
+  public void solve(OffHeapGrid grid) throws IOException {
+    if (evaluation == Evaluation.EXACT) {
+      throw new IllegalStateException("Exact evaluation needs a compiled model; use sweeps or a tolerance");
+    }
+    this.grid = grid;
+    model = null;
+    utility = uPrime = null;
+    policy = null;
+    u.clear();
+    pi.clear();
+    OffHeapStore a = grid.table("utility-a", grid.cells());
+    OffHeapStore b = grid.table("utility-b", grid.cells());
+    gridPolicy = grid.byteTable("policy", grid.cells());
+    long tag = gridTag();
+    if (!gridPolicy.isFresh() && gridPolicy.tag() == tag && (a.tag() == tag || b.tag() == tag)) {
+      gridUtility = a.tag() == tag ? a : b;
+      gridScratch = a.tag() == tag ? b : a;
+    }
+    else {
+      gridUtility = a;
+      gridScratch = b;
+      initializePolicy(grid);
+      gridUtility.setTag(tag);
+      gridPolicy.setTag(tag);
+    }
+    iterate();
+  }
+
+  private void iterate() {
+		boolean unchanged;
+    monitor.started();
 
 		do {
+      PolicyIterationEvent event = PolicyIterationEvent.enabled() ? new PolicyIterationEvent() : null;
+      if (event != null) {
+        event.begin();
+      }
       // Policy Evaluation
-			unchanged = true;
-      u = policyEvaluation(world);
+      double residual = policyEvaluation();
 
 			// Policy Improvement
-			for (State s : world.getStates()) {
-        // Get the best action and associated utility for the current state
-				Action bestAction = pi.get(s);
-
-        double maxUtility = Double.NEGATIVE_INFINITY;
-        Action maxAction = null;
-				for (Action a : world.A(s)) {
-					double expectedUtility = 0.0;
-					for (Transition t : world.P(s, a)) {
-            /* 
-            // If the next state is terminal, the expected utility is the utility of the terminal state
-            if (world.isTerminal(t.getState())) {
-              expectedUtility += t.getProbability() * world.getTerminals().get(t.getState());
-              continue;
-            }
-            */
-            //Bellman update equation for non-terminal states
-						expectedUtility += t.getProbability() * u.get( t.getState());
-					}
-					if (expectedUtility > maxUtility) {
-						maxUtility = expectedUtility;
-            maxAction = a;
-					}
-				}
-        if (maxAction!=null && !maxAction.equals(bestAction)) {
-          unchanged = false;
-          pi.put(s, maxAction);
-        }
-			}
+      int changes = policyImprovement();
+      unchanged = changes == 0;
 			iterations++;
+      if (event != null && event.shouldCommit()) {
+        event.iteration = iterations;
+        event.policyChanges = changes;
+        event.maxDelta = residual;
+        event.commit();
+      }
+      if (monitor.iterationEnded(iterations, changes, residual, flops)) {
+        break;
+      }
 		} while (!unchanged);
-  
-    // Set policy to null for terminal states
-    for (State s: world.getTerminals().keySet()) {
-      pi.put(s, null);
+
+    monitor.finished(0, 0, iterations, flops);
+  }
+
+  // Tells this solver's grid tables from those of any other layout,
+  // gamma, living reward or settings; the table holding the current
+  // utilities carries it
+  private long gridTag() {
+    long h = Hashing.mix(grid.contentHash(), Double.doubleToLongBits(gamma));
+    h = Hashing.mix(h, Double.doubleToLongBits(grid.getLivingReward()));
+    return Hashing.mix(h, settingsKey());
+  }
+
+  // Snapshots the utilities and policy of the last solve
+  public Checkpoint checkpoint(World world) {
+    if (model == null) {
+      throw new IllegalStateException("No solution of a World to checkpoint");
     }
-	}
+    return new Checkpoint(Checkpoint.UTILITY_POLICY, model.contentHash(), gamma, 0.0, 0.0,
+        world.getLivingReward(), settingsKey(), model.stateCount(), model.actionCount(), 0, iterations,
+        utility.clone(), policy.clone());
+  }
+
+  // Takes the solution from a checkpoint of the same layout instead of solving
+  public void restore(World world, Checkpoint from) {
+    from.check(Checkpoint.UTILITY_POLICY, world, gamma);
+    grid = null;
+    model = world.compile();
+    utility = from.values().clone();
+    policy = from.policy().clone();
+    uPrime = new double[utility.length];
+    iterations = (int) from.getIterations();
+    derivePolicy();
+  }
 
   private void initializePolicy(World world) {
-    for (State state : world.getStates()) {
-      if (world.isTerminal(state)) {
-        u.put(state, world.getTerminals().get(state)); 
+    int n = model.stateCount();
+    utility = new double[n];
+    uPrime = new double[n];
+    policy = new int[n];
+    policyTransitions = 0;
+    for (int s = 0; s < n; s++) {
+      policy[s] = -1;
+      if (model.isTerminal(s)) {
+        utility[s] = model.reward(s);
         continue;
       }
-      pi.put(state, world.getRandomAction(state)); // Randomly initialize policy
-      u.put(state, 0.0);  // Initialize utility as 0
+      // Randomly initialize policy
+      policy[s] = model.slot(s, world.getRandomAction(model.state(s)));
+      utility[s] = 0.0;  // Initialize utility as 0
+      policyTransitions += model.transitionEnd(policy[s]) - model.transitionBegin(policy[s]);
+    }
+  }
+
+  // A random open direction for every open cell that is not a terminal,
+  // and zero utilities except at the terminals
+  private void initializePolicy(OffHeapGrid grid) {
+    for (int y = 0; y < grid.height(); y++) {
+      for (int x = 0; x < grid.width(); x++) {
+        long c = grid.cell(x, y);
+        byte d = -1;
+        double value = 0.0;
+        if (grid.isTerminal(c)) {
+          value = grid.reward(c);
+        }
+        else if (!grid.isWall(c)) {
+          int moves = grid.moves(x, y);
+          if (moves != 0) {
+            d = (byte) nthBit(moves, grid.nextRandomInt(Integer.bitCount(moves)));
+          }
+        }
+        gridUtility.set(c, value);
+        gridScratch.set(c, value);
+        gridPolicy.setByte(c, d);
+      }
+    }
+  }
+
+  // The position of the n-th set bit of mask, counting from 0
+  private static int nthBit(int mask, int n) {
+    for (int k = 0; k < n; k++) {
+      mask &= mask - 1;
+    }
+    return Integer.numberOfTrailingZeros(mask);
+  }
+
+  // Evaluates the current policy with the configured strategy and returns
+  // the largest change in the last sweep, or NaN after an exact solve
+  private double policyEvaluation() {
+    double residual = Double.NaN;
+    switch (evaluation) {
+      case SWEEPS:
+        for (int k = 0; k < evaluationSweeps; k++) {
+          residual = jacobiSweep();
+        }
+        break;
+      case TOLERANCE:
+        int k = 0;
+        do {
+          residual = jacobiSweep();
+        } while (residual >= tolerance && ++k < MAX_TOLERANCE_SWEEPS);
+        break;
+      case EXACT:
+        exactEvaluation();
+        break;
     }
+    return residual;
   }
 
-  private HashMap<State, Double> policyEvaluation(World world) {
-    HashMap<State, Double> uPrime = new HashMap<State, Double>();
-    for (State s : world.getStates()) {
-      if (world.isTerminal(s)) {
-        uPrime.put(s, world.getTerminals().get(s));
+  // One synchronous (Jacobi) Bellman backup of the current policy; returns
+  // the largest change in utility
+  private double jacobiSweep() {
+    double residual;
+    if (grid != null) {
+      return gridSweep();
+    }
+    else if (pool == null) {
+      residual = evaluate(0, model.stateCount());
+    }
+    else {
+      residual = pool.invoke(new Sweep(0, model.stateCount()));
+    }
+    double[] swap = utility;
+    utility = uPrime;
+    uPrime = swap;
+    flops += 2 * policyTransitions + 2 * model.stateCount();
+    sweeps++;
+    return residual;
+  }
+
+  private double evaluate(int from, int to) {
+    double residual = 0.0;
+    for (int s = from; s < to; s++) {
+      if (model.isTerminal(s)) {
+        uPrime[s] = model.reward(s);
       }
-      else{
-        double actionUtility = 0.0;
+      else {
         //Bellman update equation
-        for (Transition t : world.P(s,  pi.get(s))) {
-          actionUtility += t.getProbability() * u.get(t.getState());
+        uPrime[s] = model.reward(s) + gamma * model.expectedUtility(policy[s], utility);
+      }
+      residual = Math.max(residual, Math.abs(uPrime[s] - utility[s]));
+    }
+    return residual;
+  }
+
+  // Makes the policy greedy with respect to the current utilities and
+  // returns the number of states whose action changed
+  private int policyImprovement() {
+    int changed;
+    if (grid != null) {
+      return gridImprovement();
+    }
+    else if (pool == null) {
+      changed = improve(0, model.stateCount());
+    }
+    else {
+      changed = pool.invoke(new Improvement(0, model.stateCount()));
+    }
+    flops += 2 * model.transitionCount();
+    sweeps++;
+    policyTransitions = 0;
+    for (int s = 0; s < model.stateCount(); s++) {
+      if (policy[s] != -1) {
+        policyTransitions += model.transitionEnd(policy[s]) - model.transitionBegin(policy[s]);
+      }
+    }
+    return changed;
+  }
+
+  // Returns the number of states in [from, to) whose action changed
+  private int improve(int from, int to) {
+    int changed = 0;
+    for (int s = from; s < to; s++) {
+      // Get the best action and associated utility for the current state
+      double maxUtility = Double.NEGATIVE_INFINITY;
+      int maxAction = -1;
+      for (int sa = model.actionBegin(s); sa < model.actionEnd(s); sa++) {
+        double expectedUtility = model.expectedUtility(sa, utility);
+        if (expectedUtility > maxUtility) {
+          maxUtility = expectedUtility;
+          maxAction = sa;
+        }
+      }
+      if (maxAction != -1 && maxAction != policy[s]) {
+        changed++;
+        policy[s] = maxAction;
+      }
+    }
+    return changed;
+  }
+
+  // jacobiSweep over the grid's tables: every open cell reads the last
+  // sweep's utilities and writes the scratch table, which then takes over
+  // the current utilities and the tag
+  private double gridSweep() {
+    double residual = 0.0;
+    for (int y = 0; y < grid.height(); y++) {
+      for (int x = 0; x < grid.width(); x++) {
+        long c = grid.cell(x, y);
+        if (grid.isWall(c)) {
+          continue;
+        }
+        byte d = gridPolicy.getByte(c);
+        double value = grid.reward(c);
+        if (!grid.isTerminal(c) && d >= 0) {
+          //Bellman update equation
+          value += gamma * grid.expectedUtility(x, y, d, gridUtility);
+        }
+        gridScratch.set(c, value);
+        residual = Math.max(residual, Math.abs(value - gridUtility.get(c)));
+      }
+    }
+    OffHeapStore swap = gridUtility;
+    gridUtility = gridScratch;
+    gridScratch = swap;
+    gridUtility.setTag(gridScratch.tag());
+    gridScratch.setTag(0);
+    flops += 8 * grid.openCells(); // three transitions and the backup
+    sweeps++;
+    return residual;
+  }
+
+  // improve over the grid's tables, trying the open directions in
+  // GridAction's order so ties go the same way
+  private int gridImprovement() {
+    int changed = 0;
+    for (int y = 0; y < grid.height(); y++) {
+      for (int x = 0; x < grid.width(); x++) {
+        long c = grid.cell(x, y);
+        if (grid.isWall(c) || grid.isTerminal(c)) {
+          continue;
+        }
+        int moves = grid.moves(x, y);
+        double maxUtility = Double.NEGATIVE_INFINITY;
+        int maxAction = -1;
+        for (int d = 0; d < 4; d++) {
+          if ((moves & (1 << d)) != 0) {
+            double expectedUtility = grid.expectedUtility(x, y, d, gridUtility);
+            flops += 6;
+            if (expectedUtility > maxUtility) {
+              maxUtility = expectedUtility;
+              maxAction = d;
+            }
+          }
+        }
+        if (maxAction != -1 && maxAction != gridPolicy.getByte(c)) {
+          changed++;
+          gridPolicy.setByte(c, (byte) maxAction);
+        }
+      }
+    }
+    sweeps++;
+    return changed;
+  }
+
+  /*
+  Splits a range of state ids in half until it is at most CHUNK states
+  long and evaluates the pieces on the pool, returning the largest
+  change.  Each state is written by exactly one task and only reads the
+  previous sweep's utilities, so the result does not depend on the number
+  of threads.
+  */
+  private class Sweep extends RecursiveTask<Double> {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    Sweep(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Double compute() {
+      if (to - from <= CHUNK) {
+        return evaluate(from, to);
+      }
+      int mid = (from + to) >>> 1;
+      Sweep left = new Sweep(from, mid);
+      left.fork();
+      double right = new Sweep(mid, to).compute();
+      return Math.max(left.join(), right);
+    }
+  }
+
+  // Improves the pieces of a range the same way, returning the number of
+  // states whose action changed
+  private class Improvement extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    Improvement(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (to - from <= CHUNK) {
+        return improve(from, to);
+      }
+      int mid = (from + to) >>> 1;
+      Improvement left = new Improvement(from, mid);
+      left.fork();
+      int right = new Improvement(mid, to).compute();
+      return left.join() + right;
+    }
+  }
+
+  /*
+  Solves (I - gamma P_pi) u = r for the current policy with BiCGSTAB,
+  starting from the current utilities.  Terminal rows are the identity,
+  so terminals keep their rewards.  The matrix is never built: applying
+  it is one pass over the policy's transitions in the compiled model.
+  */
+  private void exactEvaluation() {
+    int n = model.stateCount();
+    double[] x = utility;
+    double[] r = new double[n];
+    double[] r0 = new double[n];
+    double[] p = new double[n];
+    double[] v = new double[n];
+    double[] t = new double[n];
+    double[] h = uPrime;
+
+    applyPolicyMatrix(x, r);
+    double bNorm = 0.0;
+    for (int s = 0; s < n; s++) {
+      r[s] = model.reward(s) - r[s];
+      r0[s] = r[s];
+      bNorm = Math.max(bNorm, Math.abs(model.reward(s)));
+    }
+    flops += n;
+    double limit = EXACT_TOLERANCE * Math.max(bNorm, 1.0);
+    double rho = 1.0, alpha = 1.0, omega = 1.0;
+    for (int k = 0; k < n + 100 && maxNorm(r) > limit; k++) {
+      double rhoNext = dot(r0, r);
+      if (rhoNext == 0.0 || omega == 0.0) {
+        break; // breakdown; the improvement step still sees a better estimate
+      }
+      double beta = (rhoNext / rho) * (alpha / omega);
+      for (int s = 0; s < n; s++) {
+        p[s] = r[s] + beta * (p[s] - omega * v[s]);
+      }
+      applyPolicyMatrix(p, v);
+      alpha = rhoNext / dot(r0, v);
+      for (int s = 0; s < n; s++) {
+        h[s] = r[s] - alpha * v[s];      // h holds s = r - alpha v
+      }
+      if (maxNorm(h) <= limit) {
+        for (int s = 0; s < n; s++) {
+          x[s] += alpha * p[s];
         }
-        actionUtility =  world.R(s) + gamma * actionUtility;
-        uPrime.put(s, actionUtility);
+        flops += 10L * n;
+        break;
+      }
+      applyPolicyMatrix(h, t);
+      omega = dot(t, h) / dot(t, t);
+      for (int s = 0; s < n; s++) {
+        x[s] += alpha * p[s] + omega * h[s];
+        r[s] = h[s] - omega * t[s];
       }
+      rho = rhoNext;
+      flops += 18L * n;
+    }
+  }
+
+  // out = (I - gamma P_pi) in, with identity rows for terminals
+  private void applyPolicyMatrix(double[] in, double[] out) {
+    for (int s = 0; s < model.stateCount(); s++) {
+      if (model.isTerminal(s) || policy[s] == -1) {
+        out[s] = in[s];
+      }
+      else {
+        out[s] = in[s] - gamma * model.expectedUtility(policy[s], in);
+      }
+    }
+    flops += 2 * policyTransitions + 2 * model.stateCount();
+    sweeps++;
+  }
+
+  private double dot(double[] a, double[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    flops += 2 * a.length;
+    return sum;
+  }
+
+  private double maxNorm(double[] a) {
+    double max = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      max = Math.max(max, Math.abs(a[i]));
+    }
+    return max;
+  }
+
+  // Copies the solution into the State-keyed maps behind pi(State) and
+  // toString.  Terminal states get a null action.
+  private void derivePolicy() {
+    u.clear();
+    pi.clear();
+    for (int s = 0; s < model.stateCount(); s++) {
+      State state = model.state(s);
+      u.put(state, utility[s]);
+      pi.put(state, policy[s] == -1 ? null : model.action(policy[s]));
     }
-    return uPrime;
   }
 
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    sb.append( iterations + " iterations\n" );
+    sb.append( iterations + " iterations, " + flops + " flops\n" );
+    if ( grid != null ) {
+      return sb.append( "solved on a " + grid ).toString();
+    }
     sb.append( "u = " + u );
     sb.append( "\npi = " + pi );
     return sb.toString();
   }
 
   /**
-   * java PolicyIteration rnGrid.lay
+   * java PolicyIteration rnGrid.lay [k | tol=1e-6 | exact]
    */
 
   public static void main( String args[] ) {
     try {
-      World world = new GridWorld( "rnGrid.lay" );
+      World world = new GridWorld( args.length > 0 ? args[0] : "rnGrid.lay" );
       System.out.println( world );
       //world.setLivingReward( -0.01 ); // play around with this
       PolicyIteration solution = new PolicyIteration();
+      if ( args.length > 1 ) {
+        if ( args[1].equals( "exact" ) ) {
+          solution.setExactEvaluation();
+        }
+        else if ( args[1].startsWith( "tol=" ) ) {
+          solution.setEvaluationTolerance( Double.parseDouble( args[1].substring( 4 ) ) );
+        }
+        else {
+          solution.setEvaluationSweeps( Integer.parseInt( args[1] ) );
+        }
+      }
       solution.solve( world );
       System.out.println( solution );
-      GridWorld gridWorld = (GridWorld) world; 
-      System.out.println( "Has contradiction: "+ gridWorld.hasContradictions(solution.pi) );
+      System.out.println( new PolicyAnalyzer().analyze( world, solution::pi ) );
     } // try
     catch ( Exception e ) {
       System.out.println( e.getMessage() );
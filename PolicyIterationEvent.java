@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event spanning one evaluation and improvement step of
+ * PolicyIteration.  PolicyIteration asks enabled() before it builds an
+ * event, so a run without a recording allocates none.
+ */
+
+@Name( "gridworld.PolicyIteration" )
+@Label( "Policy Iteration" )
+@Category( "Grid World" )
+@Description( "One policy evaluation and improvement step" )
+public class PolicyIterationEvent extends jdk.jfr.Event {
+
+  private static final EventType TYPE = EventType.getEventType( PolicyIterationEvent.class );
+
+  @Label( "Iteration" )
+  int iteration;
+
+  @Label( "Policy Changes" )
+  @Description( "States whose action changed in the improvement step" )
+  int policyChanges;
+
+  @Label( "Max Delta" )
+  @Description( "Largest utility change in the last evaluation sweep" )
+  double maxDelta;
+
+  // Whether a recording currently wants these events
+  static boolean enabled() {
+    return TYPE.isEnabled();
+  }
+
+} // PolicyIterationEvent class
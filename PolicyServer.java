@@ -0,0 +1,307 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a FrozenPolicy over HTTP on the loopback interface.
+ *
+ *   GET  /pi?x=3&y=1   the action at one cell as text: east, west, north,
+ *                      south, or none
+ *   POST /batch        a big-endian int count and count (x, y) int pairs;
+ *                      the reply is count bytes of FrozenPolicy codes
+ *
+ * Each exchange runs on a virtual thread when the JVM has them (Java 21
+ * and later), found by reflection since the build targets Java 17, and on
+ * a cached pool of platform threads otherwise.  main() also runs a local
+ * load generator and reports queries per second and latency percentiles.
+ *
+ * start() sets the JVM-wide system property sun.net.httpserver.nodelay to
+ * true unless it is already set, which turns on TCP_NODELAY for every
+ * com.sun.net.httpserver server in the JVM, not only this one.
+ */
+
+public class PolicyServer {
+
+  private static final int MAX_BATCH = 1 << 16;
+
+  private final FrozenPolicy policy;
+  private HttpServer server;
+  private ExecutorService executor;
+  private boolean virtual;          // whether executor runs virtual threads
+
+  public PolicyServer( FrozenPolicy policy ) {
+    this.policy = policy;
+  }
+
+  // Starts serving on port, 0 for any free one, and returns the port
+  public int start( int port ) throws IOException {
+    // Without TCP_NODELAY a small reply waits out the client's delayed ACK,
+    // about 40 ms on Linux.  The property is JVM-wide, and the server
+    // implementation reads it once, when the first server starts, so
+    // this only takes if no other HttpServer has started yet.
+    if ( System.getProperty( "sun.net.httpserver.nodelay" ) == null ) {
+      System.setProperty( "sun.net.httpserver.nodelay", "true" );
+    }
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 256 );
+    server.createContext( "/pi", this::single );
+    server.createContext( "/batch", this::batch );
+    executor = newExecutor();
+    server.setExecutor( executor );
+    server.start();
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop( 0 );
+    executor.shutdownNow();
+  }
+
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  private ExecutorService newExecutor() {
+    try {
+      ExecutorService virtualThreads = (ExecutorService) Executors.class
+          .getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+      virtual = true;
+      return virtualThreads;
+    } // try
+    catch ( ReflectiveOperationException e ) {
+      virtual = false;
+      return Executors.newCachedThreadPool();
+    } // catch
+  }
+
+  private void single( HttpExchange exchange ) throws IOException {
+    try {
+      String query = exchange.getRequestURI().getQuery();
+      int x = Integer.MIN_VALUE;
+      int y = Integer.MIN_VALUE;
+      for ( String parameter : query == null ? new String[0] : query.split( "&" ) ) {
+        if ( parameter.startsWith( "x=" ) ) {
+          x = Integer.parseInt( parameter.substring( 2 ) );
+        }
+        else if ( parameter.startsWith( "y=" ) ) {
+          y = Integer.parseInt( parameter.substring( 2 ) );
+        }
+      }
+      if ( x == Integer.MIN_VALUE || y == Integer.MIN_VALUE ) {
+        reply( exchange, 400, "x and y expected\n".getBytes( StandardCharsets.UTF_8 ) );
+        return;
+      }
+      GridAction action = policy.action( x, y );
+      reply( exchange, 200, ( ( action == null ? "none" : action.toString() ) + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+    } // try
+    catch ( NumberFormatException e ) {
+      reply( exchange, 400, ( e.getMessage() + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+    } // catch
+  }
+
+  private void batch( HttpExchange exchange ) throws IOException {
+    DataInputStream in = new DataInputStream( new BufferedInputStream( exchange.getRequestBody() ) );
+    int count;
+    int[] xs;
+    int[] ys;
+    try {
+      count = in.readInt();
+      if ( count < 0 || count > MAX_BATCH ) {
+        reply( exchange, 400, ( "Batch of " + count + " is not in [0, " + MAX_BATCH + "]\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        return;
+      }
+      xs = new int[count];
+      ys = new int[count];
+      for ( int i = 0; i < count; i++ ) {
+        xs[i] = in.readInt();
+        ys[i] = in.readInt();
+      }
+    } // try
+    catch ( EOFException e ) {
+      reply( exchange, 400, "Body ends before the batch does\n".getBytes( StandardCharsets.UTF_8 ) );
+      return;
+    } // catch
+    byte[] codes = new byte[count];
+    policy.lookup( xs, ys, 0, count, codes );
+    reply( exchange, 200, codes );
+  }
+
+  private static void reply( HttpExchange exchange, int status, byte[] body ) throws IOException {
+    exchange.sendResponseHeaders( status, body.length == 0 ? -1 : body.length );
+    try ( OutputStream out = exchange.getResponseBody() ) {
+      out.write( body );
+    } // try
+  }
+
+  /*
+  Runs clients threads against the /batch endpoint of a server on port
+  for the given time, each sending batches of batch random cells of a
+  width x height grid over a kept-alive connection.  Returns the latency
+  of every request in nanoseconds, sorted.
+  */
+  static long[] load( int port, int width, int height, int clients, int batch, long millis )
+      throws InterruptedException {
+    URL url;
+    try {
+      url = new URL( "http", InetAddress.getLoopbackAddress().getHostAddress(), port, "/batch" );
+    } // try
+    catch ( IOException e ) {
+      throw new IllegalArgumentException( e );
+    } // catch
+    long[][] latencies = new long[clients][];
+    int[] counts = new int[clients];
+    Thread[] threads = new Thread[clients];
+    long end = System.nanoTime() + millis * 1000000L;
+    for ( int c = 0; c < clients; c++ ) {
+      int client = c;
+      threads[c] = new Thread( () -> {
+        SplittableRandom random = new SplittableRandom( client );
+        long[] mine = new long[1024];
+        int n = 0;
+        byte[] codes = new byte[batch];
+        ByteBuffer body = ByteBuffer.allocate( 4 + 8 * batch );
+        try {
+          while ( System.nanoTime() < end ) {
+            body.clear();
+            body.putInt( batch );
+            for ( int i = 0; i < batch; i++ ) {
+              body.putInt( random.nextInt( width ) );
+              body.putInt( random.nextInt( height ) );
+            }
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod( "POST" );
+            connection.setDoOutput( true );
+            connection.setFixedLengthStreamingMode( body.capacity() );
+            try ( OutputStream out = connection.getOutputStream() ) {
+              out.write( body.array() );
+            } // try
+            try ( InputStream in = connection.getInputStream() ) {
+              new DataInputStream( in ).readFully( codes );
+            } // try
+            if ( n == mine.length ) {
+              mine = Arrays.copyOf( mine, n * 2 );
+            }
+            mine[n++] = System.nanoTime() - start;
+          }
+        } // try
+        catch ( IOException e ) {
+          System.out.println( "Client " + client + " failed: " + e.getMessage() );
+        } // catch
+        latencies[client] = mine;
+        counts[client] = n;
+      }, "load-" + c );
+      threads[c].start();
+    }
+    int total = 0;
+    for ( int c = 0; c < clients; c++ ) {
+      threads[c].join();
+      total += counts[c];
+    }
+    long[] all = new long[total];
+    int at = 0;
+    for ( int c = 0; c < clients; c++ ) {
+      System.arraycopy( latencies[c], 0, all, at, counts[c] );
+      at += counts[c];
+    }
+    Arrays.sort( all );
+    return all;
+  }
+
+  /**
+   * java PolicyServer [size | layout.lay] [clients] [batch] [seconds]
+   *
+   * Solves a generated maze, 201 by default, or a layout with
+   * PolicyIteration, freezes the policy, and compares the cost of a
+   * lookup through pi(State) and through the frozen policy.  Then serves
+   * it and runs the load generator, once with single-cell batches and
+   * once with batches of the given size, 256 by default.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      String source = args.length > 0 ? args[0] : "201";
+      int clients = args.length > 1 ? Integer.parseInt( args[1] ) : 8;
+      int batch = args.length > 2 ? Integer.parseInt( args[2] ) : 256;
+      long millis = args.length > 3 ? (long) ( Double.parseDouble( args[3] ) * 1000 ) : 5000;
+      GridWorld world;
+      if ( source.endsWith( ".lay" ) ) {
+        world = new GridWorld( source );
+      }
+      else {
+        int n = Integer.parseInt( source );
+        world = new MazeGenerator( n, n, 2026875034 ).world();
+      }
+      PolicyIteration solution = new PolicyIteration();
+      solution.solve( world );
+      FrozenPolicy policy = FrozenPolicy.of( world, solution::pi );
+      System.out.println( policy );
+
+      // The cost of one lookup each way, over the same random cells
+      int queries = 1 << 20;
+      SplittableRandom random = new SplittableRandom( 2026875034 );
+      int[] xs = new int[queries];
+      int[] ys = new int[queries];
+      for ( int i = 0; i < queries; i++ ) {
+        xs[i] = random.nextInt( policy.width() );
+        ys[i] = random.nextInt( policy.height() );
+      }
+      byte[] codes = new byte[queries];
+      long mapNanos = 0;
+      long frozenNanos = 0;
+      int agree = 0;
+      for ( int round = 0; round < 3; round++ ) {
+        long start = System.nanoTime();
+        agree = 0;
+        for ( int i = 0; i < queries; i++ ) {
+          Action a = solution.pi( new GridState( xs[i], ys[i] ) );
+          if ( a == FrozenPolicy.action( policy.code( xs[i], ys[i] ) ) ) {
+            agree++;
+          }
+        }
+        mapNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        policy.lookup( xs, ys, 0, queries, codes );
+        frozenNanos = System.nanoTime() - start;
+      }
+      System.out.printf( "pi(State): %.1f ns per lookup, frozen batch: %.1f ns per lookup, %d of %d agree%n",
+          (double) mapNanos / queries, (double) frozenNanos / queries, agree, queries );
+
+      PolicyServer server = new PolicyServer( policy );
+      int port = server.start( 0 );
+      System.out.println( "Serving on port " + port + ( server.isVirtual() ? " on virtual threads" : " on platform threads" ) );
+      for ( int size : new int[] { 1, batch } ) {
+        load( port, policy.width(), policy.height(), clients, size, 1000 ); // warm up
+        long[] latencies = load( port, policy.width(), policy.height(), clients, size, millis );
+        if ( latencies.length == 0 ) {
+          System.out.println( clients + " clients, batches of " + size + ": no request completed" );
+          continue;
+        }
+        double seconds = millis / 1000.0;
+        System.out.printf( "%d clients, batches of %d: %.0f requests/s, %.0f queries/s, p50 %.1f us, p99 %.1f us%n",
+            clients, size, latencies.length / seconds, latencies.length * (double) size / seconds,
+            latencies[latencies.length / 2] / 1e3, latencies[(int) ( latencies.length * 0.99 )] / 1e3 );
+      }
+      server.stop();
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // PolicyServer class
@@ -0,0 +1,341 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Prioritized sweeping over the compiled model.  Instead of sweeping every
+ * state, it keeps the states whose Bellman residual exceeds theta in an
+ * indexed max-heap and always backs up the one with the largest residual.
+ * When a backup changes a state's utility by more than theta, the
+ * residuals of its predecessors are recomputed and their priorities
+ * updated.  The predecessor index is built once, by reversing the
+ * successor arrays that CompiledWorld built from World.P.
+ *
+ * resolve() re-converges after a few states of the world have changed.
+ * Every other state keeps its utility from the last solve, which still
+ * satisfies its Bellman equation, so only the edited states and their
+ * predecessors before and after the edit start out in the queue, and the
+ * backups spread from there only as far as the utilities actually move.
+ */
+
+public class PrioritizedSweeping {
+
+  private long backups;             // Bellman backups applied to u
+  private long evaluations;         // residuals computed to set priorities
+  private long nanos;
+  private double gamma = 0.9;
+  private double theta = 1E-9;      // smallest residual worth a backup
+  private HashMap<State,Double> u;  // utility function
+  private HashMap<State,Action> pi; // policy
+  private CompiledWorld model;
+  private double[] utility;         // utility by state id
+  private int[] policy;             // action slot by state id, -1 if none
+  private int[] predecessorStart;   // CSR index of predecessors by state id
+  private int[] predecessor;
+  private IndexedMaxHeap queue;
+
+  public PrioritizedSweeping() {
+    u = new HashMap<State,Double>();
+    pi = new HashMap<State,Action>();
+  }
+
+  public PrioritizedSweeping( double theta ) {
+    this();
+    this.theta = theta;
+  }
+
+  public void setGamma( double gamma ) {
+    if ( gamma <= 0.0 || gamma >= 1.0 ) {
+      throw new IllegalArgumentException( "gamma must be in (0, 1): " + gamma );
+    }
+    this.gamma = gamma;
+  }
+
+  public double utility( State s ) {
+    Double v = u.get( s );
+    return v == null ? 0.0 : v;
+  }
+
+  public Action pi( State s ) {
+    if ( pi == null )
+      return null;
+    else
+      return pi.get( s );
+  }
+
+  public long getBackups() {
+    return backups;
+  }
+
+  public long getEvaluations() {
+    return evaluations;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public void solve( World world ) {
+    long start = System.nanoTime();
+    model = world.compile();
+    int n = model.stateCount();
+    utility = new double[n];
+    policy = new int[n];
+    // Starting every non-terminal state at the value of collecting its reward
+    // forever leaves a zero residual everywhere except next to the terminals,
+    // so the queue begins as that thin frontier rather than the whole world.
+    for ( int s = 0; s < n; s++ ) {
+      if ( model.isTerminal( s ) ) {
+        utility[s] = model.reward( s );
+      }
+      else {
+        utility[s] = model.reward( s ) / ( 1.0 - gamma );
+      }
+    }
+    buildPredecessors();
+    queue = new IndexedMaxHeap( n );
+
+    for ( int s = 0; s < n; s++ ) {
+      prioritize( s );
+    }
+    drain();
+
+    derivePolicy();
+    nanos = System.nanoTime() - start;
+  }
+
+  /*
+  Re-converges after the states in edited have changed: walls opened or
+  closed, terminals added or their rewards changed, as GridWorld's
+  edits and takeEdits() report them.  Utilities carry over by state from
+  the last solve or resolve; states new to the world start at the value
+  of collecting their reward forever, as in solve.  A change that touches
+  every state, such as a new living reward, should pass all of them.
+  Without a previous solution this is solve( world ).  The backup and
+  evaluation counts are the incremental work alone.
+  */
+  public void resolve( World world, Collection<? extends State> edited ) {
+    if ( model == null ) {
+      solve( world );
+      return;
+    }
+    long start = System.nanoTime();
+    CompiledWorld old = model;
+    double[] oldUtility = utility;
+    int[] oldPredecessorStart = predecessorStart;
+    int[] oldPredecessor = predecessor;
+    backups = 0;
+    evaluations = 0;
+
+    model = world.compile();
+    int n = model.stateCount();
+    utility = new double[n];
+    policy = new int[n];
+    for ( int s = 0; s < n; s++ ) {
+      if ( model.isTerminal( s ) ) {
+        utility[s] = model.reward( s );
+        continue;
+      }
+      int o = old.id( model.state( s ) );
+      utility[s] = o >= 0 ? oldUtility[o] : model.reward( s ) / ( 1.0 - gamma );
+    }
+    buildPredecessors();
+    queue = new IndexedMaxHeap( n );
+
+    for ( State e : edited ) {
+      int s = model.id( e );
+      if ( s >= 0 ) {
+        prioritize( s );
+        for ( int i = predecessorStart[s]; i < predecessorStart[s + 1]; i++ ) {
+          prioritize( predecessor[i] );
+        }
+      }
+      int o = old.id( e );
+      if ( o >= 0 ) {
+        for ( int i = oldPredecessorStart[o]; i < oldPredecessorStart[o + 1]; i++ ) {
+          int p = model.id( old.state( oldPredecessor[i] ) );
+          if ( p >= 0 ) {
+            prioritize( p );
+          }
+        }
+      }
+    }
+    drain();
+
+    derivePolicy();
+    nanos = System.nanoTime() - start;
+  }
+
+  // Backs up the state with the largest residual until none exceeds theta
+  private void drain() {
+    while ( !queue.isEmpty() ) {
+      int s = queue.poll();
+      double change = backup( s ) - utility[s];
+      utility[s] += change;
+      backups++;
+      if ( Math.abs( change ) > theta ) {
+        for ( int i = predecessorStart[s]; i < predecessorStart[s + 1]; i++ ) {
+          prioritize( predecessor[i] );
+        }
+      }
+    }
+  }
+
+  // R(s) + gamma * max over actions of the expected utility of s
+  private double backup( int s ) {
+    double maxUtility = Double.NEGATIVE_INFINITY;
+    for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+      double expectedUtility = model.expectedUtility( sa, utility );
+      if ( expectedUtility > maxUtility ) {
+        maxUtility = expectedUtility;
+      }
+    }
+    return model.reward( s ) + gamma * maxUtility;
+  }
+
+  // Queues s keyed by its Bellman residual, or drops it if that is below theta
+  private void prioritize( int s ) {
+    if ( model.isTerminal( s ) || model.actionBegin( s ) == model.actionEnd( s ) ) {
+      return;
+    }
+    double residual = Math.abs( backup( s ) - utility[s] );
+    evaluations++;
+    if ( residual > theta ) {
+      queue.set( s, residual );
+    }
+    else {
+      queue.remove( s );
+    }
+  }
+
+  // Reverses the successor arrays into a duplicate-free predecessor index
+  private void buildPredecessors() {
+    int n = model.stateCount();
+    int[] mark = new int[n];
+    Arrays.fill( mark, -1 );
+    predecessorStart = new int[n + 1];
+    for ( int s = 0; s < n; s++ ) {
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+          int next = model.successor( t );
+          if ( mark[next] != s ) {
+            mark[next] = s;
+            predecessorStart[next + 1]++;
+          }
+        }
+      }
+    }
+    for ( int s = 0; s < n; s++ ) {
+      predecessorStart[s + 1] += predecessorStart[s];
+    }
+    predecessor = new int[predecessorStart[n]];
+    int[] fill = Arrays.copyOf( predecessorStart, n );
+    Arrays.fill( mark, -1 );
+    for ( int s = 0; s < n; s++ ) {
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+          int next = model.successor( t );
+          if ( mark[next] != s ) {
+            mark[next] = s;
+            predecessor[fill[next]++] = s;
+          }
+        }
+      }
+    }
+  }
+
+  // Extracts the greedy policy and fills the State-keyed maps behind
+  // pi(State) and toString.  Terminal states get a null action.
+  private void derivePolicy() {
+    u.clear();
+    pi.clear();
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      policy[s] = -1;
+      double maxUtility = Double.NEGATIVE_INFINITY;
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        double expectedUtility = model.expectedUtility( sa, utility );
+        if ( expectedUtility > maxUtility ) {
+          maxUtility = expectedUtility;
+          policy[s] = sa;
+        }
+      }
+      State state = model.state( s );
+      u.put( state, utility[s] );
+      pi.put( state, policy[s] == -1 ? null : model.action( policy[s] ) );
+    }
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append( backups + " backups, " + evaluations + " residual evaluations, "
+        + nanos / 1000 + " us\n" );
+    sb.append( "u = " + u );
+    sb.append( "\npi = " + pi );
+    return sb.toString();
+  }
+
+  /**
+   * java PrioritizedSweeping mediumGrid.lay [theta]
+   *
+   * Solves the layout and compares with ValueIteration and PolicyIteration,
+   * then opens one wall between two open cells and compares resolve() with
+   * solving the edited world from scratch.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      GridWorld world = new GridWorld( args.length > 0 ? args[0] : "rnGrid.lay" );
+      double theta = args.length > 1 ? Double.parseDouble( args[1] ) : 1E-9;
+      PrioritizedSweeping solution = new PrioritizedSweeping( theta );
+      solution.solve( world );
+      System.out.println( solution );
+
+      ValueIteration reference = new ValueIteration( 1.0, theta );
+      reference.solve( world );
+      int states = world.getStates().size();
+      int differences = 0;
+      for ( State s : world.getStates() ) {
+        Action a = solution.pi( s );
+        if ( a == null ? reference.pi( s ) != null : !a.equals( reference.pi( s ) ) ) {
+          differences++;
+        }
+      }
+      PolicyIteration policyIteration = new PolicyIteration();
+      policyIteration.solve( world );
+      System.out.println( "Backups: " + solution.getBackups() );
+      System.out.println( "PolicyIteration iterations x states: " + policyIteration.getIterations()
+          + " x " + states + " = " + (long) policyIteration.getIterations() * states );
+      System.out.println( "ValueIteration sweeps x states: " + reference.getIterations()
+          + " x " + states + " = " + (long) reference.getIterations() * states );
+      System.out.println( "States whose action differs from ValueIteration: " + differences );
+
+      PackedLayout layout = world.getLayout();
+      for ( int y = 0; y < layout.height(); y++ ) {
+        for ( int x = 1; x < layout.width() - 1; x++ ) {
+          if ( layout.isWall( x, y ) && !layout.isWall( x - 1, y ) && !layout.isWall( x + 1, y ) ) {
+            world.clearWall( x, y );
+            solution.resolve( world, world.takeEdits() );
+            PrioritizedSweeping fresh = new PrioritizedSweeping( theta );
+            fresh.solve( world );
+            differences = 0;
+            for ( State s : world.getStates() ) {
+              Action a = solution.pi( s );
+              if ( a == null ? fresh.pi( s ) != null : !a.equals( fresh.pi( s ) ) ) {
+                differences++;
+              }
+            }
+            System.out.println( "Opened (" + x + ", " + y + "): resolve " + solution.getBackups()
+                + " backups, " + solution.getNanos() / 1000 + " us; solve " + fresh.getBackups()
+                + " backups, " + fresh.getNanos() / 1000 + " us; " + differences + " actions differ" );
+            return;
+          }
+        }
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // PrioritizedSweeping class
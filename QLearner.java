@@ -1,8 +1,10 @@
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 public class QLearner {
 
@@ -12,11 +14,52 @@ public class QLearner {
   private double epsilon = 0.2; // play around with epsilon
   private double gamma = 0.9;
   private double theta = 10E-5; // threshold of changes for convergence
-  private HashMap<State, HashMap<Action,Double>> q;
+  private CompiledWorld model;
+  private int actions;   // width of a row of q
+  private double[] q;    // q[s * actions + a] by state id and action id
+  private OffHeapStore store;  // holds q instead when set
+  private int[] best;          // greedy slot by state id, -1 if none; kept up to date by setQ
+  private double[] bestQ;      // q of the greedy slot, -infinity if none
+  private long policyChanges;  // greedy actions changed by Q updates
+  private long stableWindow;   // states a stability epoch visits, 0 for the delta test
+  private double stableFraction;
+  private long[] visitedEpoch; // last epoch in which each state was visited
+  private int[] epochBest;     // greedy slot of each visited state at its first visit this epoch
+  private int[] visited;       // the states visited this epoch, in order of first visit
+  private int visitedCount;
+  private int visitable;       // states with actions that are not terminal
+  private long epoch;
+  private double smoothedChanges; // changed fraction of the visited states, smoothed over epochs
+  private double lowestChanges;   // its lowest value so far
+  private long lowestEpoch;       // the epoch that set it
   private HashMap<State,Action> pi;
+  private OffHeapGrid grid;          // the grid of learn(OffHeapGrid), null otherwise
+  private OffHeapStore gridQ;        // its Q-table by cell * 4 + direction
+  private String checkpointFile;     // null to learn without checkpoints
+  private long checkpointMillis;
+  private int checkpoints;           // checkpoints written by the last learn
+  private ReplayBuffer replay;       // null to learn from each transition once
+  private int batchSize;
+  private boolean prioritized;
+  private long replayUpdates;        // Q updates from replayed transitions
+  private final TrainingMonitor monitor = new TrainingMonitor();
+
+  // Prioritized replay draws a transition with probability in proportion
+  // to (|TD error| + PRIORITY_FLOOR)^PRIORITY_EXPONENT and scales its
+  // update by an importance-sampling weight with exponent IS_EXPONENT
+  private static final double PRIORITY_EXPONENT = 0.4;
+  private static final double PRIORITY_FLOOR = 0.1;
+  private static final double IS_EXPONENT = 1.0;
+  // The stability test smooths each epoch's changed fraction into the
+  // running one with weight STABLE_SMOOTHING, and calls the policy settled
+  // once that has not fallen for STABLE_PATIENCE epochs
+  private static final double STABLE_SMOOTHING = 0.125;
+  private static final int STABLE_PATIENCE = 30;
+  // learn(OffHeapGrid) tests the stop condition every STOP_CHECK steps
+  // within an episode, a power of two
+  private static final int STOP_CHECK = 1 << 16;
 
   public QLearner() { 
-    q = new HashMap<State, HashMap<Action,Double>>();
     pi = new HashMap<State,Action>();
     episodes = 0;
     iterations = 0;
@@ -24,120 +67,811 @@ public class QLearner {
 
   public QLearner( double epsilon ) {
     this.epsilon = epsilon;
-    q = new HashMap<State, HashMap<Action,Double>>();
     pi = new HashMap<State,Action>();
     episodes = 0;
     iterations = 0;
   }
 
+  /*
+  Writes a checkpoint to filename at most every intervalMillis while
+  learning, and once more at the end.  The learning thread copies q at
+  the end of an episode and a background thread writes the copy, so the
+  learner never waits on the disk; a checkpoint that comes due while the
+  last one is still being written is skipped.  A table in an
+  OffHeapStore is not copied, since it may not fit on the heap: the
+  learning thread writes it straight from the store instead.
+  */
+  public void setCheckpoint( String filename, long intervalMillis ) {
+    checkpointFile = filename;
+    checkpointMillis = intervalMillis;
+  }
+
+  public int getCheckpoints() {
+    return checkpoints;
+  }
+
+  /*
+  Keeps the last capacity transitions of learn(World) in a ring buffer
+  and, after each step once the buffer holds batchSize transitions,
+  applies a mini-batch of batchSize Q updates to transitions drawn from
+  it.  Draws are uniform, or if prioritized in proportion to each
+  transition's last temporal-difference error, so the updates go where
+  the values are still moving: in a long corridor, right behind the
+  front that has learned about the terminal.  A new transition gets the
+  priority of its own error or the largest one stored, whichever is
+  larger, and importance-sampling weights scale the prioritized updates
+  so Q still converges to the same values.  Only the updates of the
+  steps actually taken count towards the convergence test, so it means
+  the same with and without replay.  A capacity of 0 turns replay off.
+  */
+  public void setReplay( int capacity, int batchSize, boolean prioritized ) {
+    if ( capacity > 0 && batchSize < 1 ) {
+      throw new IllegalArgumentException( "Batch size must be at least 1: " + batchSize );
+    }
+    replay = capacity > 0 ? new ReplayBuffer( capacity ) : null;
+    this.batchSize = batchSize;
+    this.prioritized = prioritized;
+  }
+
+  /*
+  Keeps the Q-table in store instead of a heap array, so a table of
+  gigabytes neither needs the heap nor slows the collector.  For a World
+  only the table moves: the compiled model, the greedy action and its Q
+  of each state, and the policy map derived at the end stay on the heap,
+  some tens of bytes a state against the table's 8 bytes a state-action
+  pair.  learn(OffHeapGrid) keeps nothing per state on the heap.  A
+  file-backed store that already holds a table for the same layout,
+  gamma and living reward is resumed by learn rather than initialized,
+  so learning can continue across restarts; the episode and iteration
+  counts start over.  For a World the store must hold stateCount *
+  actionCount values; for an OffHeapGrid it must hold 4 * cells().
+  null goes back to a heap array.
+  */
+  public void setStorage( OffHeapStore store ) {
+    this.store = store;
+  }
+
+  public long getReplayUpdates() {
+    return replayUpdates;
+  }
+
+  // Calls listener after every n-th episode and once at the end
+  public void addListener( TrainingListener listener, int n ) {
+    monitor.addListener( listener, n );
+  }
+
+  // Stops learning after the first episode that satisfies the condition
+  public void setStopCondition( Predicate<TrainingMetrics> stopCondition ) {
+    monitor.setStopCondition( stopCondition );
+  }
+
+  public TrainingMetrics getMetrics() {
+    return monitor.metrics();
+  }
+
   public void learn( World world ) throws Exception {
     initializeQ( world );
+    run( world );
+  }
+
+  // Continues learning from a checkpoint of the same layout, gamma and
+  // living reward, keeping its episode and iteration counts
+  public void learn( World world, Checkpoint from ) throws Exception {
+    from.check( Checkpoint.Q_TABLE, world, gamma );
+    grid = null;
+    model = world.compile();
+    actions = model.actionCount();
+    if ( from.getActions() != actions ) {
+      throw new IllegalArgumentException( "Checkpoint has " + from.getActions() + " actions, not " + actions );
+    }
+    loadQ( world, from.values() );
+    episodes = (int) from.getEpisodes();
+    iterations = (int) from.getIterations();
+    rescanAll();
+    run( world );
+  }
+
+  // Takes the Q-table of a checkpoint of the same layout instead of learning
+  public void restore( World world, Checkpoint from ) {
+    from.check( Checkpoint.Q_TABLE, world, gamma );
+    grid = null;
+    model = world.compile();
+    actions = model.actionCount();
+    if ( from.getActions() != actions ) {
+      throw new IllegalArgumentException( "Checkpoint has " + from.getActions() + " actions, not " + actions );
+    }
+    loadQ( world, from.values() );
+    episodes = (int) from.getEpisodes();
+    iterations = (int) from.getIterations();
+    rescanAll();
+    derivePi( world );
+  }
+
+  // A snapshot of the Q-table, copied onto the heap even from a store
+  public Checkpoint checkpoint( World world ) {
+    if ( model == null ) {
+      throw new IllegalStateException( "No Q-table of a World to checkpoint" );
+    }
+    return new Checkpoint( Checkpoint.Q_TABLE, model.contentHash(), gamma, alpha, epsilon,
+        world.getLivingReward(), settingsKey( world ), model.stateCount(), actions, episodes, iterations,
+        store != null ? store.toArray() : q.clone(), new int[0] );
+  }
+
+  // A checkpoint that reads the Q-table from the store as it is written
+  private Checkpoint storedCheckpoint( World world ) {
+    return new Checkpoint( Checkpoint.Q_TABLE, model.contentHash(), gamma, alpha, epsilon,
+        world.getLivingReward(), settingsKey( world ), model.stateCount(), actions, episodes, iterations,
+        store, new int[0] );
+  }
+
+  private void run( World world ) throws Exception {
     boolean converged = false;
     int episodeIteration = 0;
+    checkpoints = 0;
+    replayUpdates = 0;
+    if ( replay != null ) {
+      replay.clear();
+    }
+    ExecutorService writer = null;
+    Future<?> pending = null;
+    long nextCheckpoint = System.nanoTime() + checkpointMillis * 1000000L;
+    if ( checkpointFile != null ) {
+      writer = Executors.newSingleThreadExecutor( r -> {
+        Thread thread = new Thread( r, "q-checkpoint" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
+
+    monitor.started();
+    try {
+      while(!converged){
+        EpisodeEvent event = beginEpisodeEvent();
+        int s = model.id( world.getRandomState() );
+        double delta = 0.0; //delta is the maximum change in q-value in an episode
+        int length = 0;
+        while ( !model.isTerminal( s ) ) {
+          int sa = epsilonGreedy( s, world );
+          Percept percept = world.act( model.state( s ), model.action( sa ) );
+          int nextState = model.id( percept.getState() );
+          double oldQ = q( s, model.actionId( sa ) );
+          // If the next state is terminal, its value is its reward
+          double maxQ = model.isTerminal( nextState ) ? model.reward( nextState ) : maxQ( nextState );
+          double error = percept.getReward() + gamma * maxQ - oldQ;
+          double newQ = oldQ + alpha * error;
+          double change = Math.abs(oldQ - newQ);
+          // Update delta to find maximum change in q-value in an episode
+          if (change > delta) {
+            delta = change;
+          }
+          if ( stableWindow > 0 ) {
+            visit( s );
+          }
+          setQ( s, sa, newQ );// Update q-value
+          if ( replay != null ) {
+            replay.add( s, model.actionId( sa ), percept.getReward(), nextState, model.isTerminal( nextState ),
+                prioritized ? Math.max( replay.maxPriority(), priority( error ) ) : 1.0 );
+            if ( replay.size() >= batchSize ) {
+              replayBatch( world );
+            }
+          }
+          s = nextState;
+          iterations++;
+          episodeIteration++;
+          length++;
+        }
+        if ( stableWindow > 0 ? policyStable()
+            : delta < theta && episodeIteration > model.stateCount() ) {
+          converged = true;
+        }
+        episodes++;
+        if ( event != null && event.shouldCommit() ) {
+          event.episode = episodes;
+          event.length = length;
+          event.maxDelta = delta;
+          event.commit();
+        }
+        if ( monitor.episodeEnded( episodes, iterations, length, delta ) ) {
+          converged = true;
+        }
+        if ( writer != null && System.nanoTime() >= nextCheckpoint && ( pending == null || pending.isDone() ) ) {
+          if ( pending != null ) {
+            pending.get(); // surfaces a failed write
+          }
+          if ( store != null ) {
+            storedCheckpoint( world ).write( checkpointFile );
+          }
+          else {
+            Checkpoint snapshot = checkpoint( world );
+            pending = writer.submit( () -> {
+              snapshot.write( checkpointFile );
+              return null;
+            } );
+          }
+          checkpoints++;
+          nextCheckpoint = System.nanoTime() + checkpointMillis * 1000000L;
+        }
+      }
+      if ( writer != null ) {
+        if ( pending != null ) {
+          pending.get();
+        }
+        ( store != null ? storedCheckpoint( world ) : checkpoint( world ) ).write( checkpointFile );
+        checkpoints++;
+      }
+    } // try
+    finally {
+      if ( writer != null ) {
+        writer.shutdown();
+      }
+    } // finally
+    monitor.finished( episodes, iterations, 0, 0 );
+    derivePi( world );
+  }
+
+  // A begun EpisodeEvent, or null while no recording wants one
+  private static EpisodeEvent beginEpisodeEvent() {
+    EpisodeEvent event = EpisodeEvent.enabled() ? new EpisodeEvent() : null;
+    if ( event != null ) {
+      event.begin();
+    }
+    return event;
+  }
+
+  // One mini-batch of Q updates to transitions drawn from the replay buffer
+  private void replayBatch( World world ) {
+    for ( int k = 0; k < batchSize; k++ ) {
+      int i = prioritized ? replay.samplePrioritized( world.nextRandomDouble() )
+          : replay.sample( world.nextRandomDouble() );
+      int s = replay.state( i );
+      int next = replay.next( i );
+      int sa = slotOf( s, replay.action( i ) );
+      double maxQ = replay.isTerminal( i ) ? model.reward( next ) : maxQ( next );
+      double oldQ = q( s, replay.action( i ) );
+      double error = replay.reward( i ) + gamma * maxQ - oldQ;
+      if ( prioritized ) {
+        setQ( s, sa, oldQ + alpha * replay.weight( i, IS_EXPONENT ) * error );
+        replay.setPriority( i, priority( error ) );
+      }
+      else {
+        setQ( s, sa, oldQ + alpha * error );
+      }
+    }
+    replayUpdates += batchSize;
+  }
+
+  // A replay priority for a temporal-difference error, floored so every
+  // transition can still be drawn
+  private static double priority( double error ) {
+    return Math.pow( Math.abs( error ) + PRIORITY_FLOOR, PRIORITY_EXPONENT );
+  }
+
+  /*
+  Learns from every agent of a VectorGridWorld after each lockstep step.
+  Exploration uses the environment's generator.  Each agent's episode
+  ends when it reaches a terminal state, and learning stops under the
+  same test as learn(World), applied to each episode as it ends.
+  */
+  public void learn( VectorGridWorld env ) {
+    World world = env.world();
+    initializeQ( world );
+    int agents = env.agents();
+    int[] from = new int[agents];
+    int[] slots = new int[agents];
+    double[] episodeDelta = new double[agents];
+    int[] episodeLength = new int[agents];
+    EpisodeEvent[] events = new EpisodeEvent[agents]; // by lane, begun with its episode
+    for ( int i = 0; i < agents; i++ ) {
+      events[i] = beginEpisodeEvent();
+    }
+    boolean converged = false;
+    monitor.started();
 
-    while(!converged){
-      State s = world.getRandomState();
-      double delta = 0.0; //delta is the maximum change in q-value in an episode
-      while ( !world.isTerminal( s ) ) {
-        Action a = epsilonGreedy( s, world );
-        Percept percept = world.act( s, a );
-        State nextState = percept.getState();
-        double oldQ = q.get( s ).get( a );
-        double maxQ = Double.NEGATIVE_INFINITY;
-        // If the next state is terminal, the q-value is 0
-        if (world.isTerminal(nextState)) {
-          maxQ = world.R(nextState); 
+    while ( !converged ) {
+      System.arraycopy( env.states(), 0, from, 0, agents );
+      for ( int i = 0; i < agents; i++ ) {
+        slots[i] = epsilonGreedy( from[i], env );
+      }
+      env.step( slots );
+      int[] next = env.nextStates();
+      double[] reward = env.rewards();
+      boolean[] done = env.dones();
+      for ( int i = 0; i < agents; i++ ) {
+        double oldQ = q( from[i], model.actionId( slots[i] ) );
+        double maxQ = done[i] ? model.reward( next[i] ) : maxQ( next[i] );
+        double newQ = oldQ + alpha * ( reward[i] + gamma * maxQ - oldQ );
+        episodeDelta[i] = Math.max( episodeDelta[i], Math.abs( oldQ - newQ ) );
+        if ( stableWindow > 0 ) {
+          visit( from[i] );
         }
-        else{
-          for ( Action nextAction : world.A( nextState ) ) {
-            double nextQValue = q.get( nextState ).get( nextAction );
-            if ( nextQValue > maxQ ) {
-              maxQ = nextQValue;
-            } 
+        setQ( from[i], slots[i], newQ );
+        iterations++;
+        episodeLength[i]++;
+      }
+      for ( int i = 0; i < agents; i++ ) {
+        if ( done[i] ) {
+          episodes++;
+          if ( stableWindow > 0 ? policyStable()
+              : episodeDelta[i] < theta && iterations > model.stateCount() ) {
+            converged = true;
           }
+          EpisodeEvent event = events[i];
+          if ( event != null && event.shouldCommit() ) {
+            event.episode = episodes;
+            event.length = episodeLength[i];
+            event.maxDelta = episodeDelta[i];
+            event.commit();
+          }
+          events[i] = beginEpisodeEvent();
+          if ( monitor.episodeEnded( episodes, iterations, episodeLength[i], episodeDelta[i] ) ) {
+            converged = true;
+          }
+          episodeDelta[i] = 0.0;
+          episodeLength[i] = 0;
+        }
+      }
+    }
+    monitor.finished( episodes, iterations, 0, 0 );
+    derivePi( world );
+  }
+
+  /*
+  Learns a grid whose layout lives off the heap, with the Q-table in the
+  store given to setStorage or else in the grid's "q" table, four values
+  a cell in GridAction's order.  A direction into a wall holds -infinity,
+  so the greedy action and maxQ are a scan of the cell's four values and
+  no greedy cache is needed; pi reads the table.  Nothing on the heap
+  grows with the grid.  An episode in a big maze can run for millions of
+  steps, so the stop condition is also tested every STOP_CHECK steps
+  within one.  Replay, checkpoints and the policy stability test all
+  need per-state arrays, so they are not offered here.  A table left
+  by a run on the same layout, gamma and living reward is resumed, as
+  with a World.
+  */
+  public void learn( OffHeapGrid grid ) throws IOException {
+    if ( replay != null || checkpointFile != null || stableWindow > 0 ) {
+      throw new IllegalStateException( "Replay, checkpoints and the stability test need a World" );
+    }
+    long size = grid.cells() * 4;
+    OffHeapStore table = store != null ? store : grid.table( "q", size );
+    if ( table.length() != size ) {
+      throw new IllegalArgumentException( "Store holds " + table.length() + " values, not " + size );
+    }
+    this.grid = grid;
+    gridQ = table;
+    model = null;
+    q = null;
+    best = null;
+    bestQ = null;
+    pi.clear();
+    policyChanges = 0;
+    long tag = Hashing.mix( grid.contentHash(), Double.doubleToLongBits( gamma ) );
+    tag = Hashing.mix( tag, Double.doubleToLongBits( grid.getLivingReward() ) );
+    if ( table.isFresh() || table.tag() != tag ) {
+      for ( long c = 0; c < grid.cells(); c++ ) {
+        boolean open = !grid.isWall( c ) && !grid.isTerminal( c );
+        int moves = open ? grid.moves( c ) : 0;
+        for ( int d = 0; d < 4; d++ ) {
+          table.set( c * 4 + d, !open ? 0.0
+              : ( moves & ( 1 << d ) ) != 0 ? grid.nextRandomDouble() : Double.NEGATIVE_INFINITY );
         }
-        double newQ = oldQ + alpha * ( percept.getReward() + gamma * maxQ - oldQ );
-        double change = Math.abs(oldQ - newQ);
-        // Update delta to find maximum change in q-value in an episode
-        if (change > delta) {
-          delta = change;
+      }
+      table.setTag( tag );
+    }
+
+    boolean converged = false;
+    long episodeIteration = 0;
+    monitor.started();
+    while ( !converged ) {
+      EpisodeEvent event = beginEpisodeEvent();
+      long s = grid.randomState();
+      double delta = 0.0;
+      int length = 0;
+      boolean stopped = false;
+      while ( !grid.isTerminal( s ) && !stopped ) {
+        int d = gridEpsilonGreedy( s );
+        if ( d < 0 ) {
+          break; // walled in on all four sides
         }
-        q.get( s ).put( a, newQ );// Update q-value
-        s = nextState;
+        long next = grid.step( s, d );
+        double reward = grid.reward( next );
+        double oldQ = gridQ.get( s * 4 + d );
+        // If the next state is terminal, its value is its reward
+        double maxQ = grid.isTerminal( next ) ? reward : gridMaxQ( next );
+        double newQ = oldQ + alpha * ( reward + gamma * maxQ - oldQ );
+        delta = Math.max( delta, Math.abs( oldQ - newQ ) );
+        gridQ.set( s * 4 + d, newQ );
+        s = next;
         iterations++;
         episodeIteration++;
+        length++;
+        if ( ( iterations & ( STOP_CHECK - 1 ) ) == 0 ) {
+          stopped = monitor.stepped( episodes, iterations );
+        }
       }
-      if (delta < theta && episodeIteration > q.size()) {
+      if ( stopped || delta < theta && episodeIteration > grid.openCells() ) {
         converged = true;
       }
       episodes++;
+      if ( event != null && event.shouldCommit() ) {
+        event.episode = episodes;
+        event.length = length;
+        event.maxDelta = delta;
+        event.commit();
+      }
+      if ( monitor.episodeEnded( episodes, iterations, length, delta ) ) {
+        converged = true;
+      }
     }
-    derivePi( world );
+    monitor.finished( episodes, iterations, 0, 0 );
+  }
+
+  // The direction to take in cell s, or -1 if none is open
+  private int gridEpsilonGreedy( long s ) {
+    if ( grid.nextRandomDouble() < epsilon ) {
+      int moves = grid.moves( s );
+      if ( moves == 0 ) {
+        return -1;
+      }
+      for ( int k = grid.nextRandomInt( Integer.bitCount( moves ) ); k > 0; k-- ) {
+        moves &= moves - 1;
+      }
+      return Integer.numberOfTrailingZeros( moves );
+    }
+    return gridMaxQAction( s );
+  }
+
+  // The first direction of cell s with the largest Q, or -1 if none is open
+  private int gridMaxQAction( long s ) {
+    int maxAction = -1;
+    double max = Double.NEGATIVE_INFINITY;
+    for ( int d = 0; d < 4; d++ ) {
+      double value = gridQ.get( s * 4 + d );
+      if ( value > max ) {
+        max = value;
+        maxAction = d;
+      }
+    }
+    return maxAction;
+  }
+
+  private double gridMaxQ( long s ) {
+    return Math.max( Math.max( gridQ.get( s * 4 ), gridQ.get( s * 4 + 1 ) ),
+        Math.max( gridQ.get( s * 4 + 2 ), gridQ.get( s * 4 + 3 ) ) );
   }
 
   private void derivePi( World world ) {
-    for ( State s : world.S() ) {
-      Action bestAction = null;
-      double bestQ = Double.NEGATIVE_INFINITY;
+    for ( int s = 0; s < model.stateCount(); s++ ) {
       // If the state is terminal, the policy is null
-      if ( world.isTerminal( s ) ) {
-        pi.put( s, null );
+      if ( model.isTerminal( s ) ) {
+        pi.put( model.state( s ), null );
         continue;
       }
-      for ( Action a : world.A( s ) ) {
-        double qValue = q.get( s ).get( a );
-        if ( qValue > bestQ ) {
-          bestQ = qValue;
-          bestAction = a;
-        } 
-      }
-      if (bestAction != null) {
-        pi.put( s, bestAction );
+      int sa = maxQAction( s );
+      if ( sa != -1 ) {
+        pi.put( model.state( s ), model.action( sa ) );
       }
     }
   }
 
-  private Action epsilonGreedy( State s, World world ) {
+  // Returns the slot of the action to take in state s
+  private int epsilonGreedy( int s, World world ) {
     if ( world.nextRandomDouble() < epsilon ) {
-      return world.getRandomAction( s );
+      return model.actionBegin( s ) + world.nextRandomInt( model.actionEnd( s ) - model.actionBegin( s ) );
     } 
     else {
-      return maxQAction( s, world );
+      return maxQAction( s );
     } 
   }
 
-  private Action maxQAction( State s, World world ) {
-    Action bestAction = null;
-    double bestQ = Double.NEGATIVE_INFINITY;
-    for ( Action a : world.A( s ) ) {
-      double qValue = q.get( s ).get( a );
-      if ( qValue > bestQ) {
-        bestQ = qValue;
-        bestAction = a;
-      } 
+  private int epsilonGreedy( int s, VectorGridWorld env ) {
+    if ( env.nextRandomDouble() < epsilon ) {
+      return model.actionBegin( s ) + env.nextRandomInt( model.actionEnd( s ) - model.actionBegin( s ) );
+    }
+    return maxQAction( s );
+  }
+
+  private int maxQAction( int s ) {
+    return best[s];
+  }
+
+  private double maxQ( int s ) {
+    return bestQ[s];
+  }
+
+  /*
+  Writes Q for slot sa of state s and keeps the greedy action of s up to
+  date: a raised value can only take over the lead, so it is one
+  comparison, and only lowering the leader itself rescans the state's
+  actions.  Ties go to the earlier slot, as a full scan would decide
+  them.  Every change of the greedy action is counted.
+  */
+  private void setQ( int s, int sa, double value ) {
+    putQ( s, model.actionId( sa ), value );
+    int leader = best[s];
+    if ( sa == leader ) {
+      if ( value >= bestQ[s] ) {
+        bestQ[s] = value;
+        return;
+      }
+      rescan( s );
+    }
+    else if ( value > bestQ[s] || ( value == bestQ[s] && sa < leader ) ) {
+      best[s] = sa;
+      bestQ[s] = value;
+    }
+    if ( best[s] != leader ) {
+      policyChanges++;
+    }
+  }
+
+  // Finds the greedy slot of s by scanning its actions
+  private void rescan( int s ) {
+    int bestAction = -1;
+    double max = Double.NEGATIVE_INFINITY;
+    for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+      double qValue = q( s, model.actionId( sa ) );
+      if ( qValue > max ) {
+        max = qValue;
+        bestAction = sa;
+      }
+    }
+    best[s] = bestAction;
+    bestQ[s] = max;
+  }
+
+  // Rebuilds the greedy cache after q has been filled wholesale
+  private void rescanAll() {
+    best = new int[model.stateCount()];
+    bestQ = new double[model.stateCount()];
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      rescan( s );
+    }
+    policyChanges = 0;
+    visitedEpoch = new long[model.stateCount()];
+    Arrays.fill( visitedEpoch, -1 );
+    epochBest = new int[model.stateCount()];
+    visited = new int[model.stateCount()];
+    visitedCount = 0;
+    visitable = 0;
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      if ( !model.isTerminal( s ) && model.actionBegin( s ) < model.actionEnd( s ) ) {
+        visitable++;
+      }
+    }
+    epoch = 0;
+    smoothedChanges = 1.0;
+    lowestChanges = 1.0;
+    lowestEpoch = 0;
+  }
+
+  // Notes that the stability epoch visited s, remembering its greedy
+  // action the first time
+  private void visit( int s ) {
+    if ( visitedEpoch[s] != epoch ) {
+      visitedEpoch[s] = epoch;
+      epochBest[s] = best[s];
+      visited[visitedCount++] = s;
+    }
+  }
+
+  // At the end of an episode: whether learning has converged under the
+  // stability test, closing the epoch once it has visited window states
+  private boolean policyStable() {
+    if ( visitedCount < Math.min( stableWindow, visitable ) ) {
+      return false;
+    }
+    int changed = 0;
+    for ( int i = 0; i < visitedCount; i++ ) {
+      if ( best[visited[i]] != epochBest[visited[i]] ) {
+        changed++;
+      }
+    }
+    double fraction = changed / (double) visitedCount;
+    smoothedChanges = epoch == 0 ? fraction : smoothedChanges + ( fraction - smoothedChanges ) * STABLE_SMOOTHING;
+    if ( smoothedChanges < lowestChanges ) {
+      lowestChanges = smoothedChanges;
+      lowestEpoch = epoch;
     }
-    return bestAction;
+    boolean stable = smoothedChanges <= stableFraction && epoch - lowestEpoch >= STABLE_PATIENCE;
+    epoch++;
+    visitedCount = 0;
+    return stable;
+  }
+
+  // The slot of action id a in state s
+  private int slotOf( int s, int a ) {
+    for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+      if ( model.actionId( sa ) == a ) {
+        return sa;
+      }
+    }
+    return -1;
   }
 
   private void initializeQ( World world ) {
-    for ( State s : world.S() ) {
-      HashMap<Action,Double> qValues = new HashMap<Action,Double>();
+    grid = null;
+    model = world.compile();
+    actions = model.actionCount();
+    long size = (long) model.stateCount() * actions;
+    if ( store != null ) {
+      if ( store.length() != size ) {
+        throw new IllegalArgumentException( "Store holds " + store.length() + " values, not " + size );
+      }
+      q = null;
+      if ( !store.isFresh() && store.tag() == storeTag( world ) ) {
+        rescanAll();   // resume the table a previous run left
+        return;
+      }
+      store.fill( 0.0 );
+    }
+    else {
+      q = new double[(int) size];
+    }
+    for ( int s = 0; s < model.stateCount(); s++ ) {
       // If the state is terminal, the q-value is 0
-      if ( world.isTerminal( s ) ) {
-        qValues.put(null, 0.0);
+      if ( model.isTerminal( s ) ) {
+        continue;
       }
       // Otherwise, initialize q-values to random values
-      else {
-        for ( Action a : world.A( s ) ) {
-          qValues.put( a, world.nextRandomDouble());
-        } 
-      }
-      q.put(s, qValues);
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        putQ( s, model.actionId( sa ), world.nextRandomDouble() );
+      } 
     } 
+    if ( store != null ) {
+      store.setTag( storeTag( world ) );
+    }
+    rescanAll();
+  }
+
+  // Tells a store's table for this layout, gamma and living reward from
+  // any other
+  private long storeTag( World world ) {
+    long h = Hashing.mix( model.contentHash(), Double.doubleToLongBits( gamma ) );
+    return Hashing.mix( h, Double.doubleToLongBits( world.getLivingReward() ) );
+  }
+
+  private double q( int s, int a ) {
+    long i = (long) s * actions + a;
+    return store != null ? store.get( i ) : q[(int) i];
+  }
+
+  // Writes q without the greedy bookkeeping of setQ
+  private void putQ( int s, int a, double value ) {
+    long i = (long) s * actions + a;
+    if ( store != null ) {
+      store.set( i, value );
+    }
+    else {
+      q[(int) i] = value;
+    }
+  }
+
+  // Fills q from a checkpoint's table
+  private void loadQ( World world, double[] values ) {
+    if ( store != null ) {
+      store.copyFrom( values );
+      store.setTag( storeTag( world ) );
+      q = null;
+    }
+    else {
+      q = values.clone();
+    }
+  }
+
+  // Renders q in the State-keyed form it had as nested maps
+  private String qString() {
+    if ( model == null ) {
+      return "{}";
+    }
+    StringBuilder sb = new StringBuilder( "{" );
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      if ( s > 0 ) {
+        sb.append( ", " );
+      }
+      sb.append( model.state( s ) ).append( "={" );
+      if ( model.isTerminal( s ) ) {
+        sb.append( "null=0.0" );
+      }
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        if ( sa > model.actionBegin( s ) ) {
+          sb.append( ", " );
+        }
+        sb.append( model.action( sa ) ).append( "=" ).append( q( s, model.actionId( sa ) ) );
+      }
+      sb.append( "}" );
+    }
+    return sb.append( "}" ).toString();
+  }
+
+  public void setAlpha( double alpha ) {
+    if ( alpha <= 0.0 || alpha > 1.0 ) {
+      throw new IllegalArgumentException( "alpha must be in (0, 1]: " + alpha );
+    }
+    this.alpha = alpha;
+  }
+
+  public void setGamma( double gamma ) {
+    if ( gamma <= 0.0 || gamma >= 1.0 ) {
+      throw new IllegalArgumentException( "gamma must be in (0, 1): " + gamma );
+    }
+    this.gamma = gamma;
+  }
+
+  /*
+  Replaces the convergence test of learn with one on the greedy policy.
+  Learning is cut into epochs, each ending with the first episode after
+  window distinct states have been visited, or every state that can be;
+  a quarter of the states works well.  A visited state counts as changed if its greedy action at
+  the end of the epoch is not the one it had when the epoch first
+  visited it, so a pair of actions trading the lead back and forth
+  within the epoch counts once at most.  The changed fraction of the
+  visited states falls as the policy settles, down to a floor set by the
+  states whose best actions are nearly tied, which keep flipping for as
+  long as the noise lasts; the floor differs from layout to layout, so
+  learning stops once the fraction, smoothed over epochs, is at most
+  fraction and has not fallen for STABLE_PATIENCE epochs.  The default
+  test instead waits for an episode whose largest Q change is below
+  theta, which with a constant alpha and noisy transitions takes longer.
+  A window of 0 restores the default test.
+  */
+  public void setPolicyStability( long window, double fraction ) {
+    if ( window < 0 || fraction < 0.0 ) {
+      throw new IllegalArgumentException( "Window and fraction must not be negative: " + window + ", " + fraction );
+    }
+    stableWindow = window;
+    stableFraction = fraction;
+  }
+
+  /*
+  The settings besides gamma, alpha and epsilon that change what learn
+  computes on world, folded into one number: theta, the replay buffer,
+  the convergence test and the world's seed.
+  */
+  public long settingsKey( World world ) {
+    long h = Hashing.mix( 0, Double.doubleToLongBits( theta ) );
+    h = Hashing.mix( h, replay == null ? 0 : replay.capacity() );
+    h = Hashing.mix( h, replay == null ? 0 : batchSize );
+    h = Hashing.mix( h, replay != null && prioritized ? 1 : 0 );
+    h = Hashing.mix( h, stableWindow );
+    h = Hashing.mix( h, Double.doubleToLongBits( stableFraction ) );
+    return Hashing.mix( h, world.getSeed() );
+  }
+
+  // Greedy actions changed by Q updates during the last learn
+  public long getPolicyChanges() {
+    return policyChanges;
+  }
+
+  public double getGamma() {
+    return gamma;
+  }
+
+  public double getAlpha() {
+    return alpha;
+  }
+
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  public int getEpisodes() {
+    return episodes;
+  }
+
+  public int getIterations() {
+    return iterations;
   }
 
   public Action pi( State s ) {
-    if ( pi == null )
+    if ( grid != null ) {
+      GridState cell = (GridState) s;
+      if ( grid.isWall( cell.getX(), cell.getY() ) || grid.isTerminal( grid.cell( cell.getX(), cell.getY() ) ) )
+        return null;
+      int d = gridMaxQAction( grid.cell( cell.getX(), cell.getY() ) );
+      return d < 0 ? null : GridAction.of( d );
+    }
+    else if ( pi == null )
       return null;
     else
       return pi.get( s );
@@ -147,7 +881,7 @@ public class QLearner {
     StringBuilder sb = new StringBuilder();
     sb.append( episodes + " episodes\n" );
     sb.append( iterations + " iterations\n" );
-    sb.append( "q = " + q );
+    sb.append( "q = " + qString() );
     sb.append( "\npi = " + pi );
     return sb.toString();
   }
@@ -165,14 +899,14 @@ public class QLearner {
 
   public static void main( String args[] ) {
     try {
-      World world = new GridWorld( "tinyGrid.lay");
+      World world = new GridWorld( args.length > 0 ? args[0] : "tinyGrid.lay" );
       // world.setLivingReward( -0.01 ); // play around with this
       QLearner qlearner = new QLearner( 0.4 ); // play around with epsilon
+      // qlearner.setReplay( 100000, 32, false ); // replay past transitions
       qlearner.learn( world );
       System.out.println( qlearner );
       System.out.println( qlearner.toPolicyString() );
-      GridWorld gridWorld = (GridWorld) world; 
-      System.out.println( "Has contradiction: "+ gridWorld.hasContradictions(qlearner.pi) );
+      System.out.println( new PolicyAnalyzer().analyze( world, qlearner::pi ) );
     } // try
     catch ( Exception e ) {
       System.out.println( e.getMessage() );
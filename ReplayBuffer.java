@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity ring buffer of transitions for experience replay.  Each
+ * field lives in its own primitive array indexed by slot, and once the
+ * buffer is full each new transition overwrites the oldest one.
+ *
+ * Slots can be drawn uniformly or in proportion to a priority.  The
+ * priorities sit in the leaves of three complete binary trees whose inner
+ * nodes hold the sum, the largest and the smallest priority below them,
+ * so a proportional draw and a priority update both take O(log capacity).
+ * An update recomputes each inner node on the way to the root from its
+ * two children rather than adding the difference, so rounding errors do
+ * not pile up in the totals.  The largest priority is that of the slots
+ * stored now, for giving a new transition, and the smallest gives the
+ * importance-sampling weights that undo the bias of proportional draws.
+ */
+
+public class ReplayBuffer {
+
+  private final int capacity;
+  private final int[] state;
+  private final int[] action;       // action id, not slot
+  private final double[] reward;
+  private final int[] next;
+  private final boolean[] terminal;
+  private final double[] tree;      // sum tree; the leaf of slot i is tree[leaves + i]
+  private final double[] maxTree;   // the same leaves, 0 if empty, inner nodes the max
+  private final double[] minTree;   // the same leaves, infinity if empty, inner nodes the min
+  private final int leaves;         // capacity rounded up to a power of two
+  private int head;                 // slot the next transition goes to
+  private int size;
+
+  public ReplayBuffer( int capacity ) {
+    if ( capacity < 1 ) {
+      throw new IllegalArgumentException( "Capacity must be at least 1: " + capacity );
+    }
+    this.capacity = capacity;
+    state = new int[capacity];
+    action = new int[capacity];
+    reward = new double[capacity];
+    next = new int[capacity];
+    terminal = new boolean[capacity];
+    int n = 1;
+    while ( n < capacity ) {
+      n <<= 1;
+    }
+    leaves = n;
+    tree = new double[2 * n];
+    maxTree = new double[2 * n];
+    minTree = new double[2 * n];
+    Arrays.fill( minTree, Double.POSITIVE_INFINITY );
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Stores a transition in the oldest slot with the given priority and
+  // returns the slot
+  public int add( int s, int a, double r, int nextState, boolean isTerminal, double priority ) {
+    int i = head;
+    state[i] = s;
+    action[i] = a;
+    reward[i] = r;
+    next[i] = nextState;
+    terminal[i] = isTerminal;
+    setPriority( i, priority );
+    head = head + 1 == capacity ? 0 : head + 1;
+    if ( size < capacity ) {
+      size++;
+    }
+    return i;
+  }
+
+  public int state( int i ) {
+    return state[i];
+  }
+
+  public int action( int i ) {
+    return action[i];
+  }
+
+  public double reward( int i ) {
+    return reward[i];
+  }
+
+  public int next( int i ) {
+    return next[i];
+  }
+
+  public boolean isTerminal( int i ) {
+    return terminal[i];
+  }
+
+  // The slot that the uniform draw r in [0, 1) falls on, every stored slot
+  // equally likely
+  public int sample( double r ) {
+    return (int) ( r * size );
+  }
+
+  // The slot that the uniform draw r in [0, 1) falls on, each stored slot
+  // in proportion to its priority
+  public int samplePrioritized( double r ) {
+    double target = r * tree[1];
+    int node = 1;
+    while ( node < leaves ) {
+      int left = 2 * node;
+      if ( target < tree[left] || tree[left + 1] == 0.0 ) {
+        node = left;
+      }
+      else {
+        target -= tree[left];
+        node = left + 1;
+      }
+    }
+    return Math.min( node - leaves, size - 1 );
+  }
+
+  public double priority( int i ) {
+    return tree[leaves + i];
+  }
+
+  // The largest priority of a stored slot, 0 if there is none
+  public double maxPriority() {
+    return maxTree[1];
+  }
+
+  /*
+  The importance-sampling weight of slot i after a proportional draw,
+  (N * P(i))^-beta scaled so the largest weight, that of the least
+  likely slot, is 1.  beta 1 undoes the bias of the draws entirely.
+  */
+  public double weight( int i, double beta ) {
+    return Math.pow( minTree[1] / tree[leaves + i], beta );
+  }
+
+  public void setPriority( int i, double priority ) {
+    if ( !( priority > 0.0 ) || priority == Double.POSITIVE_INFINITY ) {
+      throw new IllegalArgumentException( "Priority must be positive and finite: " + priority );
+    }
+    int node = leaves + i;
+    tree[node] = priority;
+    maxTree[node] = priority;
+    minTree[node] = priority;
+    node >>= 1;
+    while ( node > 0 ) {
+      int left = 2 * node;
+      tree[node] = tree[left] + tree[left + 1];
+      maxTree[node] = Math.max( maxTree[left], maxTree[left + 1] );
+      minTree[node] = Math.min( minTree[left], minTree[left + 1] );
+      node >>= 1;
+    }
+  }
+
+  public void clear() {
+    Arrays.fill( tree, 0.0 );
+    Arrays.fill( maxTree, 0.0 );
+    Arrays.fill( minTree, Double.POSITIVE_INFINITY );
+    head = 0;
+    size = 0;
+  }
+
+  public String toString() {
+    return size + "/" + capacity + " transitions, total priority " + tree[1];
+  }
+
+} // ReplayBuffer class
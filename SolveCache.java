@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Remembers the results of PolicyIteration.solve and QLearner.learn so an
+ * identical request is answered by restoring the stored tables instead of
+ * solving again.  A result is keyed by CompiledWorld.contentHash() of the
+ * layout, the kind of result, and the parameters it depends on: gamma, the
+ * living reward, for a learner alpha and epsilon, and the solver's own
+ * settingsKey(), which folds in the rest: PolicyIteration's evaluation
+ * mode, sweeps and tolerance, QLearner's theta, replay, convergence test
+ * and the world's seed.
+ *
+ * Results are held as Checkpoints in an in-memory tier, least recently
+ * used first out once their arrays exceed maxBytes, and optionally also in
+ * a directory of checkpoint files named by the key, which outlives the
+ * process.  A memory miss that hits the disk tier is promoted back into
+ * memory.  The key's fields are checked against the loaded header, so a
+ * colliding file name counts as a miss rather than a wrong answer.
+ *
+ * The tiers are safe to share between threads, but two threads that miss
+ * on the same key at once both solve it.
+ */
+
+public class SolveCache {
+
+  private final long maxBytes;
+  private long bytes;                 // array bytes held in memory
+  private final LinkedHashMap<Key,Checkpoint> memory = new LinkedHashMap<Key,Checkpoint>( 16, 0.75f, true );
+  private Path directory;             // null for no disk tier
+  private long hits;
+  private long diskHits;
+  private long misses;
+  private long evictions;
+
+  public SolveCache( long maxBytes ) {
+    if ( maxBytes < 0 ) {
+      throw new IllegalArgumentException( "Cache size must not be negative: " + maxBytes );
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  // Also keeps every result as a checkpoint file in directory
+  public void setDirectory( String directory ) throws IOException {
+    this.directory = Paths.get( directory );
+    Files.createDirectories( this.directory );
+  }
+
+  // Restores solution from the cache, or solves world and stores the result
+  public void solve( World world, PolicyIteration solution ) throws Exception {
+    Key key = new Key( Checkpoint.UTILITY_POLICY, world.compile().contentHash(), solution.getGamma(),
+        world.getLivingReward(), 0.0, 0.0, solution.settingsKey() );
+    Checkpoint cached = get( key );
+    if ( cached != null ) {
+      solution.restore( world, cached );
+      return;
+    }
+    solution.solve( world );
+    put( key, solution.checkpoint( world ) );
+  }
+
+  // Restores learner from the cache, or learns world and stores the result
+  public void learn( World world, QLearner learner ) throws Exception {
+    Key key = new Key( Checkpoint.Q_TABLE, world.compile().contentHash(), learner.getGamma(),
+        world.getLivingReward(), learner.getAlpha(), learner.getEpsilon(), learner.settingsKey( world ) );
+    Checkpoint cached = get( key );
+    if ( cached != null ) {
+      learner.restore( world, cached );
+      return;
+    }
+    learner.learn( world );
+    put( key, learner.checkpoint( world ) );
+  }
+
+  private Checkpoint get( Key key ) throws IOException {
+    synchronized ( this ) {
+      Checkpoint cached = memory.get( key );
+      if ( cached != null ) {
+        hits++;
+        return cached;
+      }
+    }
+    if ( directory != null ) {
+      Path file = file( key );
+      if ( Files.exists( file ) ) {
+        Checkpoint loaded = Checkpoint.load( file.toString() );
+        if ( key.matches( loaded ) ) {
+          synchronized ( this ) {
+            diskHits++;
+            store( key, loaded );
+          }
+          return loaded;
+        }
+      }
+    }
+    synchronized ( this ) {
+      misses++;
+    }
+    return null;
+  }
+
+  private void put( Key key, Checkpoint checkpoint ) throws IOException {
+    synchronized ( this ) {
+      store( key, checkpoint );
+    }
+    if ( directory != null ) {
+      checkpoint.write( file( key ).toString() );
+    }
+  }
+
+  // Adds to the memory tier and evicts from the cold end until it fits
+  private void store( Key key, Checkpoint checkpoint ) {
+    Checkpoint old = memory.put( key, checkpoint );
+    if ( old != null ) {
+      bytes -= sizeOf( old );
+    }
+    bytes += sizeOf( checkpoint );
+    Iterator<Map.Entry<Key,Checkpoint>> coldest = memory.entrySet().iterator();
+    while ( bytes > maxBytes && coldest.hasNext() ) {
+      bytes -= sizeOf( coldest.next().getValue() );
+      coldest.remove();
+      evictions++;
+    }
+  }
+
+  private static long sizeOf( Checkpoint checkpoint ) {
+    return checkpoint.values().length * 8L + checkpoint.policy().length * 4L;
+  }
+
+  private Path file( Key key ) {
+    return directory.resolve( String.format( "%016x.ckpt", key.hash() ) );
+  }
+
+  public synchronized void clear() {
+    memory.clear();
+    bytes = 0;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getDiskHits() {
+    return diskHits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized int size() {
+    return memory.size();
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized double hitRate() {
+    long requests = hits + diskHits + misses;
+    return requests == 0 ? 0.0 : ( hits + diskHits ) / (double) requests;
+  }
+
+  public synchronized String toString() {
+    return memory.size() + " results, " + bytes + "/" + maxBytes + " bytes, " + hits + " hits, "
+        + diskHits + " disk hits, " + misses + " misses, " + evictions + " evictions"
+        + ( directory != null ? ", directory " + directory : "" );
+  }
+
+  // What a result depends on
+  private static final class Key {
+
+    final int kind;
+    final long layoutHash;
+    final double gamma;
+    final double livingReward;
+    final double alpha;
+    final double epsilon;
+    final long settings;
+
+    Key( int kind, long layoutHash, double gamma, double livingReward, double alpha, double epsilon,
+         long settings ) {
+      this.kind = kind;
+      this.layoutHash = layoutHash;
+      this.gamma = gamma;
+      this.livingReward = livingReward;
+      this.alpha = alpha;
+      this.epsilon = epsilon;
+      this.settings = settings;
+    }
+
+    boolean matches( Checkpoint checkpoint ) {
+      return checkpoint.getKind() == kind && checkpoint.getLayoutHash() == layoutHash
+          && checkpoint.getGamma() == gamma && checkpoint.getLivingReward() == livingReward
+          && checkpoint.getAlpha() == alpha && checkpoint.getEpsilon() == epsilon
+          && checkpoint.getSettings() == settings;
+    }
+
+    long hash() {
+      long h = Hashing.mix( layoutHash, kind );
+      h = Hashing.mix( h, Double.doubleToLongBits( gamma ) );
+      h = Hashing.mix( h, Double.doubleToLongBits( livingReward ) );
+      h = Hashing.mix( h, Double.doubleToLongBits( alpha ) );
+      h = Hashing.mix( h, Double.doubleToLongBits( epsilon ) );
+      return Hashing.mix( h, settings );
+    }
+
+    public boolean equals( Object o ) {
+      if ( !( o instanceof Key ) ) {
+        return false;
+      }
+      Key k = (Key) o;
+      return kind == k.kind && layoutHash == k.layoutHash && Double.compare( gamma, k.gamma ) == 0
+          && Double.compare( livingReward, k.livingReward ) == 0 && Double.compare( alpha, k.alpha ) == 0
+          && Double.compare( epsilon, k.epsilon ) == 0 && settings == k.settings;
+    }
+
+    public int hashCode() {
+      return Long.hashCode( hash() );
+    }
+
+  } // Key class
+
+  /**
+   * java SolveCache mediumGrid.lay [cache directory]
+   *
+   * Solves and learns a layout at a few living rewards, then asks for the
+   * same results again from the memory tier, and from a fresh cache that
+   * only has the disk tier to go on.  Without a directory the disk tier
+   * goes in a temporary one, deleted at the end.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      String layout = args.length > 0 ? args[0] : "mediumGrid.lay";
+      Path temporary = args.length > 1 ? null : Files.createTempDirectory( "solve-cache" );
+      String directory = args.length > 1 ? args[1] : temporary.toString();
+      double[] livingRewards = { -0.04, -0.1, -0.5 };
+      World[] worlds = new World[livingRewards.length];
+      for ( int i = 0; i < worlds.length; i++ ) {
+        worlds[i] = new GridWorld( layout );
+        worlds[i].setLivingReward( livingRewards[i] );
+        worlds[i].compile();
+      }
+
+      SolveCache cache = new SolveCache( 1 << 20 );
+      cache.setDirectory( directory );
+      for ( int pass = 0; pass < 2; pass++ ) {
+        for ( int i = 0; i < worlds.length; i++ ) {
+          long start = System.nanoTime();
+          cache.solve( worlds[i], new PolicyIteration() );
+          long solved = System.nanoTime() - start;
+          start = System.nanoTime();
+          cache.learn( worlds[i], new QLearner( 0.4 ) );
+          System.out.printf( "Pass %d, living reward %5.2f: PolicyIteration %9.1f us, QLearner %9.1f us%n",
+              pass + 1, livingRewards[i], solved / 1e3, ( System.nanoTime() - start ) / 1e3 );
+        }
+      }
+      System.out.println( cache );
+
+      SolveCache cold = new SolveCache( 1 << 20 );
+      cold.setDirectory( directory );
+      for ( int i = 0; i < worlds.length; i++ ) {
+        long start = System.nanoTime();
+        cold.solve( worlds[i], new PolicyIteration() );
+        System.out.printf( "From disk, living reward %5.2f: PolicyIteration %9.1f us%n",
+            livingRewards[i], ( System.nanoTime() - start ) / 1e3 );
+      }
+      System.out.println( cold );
+
+      if ( temporary != null ) {
+        try ( Stream<Path> files = Files.list( temporary ) ) {
+          for ( Path file : (Iterable<Path>) files::iterator ) {
+            Files.delete( file );
+          }
+        } // try
+        Files.delete( temporary );
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // SolveCache class
@@ -0,0 +1,176 @@
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures policy-iteration sweep throughput on a layout, comparing the
+ * original State-keyed sweep, which calls World.P and looks utilities up
+ * in a HashMap, against the same sweep over the CompiledWorld arrays.
+ * One sweep is a policy-evaluation backup plus the improvement argmax
+ * over every state.
+ *
+ * With a list of thread counts it also times PolicyIteration.solve on
+ * a ForkJoinPool of each size, checking that every run finds the same
+ * policy as the sequential solver.
+ *
+ * java SweepBenchmark mediumGrid.lay [seconds] [1,2,4,8]
+ */
+
+public class SweepBenchmark {
+
+  private static final double GAMMA = 0.9;
+
+  private static double sink; // keeps the JIT from discarding the sweeps
+
+  // The sweep PolicyIteration performed before the model was compiled
+  private static void hashMapSweep( World world, HashMap<State,Double> u,
+                                    HashMap<State,Action> pi ) {
+    HashMap<State,Double> uPrime = new HashMap<State,Double>();
+    for ( State s : world.getStates() ) {
+      if ( world.isTerminal( s ) ) {
+        uPrime.put( s, world.getTerminals().get( s ) );
+      }
+      else {
+        double actionUtility = 0.0;
+        for ( Transition t : world.P( s, pi.get( s ) ) ) {
+          actionUtility += t.getProbability() * u.get( t.getState() );
+        }
+        uPrime.put( s, world.R( s ) + GAMMA * actionUtility );
+      }
+    }
+    u.putAll( uPrime );
+    for ( State s : world.getStates() ) {
+      double maxUtility = Double.NEGATIVE_INFINITY;
+      for ( Action a : world.A( s ) ) {
+        double expectedUtility = 0.0;
+        for ( Transition t : world.P( s, a ) ) {
+          expectedUtility += t.getProbability() * u.get( t.getState() );
+        }
+        if ( expectedUtility > maxUtility ) {
+          maxUtility = expectedUtility;
+        }
+      }
+      sink += maxUtility;
+    }
+  }
+
+  private static void compiledSweep( CompiledWorld model, double[] u,
+                                     double[] uPrime, int[] pi ) {
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      if ( model.isTerminal( s ) ) {
+        uPrime[s] = model.reward( s );
+      }
+      else {
+        uPrime[s] = model.reward( s ) + GAMMA * model.expectedUtility( pi[s], u );
+      }
+    }
+    System.arraycopy( uPrime, 0, u, 0, u.length );
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      double maxUtility = Double.NEGATIVE_INFINITY;
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        double expectedUtility = model.expectedUtility( sa, u );
+        if ( expectedUtility > maxUtility ) {
+          maxUtility = expectedUtility;
+        }
+      }
+      sink += maxUtility;
+    }
+  }
+
+  private static void report( String name, int states, long sweeps, long nanos ) {
+    double seconds = nanos / 1e9;
+    System.out.printf( "%-10s %10d sweeps in %6.2f s  %12.1f sweeps/s  %14.0f states/s%n",
+        name, sweeps, seconds, sweeps / seconds, sweeps * (double) states / seconds );
+  }
+
+  private static void scaling( String layout, String[] threads ) throws Exception {
+    World world = new GridWorld( layout );
+    world.compile();
+    PolicyIteration sequential = new PolicyIteration();
+    sequential.solve( world );
+    double baseline = 0.0;
+    for ( String t : threads ) {
+      int parallelism = Integer.parseInt( t.trim() );
+      ForkJoinPool pool = new ForkJoinPool( parallelism );
+      world.setSeed( 2026875034 ); // same random initial policy every run
+      PolicyIteration solution = new PolicyIteration( pool );
+      long start = System.nanoTime();
+      solution.solve( world );
+      double seconds = ( System.nanoTime() - start ) / 1e9;
+      pool.shutdown();
+      if ( baseline == 0.0 ) {
+        baseline = seconds;
+      }
+      boolean same = true;
+      for ( State s : world.getStates() ) {
+        same &= Objects.equals( solution.pi( s ), sequential.pi( s ) );
+      }
+      System.out.printf( "%2d threads  solve %8.3f s  speedup %5.2f  same policy: %b%n",
+          parallelism, seconds, baseline / seconds, same );
+    }
+  }
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      double seconds = args.length > 1 ? Double.parseDouble( args[1] ) : 2.0;
+      long budget = (long) ( seconds * 1e9 );
+
+      HashMap<State,Double> u = new HashMap<State,Double>();
+      HashMap<State,Action> pi = new HashMap<State,Action>();
+      for ( State s : world.getStates() ) {
+        u.put( s, world.isTerminal( s ) ? world.getTerminals().get( s ) : 0.0 );
+        pi.put( s, world.isTerminal( s ) ? null : world.getRandomAction( s ) );
+      }
+
+      long start = System.nanoTime();
+      CompiledWorld model = world.compile();
+      long compileNanos = System.nanoTime() - start;
+      double[] cu = new double[model.stateCount()];
+      double[] cuPrime = new double[model.stateCount()];
+      int[] cpi = new int[model.stateCount()];
+      for ( int s = 0; s < model.stateCount(); s++ ) {
+        cu[s] = model.isTerminal( s ) ? model.reward( s ) : 0.0;
+        cpi[s] = model.isTerminal( s ) ? -1 : model.slot( s, pi.get( model.state( s ) ) );
+      }
+      System.out.println( model + ", compiled in " + compileNanos / 1000 + " us" );
+
+      // Warm up both paths before timing them
+      start = System.nanoTime();
+      for ( int i = 0; i < 200 && System.nanoTime() - start < budget; i++ ) {
+        hashMapSweep( world, u, pi );
+        compiledSweep( model, cu, cuPrime, cpi );
+      }
+
+      long sweeps = 0;
+      start = System.nanoTime();
+      long elapsed;
+      do {
+        hashMapSweep( world, u, pi );
+        sweeps++;
+      } while ( ( elapsed = System.nanoTime() - start ) < budget );
+      report( "HashMap", model.stateCount(), sweeps, elapsed );
+
+      sweeps = 0;
+      start = System.nanoTime();
+      do {
+        compiledSweep( model, cu, cuPrime, cpi );
+        sweeps++;
+      } while ( ( elapsed = System.nanoTime() - start ) < budget );
+      report( "Compiled", model.stateCount(), sweeps, elapsed );
+
+      if ( args.length > 2 ) {
+        scaling( args[0], args[2].split( "," ) );
+      }
+
+      if ( sink == 42.0 ) {
+        System.out.println();
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // SweepBenchmark class
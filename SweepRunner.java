@@ -0,0 +1,368 @@
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs a hyperparameter sweep of QLearner and PolicyIteration
+ * configurations in parallel over one layout.
+ *
+ * The layout is loaded and compiled once into a CompiledWorld, and each
+ * living reward gets a copy of it that differs only in its rewards and
+ * an AliasTable over it, all immutable.  Every configuration runs against
+ * a SharedWorld: a thin World over those shared tables that owns nothing
+ * but its generators, seeded from the configuration.  A configuration
+ * therefore builds no states or transition lists, and the same
+ * configuration always learns the same policy however the sweep is
+ * scheduled.
+ *
+ * Configurations run on a fixed number of threads with a bounded queue;
+ * once the queue is full the submitting thread runs the next one itself,
+ * and finished runs are dropped as new ones are submitted, so only the
+ * runs in flight are held while the sweep goes on.  The list of
+ * configurations itself is built up front, a few dozen bytes each.  Each
+ * result is appended to the CSV as soon as its configuration finishes:
+ * the episodes and steps to convergence, the wall time, and the fraction
+ * of states whose action is optimal, judged by the utilities of a
+ * PolicyIteration with exact evaluation, solved once per gamma and
+ * living reward.  PolicyIteration configurations evaluate exactly too,
+ * as a baseline for the learners' wall time.
+ */
+
+public class SweepRunner {
+
+  public static final String CSV_HEADER = "solver,epsilon,alpha,gamma,living_reward,seed,"
+      + "episodes,steps,iterations,millis,optimal_fraction";
+
+  private final CompiledWorld model;   // of the layout, rewards under the world's living reward
+  private final int parallelism;
+  private long maxEpisodes = 1000000;   // stops a QLearner that never converges
+  private final ConcurrentHashMap<Double,Shared> shared = new ConcurrentHashMap<Double,Shared>();
+  private final ConcurrentHashMap<String,double[]> optima = new ConcurrentHashMap<String,double[]>();
+
+  public SweepRunner( GridWorld world, int parallelism ) {
+    if ( parallelism < 1 ) {
+      throw new IllegalArgumentException( "Parallelism must be at least 1: " + parallelism );
+    }
+    this.model = world.compile();
+    this.parallelism = parallelism;
+  }
+
+  public void setMaxEpisodes( long maxEpisodes ) {
+    this.maxEpisodes = maxEpisodes;
+  }
+
+  // One point of the sweep
+  public static final class Config {
+
+    public final boolean qlearner;  // QLearner, or PolicyIteration if false
+    public final double epsilon;
+    public final double alpha;
+    public final double gamma;
+    public final double livingReward;
+    public final long seed;
+
+    public Config( boolean qlearner, double epsilon, double alpha, double gamma, double livingReward, long seed ) {
+      this.qlearner = qlearner;
+      this.epsilon = epsilon;
+      this.alpha = alpha;
+      this.gamma = gamma;
+      this.livingReward = livingReward;
+      this.seed = seed;
+    }
+
+    public String toString() {
+      return ( qlearner ? "QLearner" : "PolicyIteration" ) + "," + epsilon + "," + alpha + ","
+          + gamma + "," + livingReward + "," + seed;
+    }
+
+  } // Config class
+
+  // Every QLearner combination of the given values, each with its own seed
+  public static List<Config> grid( double[] epsilons, double[] alphas, double[] gammas,
+      double[] livingRewards, long seed ) {
+    SplittableRandom seeds = new SplittableRandom( seed );
+    ArrayList<Config> configs = new ArrayList<Config>();
+    for ( double epsilon : epsilons ) {
+      for ( double alpha : alphas ) {
+        for ( double gamma : gammas ) {
+          for ( double livingReward : livingRewards ) {
+            configs.add( new Config( true, epsilon, alpha, gamma, livingReward, seeds.nextLong() ) );
+          }
+        }
+      }
+    }
+    return configs;
+  }
+
+  // count QLearner configurations drawn uniformly from the given ranges,
+  // each range a { low, high } pair
+  public static List<Config> random( int count, double[] epsilon, double[] alpha, double[] gamma,
+      double[] livingReward, long seed ) {
+    SplittableRandom random = new SplittableRandom( seed );
+    ArrayList<Config> configs = new ArrayList<Config>();
+    for ( int i = 0; i < count; i++ ) {
+      configs.add( new Config( true, random.nextDouble( epsilon[0], epsilon[1] ),
+          random.nextDouble( alpha[0], alpha[1] ), random.nextDouble( gamma[0], gamma[1] ),
+          random.nextDouble( livingReward[0], livingReward[1] ), random.nextLong() ) );
+    }
+    return configs;
+  }
+
+  // Runs every configuration, streaming a CSV line to out as each one
+  // finishes, and returns once all have
+  public void run( List<Config> configs, PrintWriter out ) throws Exception {
+    out.println( CSV_HEADER );
+    out.flush();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor( parallelism, parallelism, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>( parallelism * 2 ), new ThreadPoolExecutor.CallerRunsPolicy() );
+    ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+    try {
+      for ( Config config : configs ) {
+        pending.add( executor.submit( () -> {
+          String line = config + "," + run( config );
+          synchronized ( out ) {
+            out.println( line );
+            out.flush();
+          }
+          return null;
+        } ) );
+        // Drop the runs that have finished, surfacing any failure
+        for ( Iterator<Future<?>> i = pending.iterator(); i.hasNext(); ) {
+          Future<?> result = i.next();
+          if ( result.isDone() ) {
+            result.get();
+            i.remove();
+          }
+        }
+      }
+      for ( Future<?> result : pending ) {
+        result.get();
+      }
+    } // try
+    finally {
+      executor.shutdownNow();
+    } // finally
+  }
+
+  // Runs one configuration and returns the result columns of its CSV line
+  private String run( Config config ) throws Exception {
+    SharedWorld world = new SharedWorld( shared( config.livingReward ), config.livingReward, config.seed );
+    double[] optimum = optimum( config.gamma, config.livingReward );
+    long start = System.nanoTime();
+    long episodes = 0;
+    long steps = 0;
+    int iterations = 0;
+    Function<State,Action> pi;
+    if ( config.qlearner ) {
+      QLearner learner = new QLearner( config.epsilon );
+      learner.setAlpha( config.alpha );
+      learner.setGamma( config.gamma );
+      learner.setStopCondition( m -> m.getEpisodes() >= maxEpisodes );
+      learner.learn( world );
+      episodes = learner.getEpisodes();
+      steps = learner.getIterations();
+      pi = learner::pi;
+    }
+    else {
+      PolicyIteration solution = new PolicyIteration();
+      solution.setGamma( config.gamma );
+      solution.setExactEvaluation();
+      solution.solve( world );
+      iterations = solution.getIterations();
+      pi = solution::pi;
+    }
+    long millis = ( System.nanoTime() - start ) / 1000000;
+    return episodes + "," + steps + "," + iterations + "," + millis + ","
+        + String.format( "%.4f", optimalFraction( world.compile(), pi, optimum ) );
+  }
+
+  // The fraction of acting states whose action's expected utility under
+  // the optimum is within 1E-6 of the best action's
+  private static double optimalFraction( CompiledWorld model, Function<State,Action> pi,
+      double[] optimum ) {
+    int acting = 0;
+    int optimal = 0;
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      if ( model.actionBegin( s ) == model.actionEnd( s ) ) {
+        continue;
+      }
+      acting++;
+      double best = Double.NEGATIVE_INFINITY;
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        best = Math.max( best, model.expectedUtility( sa, optimum ) );
+      }
+      Action a = pi.apply( model.state( s ) );
+      int sa = a == null ? -1 : model.slot( s, a );
+      if ( sa >= 0 && model.expectedUtility( sa, optimum ) >= best - 1E-6 ) {
+        optimal++;
+      }
+    }
+    return acting == 0 ? 1.0 : optimal / (double) acting;
+  }
+
+  // The compiled tables for a living reward, built on first use
+  private Shared shared( double livingReward ) {
+    return shared.computeIfAbsent( livingReward, r -> new Shared( model.withLivingReward( r ) ) );
+  }
+
+  // The utilities of the optimal policy for gamma and livingReward, by state id
+  private double[] optimum( double gamma, double livingReward ) throws Exception {
+    String key = gamma + "," + livingReward;
+    double[] utility = optima.get( key );
+    if ( utility == null ) {
+      PolicyIteration reference = new PolicyIteration();
+      reference.setGamma( gamma );
+      reference.setExactEvaluation();
+      SharedWorld world = new SharedWorld( shared( livingReward ), livingReward, 0 );
+      reference.solve( world );
+      utility = reference.checkpoint( world ).values();
+      double[] raced = optima.putIfAbsent( key, utility );
+      if ( raced != null ) {
+        utility = raced;
+      }
+    }
+    return utility;
+  }
+
+  // The tables every SharedWorld of one living reward reads
+  private static final class Shared {
+
+    final CompiledWorld model;
+    final AliasTable table;
+    final ArrayList<State> states;
+    final HashMap<State,Double> terminals;
+    final Percept[] percepts;       // act's result by state id
+
+    Shared( CompiledWorld model ) {
+      this.model = model;
+      table = new AliasTable( model );
+      int n = model.stateCount();
+      states = new ArrayList<State>( n );
+      terminals = new HashMap<State,Double>();
+      percepts = new Percept[n];
+      for ( int s = 0; s < n; s++ ) {
+        states.add( model.state( s ) );
+        if ( model.isTerminal( s ) ) {
+          terminals.put( model.state( s ), model.reward( s ) );
+        }
+        percepts[s] = new Percept( model.state( s ), model.reward( s ) );
+      }
+    }
+
+  } // Shared class
+
+  /*
+  A World over shared compiled tables.  Its states and terminals are the
+  shared ones, read-only; compile() returns the shared model; act draws
+  from the shared alias table with this world's own generator.  Rewards,
+  including act's, are the compiled model's, so they follow the living
+  reward.
+  */
+  private static final class SharedWorld extends World {
+
+    private final Shared shared;
+
+    SharedWorld( Shared shared, double livingReward, long seed ) {
+      this.shared = shared;
+      states = shared.states;
+      terminals = shared.terminals;
+      setLivingReward( livingReward );
+      setSeed( seed );
+    }
+
+    @Override
+    public CompiledWorld compile() {
+      return shared.model;
+    }
+
+    @Override
+    public List<Action> A( State s ) {
+      CompiledWorld model = shared.model;
+      int id = model.id( s );
+      ArrayList<Action> actions = new ArrayList<Action>();
+      if ( id >= 0 ) {
+        for ( int sa = model.actionBegin( id ); sa < model.actionEnd( id ); sa++ ) {
+          actions.add( model.action( sa ) );
+        }
+      }
+      return actions;
+    }
+
+    @Override
+    public List<Transition> P( State s, Action a ) {
+      CompiledWorld model = shared.model;
+      int id = model.id( s );
+      int sa = id < 0 || a == null ? -1 : model.slot( id, a );
+      ArrayList<Transition> transitions = new ArrayList<Transition>();
+      if ( sa >= 0 ) {
+        for ( int t = model.transitionBegin( sa ); t < model.transitionEnd( sa ); t++ ) {
+          transitions.add( new Transition( model.state( model.successor( t ) ), model.probability( t ) ) );
+        }
+      }
+      return transitions;
+    }
+
+    @Override
+    public Percept act( State s, Action a ) {
+      CompiledWorld model = shared.model;
+      int id = model.id( s );
+      int sa = id < 0 ? -1 : model.slot( id, a );
+      if ( sa < 0 ) {
+        throw new IllegalArgumentException( a + " is not available in " + s );
+      }
+      return shared.percepts[shared.table.sample( sa, nextTransitionDouble() )];
+    }
+
+  } // SharedWorld class
+
+  /**
+   * java SweepRunner mediumGrid.lay [sweep.csv] [threads] [random count]
+   *
+   * Sweeps a grid of epsilon, alpha, gamma and living reward, or draws the
+   * given number of random configurations, plus one PolicyIteration per
+   * gamma and living reward, and streams the results to the CSV file.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      GridWorld world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      String filename = args.length > 1 ? args[1] : "sweep.csv";
+      int threads = args.length > 2 ? Integer.parseInt( args[2] )
+          : Runtime.getRuntime().availableProcessors();
+      double[] gammas = { 0.9, 0.99 };
+      double[] livingRewards = { -0.04, -0.1 };
+      List<Config> configs = args.length > 3
+          ? random( Integer.parseInt( args[3] ), new double[] { 0.05, 0.5 }, new double[] { 0.1, 0.9 },
+              new double[] { 0.8, 0.99 }, new double[] { -0.2, -0.01 }, 2026875034 )
+          : grid( new double[] { 0.1, 0.2, 0.4 }, new double[] { 0.3, 0.7 }, gammas, livingRewards, 2026875034 );
+      for ( double gamma : gammas ) {
+        for ( double livingReward : livingRewards ) {
+          configs.add( new Config( false, 0.0, 0.0, gamma, livingReward, 2026875034 ) );
+        }
+      }
+
+      SweepRunner runner = new SweepRunner( world, threads );
+      long start = System.nanoTime();
+      try ( PrintWriter out = new PrintWriter( new FileWriter( filename ) ) ) {
+        runner.run( configs, out );
+      } // try
+      System.out.printf( "%d configurations on %d threads in %.2f s, results in %s%n",
+          configs.size(), threads, ( System.nanoTime() - start ) / 1e9, filename );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // SweepRunner class
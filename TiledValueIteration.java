@@ -0,0 +1,585 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Value iteration split across workers, one per rectangular tile of a grid
+ * layout.  A worker holds only its tile plus a one-cell halo around it,
+ * the cells of the neighbouring tiles that its own cells can move into,
+ * and it can run in its own JVM: the coordinator hands each worker its
+ * slice of the layout over a loopback socket, so no worker ever sees the
+ * whole grid.
+ *
+ * Each round the coordinator sends every worker its halo utilities, every
+ * worker runs a few Gauss-Seidel sweeps over its tile, alternating the
+ * sweep direction, and replies with its largest change and the utilities
+ * along its four edges.  Those edges become the neighbours' halos for the
+ * next round.  Because each round starts from the halos of the last, the
+ * largest change of a round bounds the Bellman residual of the whole grid,
+ * and solving stops once it is below theta.  The workers then send back
+ * their utilities and greedy actions, which are stitched into one policy.
+ *
+ * The transition model is GridWorld's: the intended move with probability
+ * 0.8 and a slip to either side with 0.1 each, staying put when the move
+ * runs into a wall.
+ */
+
+public class TiledValueIteration {
+
+  private static final byte ROUND = 1;
+  private static final byte FINISH = 2;
+  private static final int ACCEPT_POLL_MILLIS = 200;
+  private static final int[] DX = { 1, -1, 0, 0 };  // east, west, north, south, in GridWorld.A's order
+  private static final int[] DY = { 0, 0, 1, -1 };
+
+  private final int tilesX;
+  private final int tilesY;
+  private double gamma = 0.9;
+  private double livingReward = -0.04;
+  private double theta = 1E-9;      // residual threshold for convergence
+  private int localSweeps = 8;      // sweeps per worker per round
+  private boolean processes = true; // a JVM per worker, or a thread per worker
+  private long connectMillis = 60000; // how long workers have to connect
+
+  private int width;
+  private int height;
+  private double[] utility;         // by y * width + x
+  private byte[] policy;            // direction by y * width + x, -1 if none
+  private int rounds;
+  private long haloBytes;           // halo and edge utilities sent both ways
+  private long nanos;
+
+  public TiledValueIteration( int tilesX, int tilesY ) {
+    if ( tilesX < 1 || tilesY < 1 ) {
+      throw new IllegalArgumentException( "At least one tile each way: " + tilesX + "x" + tilesY );
+    }
+    this.tilesX = tilesX;
+    this.tilesY = tilesY;
+  }
+
+  public void setGamma( double gamma ) {
+    if ( gamma <= 0.0 || gamma >= 1.0 ) {
+      throw new IllegalArgumentException( "gamma must be in (0, 1): " + gamma );
+    }
+    this.gamma = gamma;
+  }
+
+  public void setLivingReward( double livingReward ) {
+    this.livingReward = livingReward;
+  }
+
+  public void setTheta( double theta ) {
+    this.theta = theta;
+  }
+
+  public void setLocalSweeps( int sweeps ) {
+    if ( sweeps < 1 ) {
+      throw new IllegalArgumentException( "At least one sweep per round: " + sweeps );
+    }
+    localSweeps = sweeps;
+  }
+
+  // Runs each worker in a JVM of its own, or as a thread of this one
+  public void setProcesses( boolean processes ) {
+    this.processes = processes;
+  }
+
+  // How long solve waits for all workers to connect before giving up
+  public void setConnectTimeout( long millis ) {
+    connectMillis = millis;
+  }
+
+  public Action pi( State s ) {
+    GridState cell = (GridState) s;
+    if ( policy == null || cell.getX() < 0 || cell.getX() >= width || cell.getY() < 0 || cell.getY() >= height ) {
+      return null;
+    }
+    int d = policy[cell.getY() * width + cell.getX()];
+    return d < 0 ? null : GridAction.of( d );
+  }
+
+  public double utility( State s ) {
+    GridState cell = (GridState) s;
+    if ( utility == null || cell.getX() < 0 || cell.getX() >= width || cell.getY() < 0 || cell.getY() >= height ) {
+      return 0.0;
+    }
+    return utility[cell.getY() * width + cell.getX()];
+  }
+
+  public int getRounds() {
+    return rounds;
+  }
+
+  public long getHaloBytes() {
+    return haloBytes;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public void solve( GridWorld world ) throws IOException {
+    setLivingReward( world.getLivingReward() );
+    solve( world.getLayout() );
+  }
+
+  public void solve( PackedLayout layout ) throws IOException {
+    long start = System.nanoTime();
+    width = layout.width();
+    height = layout.height();
+    int n = tilesX * tilesY;
+    if ( tilesX > width || tilesY > height ) {
+      throw new IllegalArgumentException( tilesX + "x" + tilesY + " tiles do not fit a "
+          + width + "x" + height + " layout" );
+    }
+    Tile[] tiles = new Tile[n];
+    ArrayList<Process> workers = new ArrayList<Process>();
+    try ( ServerSocket server = new ServerSocket( 0, n, InetAddress.getLoopbackAddress() ) ) {
+      server.setSoTimeout( ACCEPT_POLL_MILLIS );
+      long deadline = System.nanoTime() + connectMillis * 1000000L;
+      for ( int i = 0; i < n; i++ ) {
+        launch( server.getLocalPort(), workers );
+      }
+      for ( int i = 0; i < n; i++ ) {
+        int tx = i % tilesX;
+        int ty = i / tilesX;
+        tiles[i] = new Tile( accept( server, workers, deadline ), tx * width / tilesX, ty * height / tilesY,
+            ( tx + 1 ) * width / tilesX - tx * width / tilesX, ( ty + 1 ) * height / tilesY - ty * height / tilesY );
+        tiles[i].assign( layout );
+      }
+      for ( Tile tile : tiles ) {
+        tile.readEdges();
+      }
+
+      rounds = 0;
+      haloBytes = 0;
+      double residual;
+      do {
+        for ( int i = 0; i < n; i++ ) {
+          int tx = i % tilesX;
+          int ty = i / tilesX;
+          tiles[i].sendHalos( ty > 0 ? tiles[i - tilesX].north : null, ty < tilesY - 1 ? tiles[i + tilesX].south : null,
+              tx > 0 ? tiles[i - 1].east : null, tx < tilesX - 1 ? tiles[i + 1].west : null );
+        }
+        residual = 0.0;
+        for ( Tile tile : tiles ) {
+          residual = Math.max( residual, tile.readEdges() );
+          haloBytes += 16L * ( tile.w + tile.h ) * 2;
+        }
+        rounds++;
+      } while ( residual >= theta );
+
+      utility = new double[width * height];
+      policy = new byte[width * height];
+      Arrays.fill( policy, (byte) -1 );
+      for ( Tile tile : tiles ) {
+        tile.finish( utility, policy, width );
+      }
+    } // try
+    finally {
+      for ( Tile tile : tiles ) {
+        if ( tile != null ) {
+          tile.socket.close();
+        }
+      }
+      for ( Process worker : workers ) {
+        worker.destroy();
+      }
+    } // finally
+    nanos = System.nanoTime() - start;
+  }
+
+  /*
+  The next worker connection.  Between short waits it checks that every
+  worker process is still running, so a worker that dies before it
+  connects, say on a class path mismatch or an OutOfMemoryError, fails
+  the solve instead of leaving it blocked in accept forever.
+  */
+  private static Socket accept( ServerSocket server, ArrayList<Process> workers, long deadline ) throws IOException {
+    while ( true ) {
+      try {
+        return server.accept();
+      } // try
+      catch ( SocketTimeoutException e ) {
+        for ( Process worker : workers ) {
+          if ( !worker.isAlive() ) {
+            throw new IOException( "Worker " + worker.pid() + " exited with code " + worker.exitValue()
+                + " before connecting" );
+          }
+        }
+        if ( System.nanoTime() > deadline ) {
+          throw new IOException( "Workers did not connect in time" );
+        }
+      } // catch
+    }
+  }
+
+  // Starts one worker that will connect back to port
+  private void launch( int port, ArrayList<Process> workers ) throws IOException {
+    if ( processes ) {
+      String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+      ProcessBuilder builder = new ProcessBuilder( java, "-cp", System.getProperty( "java.class.path" ),
+          "TiledValueIteration", "--worker", Integer.toString( port ) );
+      builder.redirectOutput( ProcessBuilder.Redirect.INHERIT );
+      builder.redirectError( ProcessBuilder.Redirect.INHERIT );
+      workers.add( builder.start() );
+    }
+    else {
+      Thread thread = new Thread( () -> {
+        try {
+          work( port );
+        } // try
+        catch ( IOException e ) {
+          // The coordinator sees the closed socket
+        } // catch
+      }, "tile-worker" );
+      thread.setDaemon( true );
+      thread.start();
+    }
+  }
+
+  // The coordinator's end of one worker's connection
+  private final class Tile {
+
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+    final int x0, y0, w, h;       // the tile's cells, without the halo
+    double[] south, north, west, east;
+
+    Tile( Socket socket, int x0, int y0, int w, int h ) throws IOException {
+      this.socket = socket;
+      in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+      out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+      this.x0 = x0;
+      this.y0 = y0;
+      this.w = w;
+      this.h = h;
+      south = new double[w];
+      north = new double[w];
+      west = new double[h];
+      east = new double[h];
+    }
+
+    // Sends the parameters and the layout of the tile and its halo
+    void assign( PackedLayout layout ) throws IOException {
+      out.writeInt( w );
+      out.writeInt( h );
+      out.writeDouble( gamma );
+      out.writeDouble( livingReward );
+      out.writeInt( localSweeps );
+      int sw = w + 2;
+      long[] walls = new long[( sw * ( h + 2 ) + 63 ) >>> 6];
+      int terminals = 0;
+      for ( int j = 0; j < h + 2; j++ ) {
+        for ( int i = 0; i < sw; i++ ) {
+          int cell = j * sw + i;
+          if ( layout.isWall( x0 + i - 1, y0 + j - 1 ) ) {
+            walls[cell >>> 6] |= 1L << cell;
+          }
+          else if ( layout.isTerminal( x0 + i - 1, y0 + j - 1 ) ) {
+            terminals++;
+          }
+        }
+      }
+      for ( long word : walls ) {
+        out.writeLong( word );
+      }
+      out.writeInt( terminals );
+      for ( int j = 0; j < h + 2; j++ ) {
+        for ( int i = 0; i < sw; i++ ) {
+          if ( layout.isTerminal( x0 + i - 1, y0 + j - 1 ) ) {
+            out.writeInt( j * sw + i );
+            out.writeDouble( layout.terminalReward( x0 + i - 1, y0 + j - 1 ) );
+          }
+        }
+      }
+      out.flush();
+    }
+
+    // Sends a round's halos; a null side borders the edge of the grid
+    void sendHalos( double[] southHalo, double[] northHalo, double[] westHalo, double[] eastHalo ) throws IOException {
+      out.writeByte( ROUND );
+      writeSide( southHalo, w );
+      writeSide( northHalo, w );
+      writeSide( westHalo, h );
+      writeSide( eastHalo, h );
+      out.flush();
+    }
+
+    private void writeSide( double[] side, int length ) throws IOException {
+      for ( int k = 0; k < length; k++ ) {
+        out.writeDouble( side == null ? 0.0 : side[k] );
+      }
+    }
+
+    // Reads the worker's reply to a round: its largest change, then its edges
+    double readEdges() throws IOException {
+      double residual = in.readDouble();
+      readSide( south );
+      readSide( north );
+      readSide( west );
+      readSide( east );
+      return residual;
+    }
+
+    private void readSide( double[] side ) throws IOException {
+      for ( int k = 0; k < side.length; k++ ) {
+        side[k] = in.readDouble();
+      }
+    }
+
+    // Collects the tile's utilities and actions into the grid-wide arrays
+    void finish( double[] utility, byte[] policy, int width ) throws IOException {
+      out.writeByte( FINISH );
+      out.flush();
+      for ( int j = 0; j < h; j++ ) {
+        for ( int i = 0; i < w; i++ ) {
+          utility[( y0 + j ) * width + x0 + i] = in.readDouble();
+        }
+      }
+      for ( int j = 0; j < h; j++ ) {
+        in.readFully( policy, ( y0 + j ) * width + x0, w );
+      }
+    }
+
+  } // Tile class
+
+  /*
+  The worker's side: connects to the coordinator, receives its slice of
+  the layout, then answers rounds until told to finish.  Cells are
+  indexed j * (w + 2) + i over the tile and its halo, so the tile's own
+  cells are 1 <= i <= w and 1 <= j <= h.
+  */
+  private static void work( int port ) throws IOException {
+    try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), port ) ) {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+      int w = in.readInt();
+      int h = in.readInt();
+      double gamma = in.readDouble();
+      double livingReward = in.readDouble();
+      int sweeps = in.readInt();
+      int sw = w + 2;
+      int cells = sw * ( h + 2 );
+      long[] walls = new long[( cells + 63 ) >>> 6];
+      for ( int k = 0; k < walls.length; k++ ) {
+        walls[k] = in.readLong();
+      }
+      double[] u = new double[cells];
+      boolean[] terminal = new boolean[cells];
+      for ( int k = in.readInt(); k > 0; k-- ) {
+        int cell = in.readInt();
+        terminal[cell] = true;
+        u[cell] = in.readDouble();
+      }
+
+      // Where each direction leads from each cell of the tile, the cell
+      // itself if it is blocked, or -1 if the cell does not act at all
+      int[] target = new int[cells * 4];
+      Arrays.fill( target, -1 );
+      for ( int j = 1; j <= h; j++ ) {
+        for ( int i = 1; i <= w; i++ ) {
+          int cell = j * sw + i;
+          if ( isWall( walls, cell ) || terminal[cell] ) {
+            continue;
+          }
+          for ( int d = 0; d < 4; d++ ) {
+            int next = cell + DY[d] * sw + DX[d];
+            target[cell * 4 + d] = isWall( walls, next ) ? cell : next;
+          }
+        }
+      }
+
+      writeEdges( out, 0.0, u, w, h );
+      boolean forward = true;
+      while ( in.readByte() == ROUND ) {
+        for ( int i = 1; i <= w; i++ ) {
+          u[i] = in.readDouble();
+        }
+        for ( int i = 1; i <= w; i++ ) {
+          u[( h + 1 ) * sw + i] = in.readDouble();
+        }
+        for ( int j = 1; j <= h; j++ ) {
+          u[j * sw] = in.readDouble();
+        }
+        for ( int j = 1; j <= h; j++ ) {
+          u[j * sw + w + 1] = in.readDouble();
+        }
+        double residual = 0.0;
+        for ( int sweep = 0; sweep < sweeps; sweep++ ) {
+          for ( int k = 0; k < w * h; k++ ) {
+            int m = forward ? k : w * h - 1 - k;
+            int cell = ( m / w + 1 ) * sw + m % w + 1;
+            int best = bestDirection( target, cell, u );
+            if ( best < 0 ) {
+              continue;
+            }
+            double backup = livingReward + gamma * expectedUtility( target, cell, best, u );
+            residual = Math.max( residual, Math.abs( backup - u[cell] ) );
+            u[cell] = backup;
+          }
+          forward = !forward;
+        }
+        writeEdges( out, residual, u, w, h );
+      }
+
+      for ( int j = 1; j <= h; j++ ) {
+        for ( int i = 1; i <= w; i++ ) {
+          out.writeDouble( u[j * sw + i] );
+        }
+      }
+      for ( int j = 1; j <= h; j++ ) {
+        for ( int i = 1; i <= w; i++ ) {
+          out.writeByte( bestDirection( target, j * sw + i, u ) );
+        }
+      }
+      out.flush();
+    } // try
+  }
+
+  private static boolean isWall( long[] walls, int cell ) {
+    return ( walls[cell >>> 6] & ( 1L << cell ) ) != 0;
+  }
+
+  // The first direction with the largest expected utility among those that
+  // do not run into a wall, as GridWorld.A lists them, or -1 if none
+  private static int bestDirection( int[] target, int cell, double[] u ) {
+    int best = -1;
+    double max = Double.NEGATIVE_INFINITY;
+    for ( int d = 0; d < 4; d++ ) {
+      if ( target[cell * 4 + d] < 0 || target[cell * 4 + d] == cell ) {
+        continue;
+      }
+      double eu = expectedUtility( target, cell, d, u );
+      if ( eu > max ) {
+        max = eu;
+        best = d;
+      }
+    }
+    return best;
+  }
+
+  // The intended move with probability 0.8 and a slip to either side with 0.1
+  private static double expectedUtility( int[] target, int cell, int d, double[] u ) {
+    int side = d < 2 ? 2 : 0; // north and south of east and west, east and west of north and south
+    return 0.8 * u[target[cell * 4 + d]] + 0.1 * u[target[cell * 4 + side]]
+        + 0.1 * u[target[cell * 4 + side + 1]];
+  }
+
+  private static void writeEdges( DataOutputStream out, double residual, double[] u, int w, int h ) throws IOException {
+    int sw = w + 2;
+    out.writeDouble( residual );
+    for ( int i = 1; i <= w; i++ ) {
+      out.writeDouble( u[sw + i] );
+    }
+    for ( int i = 1; i <= w; i++ ) {
+      out.writeDouble( u[h * sw + i] );
+    }
+    for ( int j = 1; j <= h; j++ ) {
+      out.writeDouble( u[j * sw + 1] );
+    }
+    for ( int j = 1; j <= h; j++ ) {
+      out.writeDouble( u[j * sw + w] );
+    }
+    out.flush();
+  }
+
+  /**
+   * java TiledValueIteration [size | layout.lay] [tilesX tilesY] [threads]
+   *
+   * Solves a generated maze of the given size, 201 by default, or a
+   * layout file with a JVM per tile, or a thread per tile if the last
+   * argument is "threads", then checks the stitched policy against
+   * PolicyIteration with exact evaluation, when the world is small enough
+   * for it to finish: the states where the two differ, and among those
+   * the states whose action is worse by more than 1E-6 under
+   * ValueIteration's utilities.  Gamma is 0.999 so that the terminals
+   * matter across the maze.
+   */
+
+  public static void main( String args[] ) {
+    if ( args.length == 2 && args[0].equals( "--worker" ) ) {
+      try {
+        work( Integer.parseInt( args[1] ) );
+      } // try
+      catch ( IOException e ) {
+        System.err.println( "Worker lost its coordinator: " + e.getMessage() );
+        System.exit( 1 );
+      } // catch
+      return;
+    }
+    try {
+      String source = args.length > 0 ? args[0] : "201";
+      int tilesX = args.length > 2 ? Integer.parseInt( args[1] ) : 2;
+      int tilesY = args.length > 2 ? Integer.parseInt( args[2] ) : 2;
+      double gamma = 0.999;
+      GridWorld world;
+      if ( source.endsWith( ".lay" ) ) {
+        world = new GridWorld( source );
+      }
+      else {
+        int n = Integer.parseInt( source );
+        world = new MazeGenerator( n, n, 2026875034 ).world();
+      }
+      CompiledWorld model = world.compile();
+      System.out.println( model );
+
+      TiledValueIteration solution = new TiledValueIteration( tilesX, tilesY );
+      solution.setGamma( gamma );
+      solution.setProcesses( !( args.length > 3 && args[3].equals( "threads" ) ) );
+      solution.solve( world );
+      System.out.printf( "TiledValueIteration: %dx%d tiles, %d rounds, %d halo bytes, %.2f s%n",
+          tilesX, tilesY, solution.getRounds(), solution.getHaloBytes(), solution.getNanos() / 1e9 );
+
+      if ( model.stateCount() > 20000 ) {
+        System.out.println( "PolicyIteration: skipped, " + model.stateCount() + " states is too many for exact evaluation" );
+        return;
+      }
+      PolicyIteration reference = new PolicyIteration();
+      reference.setGamma( gamma );
+      reference.setExactEvaluation();
+      long start = System.nanoTime();
+      reference.solve( world );
+      System.out.printf( "PolicyIteration: %d iterations, %.2f s%n", reference.getIterations(),
+          ( System.nanoTime() - start ) / 1e9 );
+
+      ValueIteration values = new ValueIteration();
+      values.setGamma( gamma );
+      values.solve( world );
+      double[] u = new double[model.stateCount()];
+      for ( int s = 0; s < u.length; s++ ) {
+        u[s] = values.utility( model.state( s ) );
+      }
+      int differences = 0;
+      int worse = 0;
+      for ( int s = 0; s < u.length; s++ ) {
+        Action a = solution.pi( model.state( s ) );
+        Action b = reference.pi( model.state( s ) );
+        if ( a == null ? b != null : !a.equals( b ) ) {
+          differences++;
+          if ( a == null || b == null
+              || model.expectedUtility( model.slot( s, a ), u ) < model.expectedUtility( model.slot( s, b ), u ) - 1E-6 ) {
+            worse++;
+          }
+        }
+      }
+      System.out.println( "States whose action differs from PolicyIteration: " + differences
+          + ", worse: " + worse );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // TiledValueIteration class
@@ -0,0 +1,35 @@
+import java.io.PrintStream;
+
+/**
+ * Callbacks from QLearner and PolicyIteration while they learn.  A
+ * listener is registered with a sampling interval, and only every n-th
+ * episode or iteration reaches it; finished() is always called once at
+ * the end.  The metrics object is reused between calls.
+ */
+
+public interface TrainingListener {
+
+  default void episodeEnded( TrainingMetrics metrics ) { }
+
+  default void iterationEnded( TrainingMetrics metrics ) { }
+
+  default void finished( TrainingMetrics metrics ) { }
+
+  // Prints one line per sampled callback and a summary at the end
+  static TrainingListener printer( PrintStream out ) {
+    return new TrainingListener() {
+      public void episodeEnded( TrainingMetrics metrics ) {
+        out.println( metrics );
+      }
+
+      public void iterationEnded( TrainingMetrics metrics ) {
+        out.println( metrics );
+      }
+
+      public void finished( TrainingMetrics metrics ) {
+        out.println( "finished: " + metrics );
+      }
+    };
+  }
+
+} // TrainingListener interface
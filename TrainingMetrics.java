@@ -0,0 +1,84 @@
+/**
+ * What a learner or solver reports to its TrainingListeners and stop
+ * condition.  One instance per TrainingMonitor is updated in place and
+ * passed to every callback, so listeners that keep values must copy them.
+ *
+ * QLearner fills in the episode fields and PolicyIteration the iteration
+ * fields; the others stay zero.
+ */
+
+public class TrainingMetrics {
+
+  long episodes;        // episodes finished so far
+  long steps;           // actions taken so far, over all episodes
+  long episodeLength;   // steps in the last episode
+  double maxDelta;      // largest Q change in the last episode, or utility change in the last evaluation
+  int iterations;       // policy iterations finished so far
+  int policyChanges;    // states whose action changed in the last iteration
+  long flops;           // PolicyIteration's floating-point operations so far
+  long elapsedNanos;    // since learning started
+  boolean stoppedEarly; // the stop condition ended learning
+
+  void reset() {
+    episodes = 0;
+    steps = 0;
+    episodeLength = 0;
+    maxDelta = 0.0;
+    iterations = 0;
+    policyChanges = 0;
+    flops = 0;
+    elapsedNanos = 0;
+    stoppedEarly = false;
+  }
+
+  public long getEpisodes() {
+    return episodes;
+  }
+
+  public long getSteps() {
+    return steps;
+  }
+
+  public long getEpisodeLength() {
+    return episodeLength;
+  }
+
+  public double getMaxDelta() {
+    return maxDelta;
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  public int getPolicyChanges() {
+    return policyChanges;
+  }
+
+  public long getFlops() {
+    return flops;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public boolean isStoppedEarly() {
+    return stoppedEarly;
+  }
+
+  public double stepsPerSecond() {
+    return elapsedNanos == 0 ? 0.0 : steps / ( elapsedNanos / 1e9 );
+  }
+
+  public String toString() {
+    if ( iterations > 0 ) {
+      return String.format( "iteration %d  %d policy changes  max delta %.3g  %d flops  %.3f s%s",
+          iterations, policyChanges, maxDelta, flops, elapsedNanos / 1e9, stoppedEarly ? "  stopped early" : "" );
+    }
+    return String.format( "episode %d  length %d  max delta %.3g  %d steps  %.0f steps/s  %.3f s%s",
+        episodes, episodeLength, maxDelta, steps, stepsPerSecond(), elapsedNanos / 1e9,
+        stoppedEarly ? "  stopped early" : "" );
+  }
+
+} // TrainingMetrics class
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * The listeners and stop condition of one learner or solver, and the
+ * metrics they see.  With nothing registered, each episode or iteration
+ * costs the learner one branch: metrics are only filled in, and the clock
+ * only read, when a listener or stop condition is waiting for them.
+ *
+ * Every episode and policy iteration is also recorded as a JFR event
+ * (EpisodeEvent, PolicyIterationEvent), which costs nothing unless a
+ * recording has the event enabled.
+ */
+
+public class TrainingMonitor {
+
+  private TrainingListener[] listeners = new TrainingListener[0];
+  private int[] every = new int[0];
+  private Predicate<TrainingMetrics> stopCondition;
+  private final TrainingMetrics metrics = new TrainingMetrics();
+  private long start;
+
+  // Calls listener on every n-th episode or iteration
+  public void addListener( TrainingListener listener, int n ) {
+    if ( n < 1 ) {
+      throw new IllegalArgumentException( "The sampling interval must be at least 1: " + n );
+    }
+    listeners = Arrays.copyOf( listeners, listeners.length + 1 );
+    every = Arrays.copyOf( every, every.length + 1 );
+    listeners[listeners.length - 1] = listener;
+    every[every.length - 1] = n;
+  }
+
+  // Learning stops after the first episode or iteration for which the
+  // condition holds, as if it had converged; null removes the condition.
+  // QLearner.learn(OffHeapGrid) also tests it within long episodes.
+  public void setStopCondition( Predicate<TrainingMetrics> stopCondition ) {
+    this.stopCondition = stopCondition;
+  }
+
+  public static Predicate<TrainingMetrics> timeLimit( long millis ) {
+    return metrics -> metrics.getElapsedNanos() >= millis * 1000000L;
+  }
+
+  public static Predicate<TrainingMetrics> stepLimit( long steps ) {
+    return metrics -> metrics.getSteps() >= steps;
+  }
+
+  // The metrics of the current or last run
+  public TrainingMetrics metrics() {
+    return metrics;
+  }
+
+  void started() {
+    metrics.reset();
+    start = System.nanoTime();
+  }
+
+  // Returns true if the stop condition asks learning to stop
+  boolean episodeEnded( long episodes, long steps, long length, double maxDelta ) {
+    if ( listeners.length == 0 && stopCondition == null ) {
+      return false;
+    }
+    metrics.episodes = episodes;
+    metrics.steps = steps;
+    metrics.episodeLength = length;
+    metrics.maxDelta = maxDelta;
+    metrics.elapsedNanos = System.nanoTime() - start;
+    for ( int i = 0; i < listeners.length; i++ ) {
+      if ( episodes % every[i] == 0 ) {
+        listeners[i].episodeEnded( metrics );
+      }
+    }
+    return stop();
+  }
+
+  // Tests the stop condition partway through an episode, for learners
+  // whose episodes can run for millions of steps.  The condition sees the
+  // episodes finished so far, the steps so far and the elapsed time; the
+  // listeners are not called.
+  boolean stepped( long episodes, long steps ) {
+    if ( stopCondition == null ) {
+      return false;
+    }
+    metrics.episodes = episodes;
+    metrics.steps = steps;
+    metrics.elapsedNanos = System.nanoTime() - start;
+    return stop();
+  }
+
+  boolean iterationEnded( int iterations, int policyChanges, double maxDelta, long flops ) {
+    if ( listeners.length == 0 && stopCondition == null ) {
+      return false;
+    }
+    metrics.iterations = iterations;
+    metrics.policyChanges = policyChanges;
+    metrics.maxDelta = maxDelta;
+    metrics.flops = flops;
+    metrics.elapsedNanos = System.nanoTime() - start;
+    for ( int i = 0; i < listeners.length; i++ ) {
+      if ( iterations % every[i] == 0 ) {
+        listeners[i].iterationEnded( metrics );
+      }
+    }
+    return stop();
+  }
+
+  private boolean stop() {
+    if ( stopCondition != null && stopCondition.test( metrics ) ) {
+      metrics.stoppedEarly = true;
+    }
+    return metrics.stoppedEarly;
+  }
+
+  void finished( long episodes, long steps, int iterations, long flops ) {
+    metrics.episodes = episodes;
+    metrics.steps = steps;
+    metrics.iterations = iterations;
+    metrics.flops = flops;
+    metrics.elapsedNanos = System.nanoTime() - start;
+    for ( TrainingListener listener : listeners ) {
+      listener.finished( metrics );
+    }
+  }
+
+  /**
+   * java TrainingMonitor mediumGrid.lay
+   *
+   * Prints sampled progress from QLearner and PolicyIteration, stops a
+   * learner early on a step budget, and compares learning time with and
+   * without a listener.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+
+      QLearner learner = new QLearner( 0.4 );
+      learner.addListener( TrainingListener.printer( System.out ), 50 );
+      learner.learn( world );
+
+      PolicyIteration solution = new PolicyIteration();
+      solution.addListener( TrainingListener.printer( System.out ), 1 );
+      solution.solve( world );
+
+      QLearner limited = new QLearner( 0.4 );
+      limited.setStopCondition( stepLimit( 10000 ) );
+      limited.learn( world );
+      System.out.println( "With a 10000 step budget: " + limited.getMetrics() );
+
+      long[] nanos = new long[2];
+      long[] steps = new long[2];
+      for ( int round = 0; round < 10; round++ ) { // alternate, after the JIT warms up
+        for ( int watched = 0; watched < 2; watched++ ) {
+          world.setSeed( 2026875034 );
+          QLearner timed = new QLearner( 0.4 );
+          if ( watched == 1 ) {
+            timed.addListener( new TrainingListener() { }, 1 );
+            timed.setStopCondition( timeLimit( 60000 ) );
+          }
+          long start = System.nanoTime();
+          timed.learn( world );
+          if ( round >= 5 ) {
+            nanos[watched] += System.nanoTime() - start;
+            steps[watched] += timed.getIterations();
+          }
+        }
+      }
+      System.out.printf( "Without listeners %.1f ns/step, with a listener and stop condition on every episode %.1f ns/step%n",
+          (double) nanos[0] / steps[0], (double) nanos[1] / steps[1] );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // TrainingMonitor class
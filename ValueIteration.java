@@ -0,0 +1,197 @@
+import java.util.HashMap;
+
+/**
+ * Value iteration with in-place Gauss-Seidel sweeps over the compiled
+ * model.  Each backup reads utilities already updated earlier in the same
+ * sweep, so values travel down a corridor within one sweep instead of one
+ * cell per sweep.  An over-relaxation factor omega > 1 (SOR) extrapolates
+ * each backup further; omega = 1 is plain Gauss-Seidel.  Sweeping stops
+ * once the largest change in a sweep, the Bellman residual, is below theta.
+ *
+ * The max in the Bellman backup makes this unlike SOR on a linear system:
+ * a sweep is only guaranteed to be a contraction for omega below
+ * 2 / (1 + gamma), about 1.05 at gamma 0.9.  Larger factors often still
+ * converge, and faster, but can also oscillate or blow up; mediumGrid
+ * diverges at 1.5.  solve() throws IllegalStateException when the
+ * residual stops being finite or the sweep limit runs out, instead of
+ * returning the utilities it had.
+ */
+
+public class ValueIteration {
+
+  private int iterations;
+  private long nanos;               // wall time of the last solve
+  private double gamma = 0.9;
+  private double omega = 1.0;       // successive over-relaxation factor
+  private double theta = 1E-9;      // residual threshold for convergence
+  private double residual;
+  private int maxIterations = 1000000;
+  private HashMap<State,Double> u;  // utility function
+  private HashMap<State,Action> pi; // policy
+  private CompiledWorld model;
+  private double[] utility;         // utility by state id
+  private int[] policy;             // action slot by state id, -1 if none
+
+  public ValueIteration() {
+    u = new HashMap<State,Double>();
+    pi = new HashMap<State,Action>();
+    iterations = 0;
+  }
+
+  public ValueIteration( double omega, double theta ) {
+    this();
+    if ( omega <= 0.0 || omega >= 2.0 ) {
+      throw new IllegalArgumentException( "omega must be in (0, 2): " + omega );
+    }
+    this.omega = omega;
+    this.theta = theta;
+  }
+
+  public void setGamma( double gamma ) {
+    if ( gamma <= 0.0 || gamma >= 1.0 ) {
+      throw new IllegalArgumentException( "gamma must be in (0, 1): " + gamma );
+    }
+    this.gamma = gamma;
+  }
+
+  // Sweeps solve() may run before it gives up on converging
+  public void setMaxIterations( int maxIterations ) {
+    if ( maxIterations < 1 ) {
+      throw new IllegalArgumentException( "At least one sweep is needed: " + maxIterations );
+    }
+    this.maxIterations = maxIterations;
+  }
+
+  public double utility( State s ) {
+    Double v = u.get( s );
+    return v == null ? 0.0 : v;
+  }
+
+  public Action pi( State s ) {
+    if ( pi == null )
+      return null;
+    else
+      return pi.get( s );
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public void solve( World world ) {
+    long start = System.nanoTime();
+    model = world.compile();
+    int n = model.stateCount();
+    utility = new double[n];
+    policy = new int[n];
+    for ( int s = 0; s < n; s++ ) {
+      if ( model.isTerminal( s ) ) {
+        utility[s] = model.reward( s );
+      }
+    }
+
+    int sweeps = 0;
+    do {
+      residual = 0.0;
+      for ( int s = 0; s < n; s++ ) {
+        if ( model.isTerminal( s ) || model.actionBegin( s ) == model.actionEnd( s ) ) {
+          continue;
+        }
+        double maxUtility = Double.NEGATIVE_INFINITY;
+        for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+          double expectedUtility = model.expectedUtility( sa, utility );
+          if ( expectedUtility > maxUtility ) {
+            maxUtility = expectedUtility;
+          }
+        }
+        double backup = model.reward( s ) + gamma * maxUtility;
+        double change = omega * ( backup - utility[s] );
+        utility[s] += change;
+        if ( !( Math.abs( change ) <= residual ) ) {
+          residual = Math.abs( change ); // NaN sticks, so divergence shows
+        }
+      }
+      iterations++;
+      sweeps++;
+      if ( !Double.isFinite( residual ) ) {
+        throw new IllegalStateException( "Diverged after " + sweeps + " sweeps with omega " + omega
+            + "; over-relaxation is only safe below " + 2.0 / ( 1.0 + gamma ) );
+      }
+      if ( residual >= theta && sweeps >= maxIterations ) {
+        throw new IllegalStateException( "No convergence in " + sweeps + " sweeps with omega " + omega
+            + ", residual " + residual );
+      }
+    } while ( residual >= theta );
+
+    derivePolicy();
+    nanos = System.nanoTime() - start;
+  }
+
+  // Extracts the greedy policy and fills the State-keyed maps behind
+  // pi(State) and toString.  Terminal states get a null action.
+  private void derivePolicy() {
+    u.clear();
+    pi.clear();
+    for ( int s = 0; s < model.stateCount(); s++ ) {
+      policy[s] = -1;
+      double maxUtility = Double.NEGATIVE_INFINITY;
+      for ( int sa = model.actionBegin( s ); sa < model.actionEnd( s ); sa++ ) {
+        double expectedUtility = model.expectedUtility( sa, utility );
+        if ( expectedUtility > maxUtility ) {
+          maxUtility = expectedUtility;
+          policy[s] = sa;
+        }
+      }
+      State state = model.state( s );
+      u.put( state, utility[s] );
+      pi.put( state, policy[s] == -1 ? null : model.action( policy[s] ) );
+    }
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append( iterations + " iterations, residual " + residual + ", "
+        + nanos / 1000 + " us\n" );
+    sb.append( "u = " + u );
+    sb.append( "\npi = " + pi );
+    return sb.toString();
+  }
+
+  /**
+   * java ValueIteration mediumGrid.lay [omega] [theta]
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "rnGrid.lay" );
+      double omega = args.length > 1 ? Double.parseDouble( args[1] ) : 1.0;
+      double theta = args.length > 2 ? Double.parseDouble( args[2] ) : 1E-9;
+      ValueIteration solution = new ValueIteration( omega, theta );
+      solution.solve( world );
+      System.out.println( solution );
+
+      PolicyIteration reference = new PolicyIteration();
+      reference.setExactEvaluation();
+      reference.solve( world );
+      System.out.println( "ValueIteration: " + solution.getIterations() + " sweeps; PolicyIteration: "
+          + reference.getIterations() + " iterations, " + reference.getSweeps() + " sweeps" );
+      int differences = 0;
+      for ( State s : world.getStates() ) {
+        Action a = solution.pi( s );
+        if ( a == null ? reference.pi( s ) != null : !a.equals( reference.pi( s ) ) ) {
+          differences++;
+        }
+      }
+      System.out.println( "States whose action differs from PolicyIteration: " + differences );
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // ValueIteration class
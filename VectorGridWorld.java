@@ -0,0 +1,180 @@
+import java.util.SplittableRandom;
+
+/**
+ * Steps N independent agents through a compiled world in lockstep.  All
+ * per-agent data lives in parallel primitive arrays (struct of arrays),
+ * and step() allocates nothing:
+ *
+ *   state[i]     the state agent i acts from on the next step
+ *   nextState[i] where agent i's last action took it, before any reset
+ *   reward[i]    the reward for arriving in nextState[i]
+ *   done[i]      whether nextState[i] is terminal
+ *
+ * An agent that reaches a terminal state is reset to a random
+ * non-terminal state in the same step, so state[] is always ready for
+ * the next batch of actions while nextState[] still holds the transition
+ * a learner needs.  The arrays are returned as-is and are overwritten by
+ * the next step.
+ */
+
+public class VectorGridWorld {
+
+  private final World world;
+  private final CompiledWorld model;
+  private final SplittableRandom random;
+  private final int[] state;
+  private final int[] nextState;
+  private final double[] reward;
+  private final boolean[] done;
+
+  public VectorGridWorld( World world, int agents, long seed ) {
+    if ( agents < 1 ) {
+      throw new IllegalArgumentException( "At least one agent is needed: " + agents );
+    }
+    this.world = world;
+    model = world.compile();
+    random = new SplittableRandom( seed );
+    state = new int[agents];
+    nextState = new int[agents];
+    reward = new double[agents];
+    done = new boolean[agents];
+    reset();
+  }
+
+  public World world() {
+    return world;
+  }
+
+  public CompiledWorld model() {
+    return model;
+  }
+
+  public int agents() {
+    return state.length;
+  }
+
+  public int[] states() {
+    return state;
+  }
+
+  public int[] nextStates() {
+    return nextState;
+  }
+
+  public double[] rewards() {
+    return reward;
+  }
+
+  public boolean[] dones() {
+    return done;
+  }
+
+  // The environment's generator, for callers that explore in lockstep
+  public double nextRandomDouble() {
+    return random.nextDouble();
+  }
+
+  public int nextRandomInt( int bound ) {
+    return random.nextInt( bound );
+  }
+
+  public void reset() {
+    for ( int i = 0; i < state.length; i++ ) {
+      state[i] = randomState();
+      done[i] = false;
+    }
+  }
+
+  // Takes action slot slots[i] for every agent i
+  public void step( int[] slots ) {
+    for ( int i = 0; i < state.length; i++ ) {
+      int next = model.sample( slots[i], random.nextDouble() );
+      nextState[i] = next;
+      reward[i] = model.reward( next );
+      done[i] = model.isTerminal( next );
+      state[i] = done[i] ? randomState() : next;
+    }
+  }
+
+  private int randomState() {
+    int s = random.nextInt( model.stateCount() );
+    while ( model.isTerminal( s ) ) {
+      s = random.nextInt( model.stateCount() );
+    }
+    return s;
+  }
+
+  /**
+   * java VectorGridWorld mediumGrid.lay [agents] [steps]
+   *
+   * Compares random-policy simulation through GridWorld.act with the same
+   * number of agent-steps in lockstep batches, then QLearner learning from
+   * one agent at a time against learning from the batches.
+   */
+
+  public static void main( String args[] ) {
+    try {
+      World world = new GridWorld( args.length > 0 ? args[0] : "mediumGrid.lay" );
+      int agents = args.length > 1 ? Integer.parseInt( args[1] ) : 1024;
+      long steps = args.length > 2 ? Long.parseLong( args[2] ) : 20000000L;
+      VectorGridWorld env = new VectorGridWorld( world, agents, 2026875034 );
+      CompiledWorld model = env.model();
+      int[] slots = new int[agents];
+
+      for ( int round = 0; round < 2; round++ ) { // the first round warms up the JIT
+        long start = System.nanoTime();
+        State s = world.getRandomState();
+        for ( long i = 0; i < steps / 10; i++ ) {
+          s = world.act( s, world.getRandomAction( s ) ).getState();
+          if ( world.isTerminal( s ) ) {
+            s = world.getRandomState();
+          }
+        }
+        double actSeconds = ( System.nanoTime() - start ) / 1e9;
+
+        start = System.nanoTime();
+        long terminals = 0;
+        for ( long i = 0; i < steps; i += agents ) {
+          int[] state = env.states();
+          for ( int a = 0; a < agents; a++ ) {
+            int begin = model.actionBegin( state[a] );
+            slots[a] = begin + env.nextRandomInt( model.actionEnd( state[a] ) - begin );
+          }
+          env.step( slots );
+          for ( boolean d : env.dones() ) {
+            terminals += d ? 1 : 0;
+          }
+        }
+        double vectorSeconds = ( System.nanoTime() - start ) / 1e9;
+
+        if ( round == 1 ) {
+          System.out.printf( "GridWorld.act   %12.0f steps/s%n", steps / 10 / actSeconds );
+          System.out.printf( "VectorGridWorld %12.0f steps/s  (%d agents, %d episodes ended)%n",
+              steps / vectorSeconds, agents, terminals );
+        }
+      }
+
+      for ( int round = 0; round < 2; round++ ) {
+        QLearner single = new QLearner( 0.4 );
+        long start = System.nanoTime();
+        single.learn( world );
+        double singleSeconds = ( System.nanoTime() - start ) / 1e9;
+        QLearner batched = new QLearner( 0.4 );
+        start = System.nanoTime();
+        batched.learn( new VectorGridWorld( world, agents, 2026875034 ) );
+        double batchedSeconds = ( System.nanoTime() - start ) / 1e9;
+        if ( round == 1 ) {
+          System.out.printf( "QLearner.learn(World)           %10d steps  %12.0f steps/s%n",
+              single.getIterations(), single.getIterations() / singleSeconds );
+          System.out.printf( "QLearner.learn(VectorGridWorld) %10d steps  %12.0f steps/s%n",
+              batched.getIterations(), batched.getIterations() / batchedSeconds );
+        }
+      }
+    } // try
+    catch ( Exception e ) {
+      System.out.println( e.getMessage() );
+      e.printStackTrace();
+    } // catch
+  }
+
+} // VectorGridWorld class
@@ -1,8 +1,9 @@
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Random;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 
 abstract public class World {
 
@@ -11,15 +12,22 @@ abstract public class World {
   protected HashMap<State,Double> terminals;
   protected long seed = 2026875034;
   protected Random random = new Random( seed );
+  protected CompiledWorld compiled; // built lazily by compile()
+
+  // act's generators: each thread that calls act gets its own, split from
+  // this root the first time it asks, so threads never contend for one
+  // generator and a single thread replays the same draws after setSeed.
+  private SplittableRandom transitionRoot = new SplittableRandom( seed );
+  private volatile ThreadLocal<SplittableRandom> transitionRandom = newTransitionRandom();
 
   public World() { }
 
-  abstract public ArrayList<Action> A( State s );
+  abstract public List<Action> A( State s );
 
   abstract public Percept act( State s, Action a );
 
   public Action getRandomAction( State s ) {
-    ArrayList<Action> actions = A( s );
+    List<Action> actions = A( s );
     return actions.get( random.nextInt( actions.size() ) );
   }
 
@@ -43,7 +51,40 @@ abstract public class World {
     return random.nextDouble();
   }
 
-  abstract public LinkedList<Transition> P(State s, Action a );
+  // Draws the same number getRandomAction would, for callers that pick
+  // from an action list of known size without building it.
+
+  public int nextRandomInt( int bound ) {
+    return random.nextInt( bound );
+  }
+
+  abstract public List<Transition> P(State s, Action a );
+
+  // A uniform draw in [0, 1) for act to pick a transition with, from the
+  // calling thread's generator.
+
+  protected double nextTransitionDouble() {
+    return transitionRandom.get().nextDouble();
+  }
+
+  private ThreadLocal<SplittableRandom> newTransitionRandom() {
+    return ThreadLocal.withInitial( this::splitTransitionRandom );
+  }
+
+  private synchronized SplittableRandom splitTransitionRandom() {
+    return transitionRoot.split();
+  }
+
+  // Builds the int-indexed CSR model of this world once and returns the
+  // same instance until something it depends on, such as the living
+  // reward, changes.
+
+  public CompiledWorld compile() {
+    if ( compiled == null ) {
+      compiled = new CompiledWorld( this );
+    }
+    return compiled;
+  }
 
   public double R( State s ) {
     Double r = terminals.get( s );
@@ -59,11 +100,20 @@ abstract public class World {
 
   public void setLivingReward( double livingReward ) {
     this.livingReward = livingReward;
+    compiled = null;
   }
 
   public void setSeed( long seed ) {
     this.seed = seed;
     random = new Random( seed );
+    synchronized ( this ) {
+      transitionRoot = new SplittableRandom( seed );
+    }
+    transitionRandom = newTransitionRandom();
+  }
+
+  public long getSeed() {
+    return seed;
   }
 
   public ArrayList<State> getStates(){
@@ -0,0 +1,42 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of target/benchmarks.jar.  It takes the usual JMH
+ * command line, but unless told otherwise it runs every benchmark in this
+ * package with the GC profiler, for allocation rates, and writes the
+ * results as JSON to jmh-result.json so runs can be diffed over time.
+ */
+
+public class Benchmarks {
+
+  public static void main( String args[] ) throws Exception {
+    CommandLineOptions options = new CommandLineOptions( args );
+    if ( options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+        || options.shouldListResultFormats() ) {
+      org.openjdk.jmh.Main.main( args );
+      return;
+    }
+    ChainedOptionsBuilder builder = new OptionsBuilder().parent( options );
+    if ( options.getIncludes().isEmpty() ) {
+      builder.include( "bench\\..*Benchmark\\." );
+    }
+    if ( options.getProfilers().isEmpty() ) {
+      builder.addProfiler( GCProfiler.class );
+    }
+    if ( !options.getResultFormat().hasValue() ) {
+      builder.resultFormat( ResultFormatType.JSON );
+    }
+    if ( !options.getResult().hasValue() ) {
+      builder.result( "jmh-result.json" );
+    }
+    new Runner( builder.build() ).run();
+  }
+
+} // Benchmarks class
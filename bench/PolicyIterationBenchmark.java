@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for a full PolicyIteration.solve on every bundled layout and on
+ * synthetic grids up to half a million states, with the default
+ * one-sweep evaluation and with exact evaluation.  The default can stop
+ * after a few iterations on a big maze, when one sweep leaves the far
+ * states' utilities too flat for any action to change; exact evaluation
+ * always solves the grid.  A large solve outlasts an iteration's two
+ * seconds, so its iterations time a single call each.
+ */
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class PolicyIterationBenchmark {
+
+  @Param( { "tinyGrid.lay", "smallGrid.lay", "rnGrid.lay", "mediumGrid.lay", "openGrid.lay",
+            "open:256", "maze:256", "gen:257", "gen:513", "gen:1025" } )
+  public String layout;
+
+  private Workload workload;
+
+  @Setup
+  public void setUp() throws Exception {
+    workload = Workload.load();
+    workload.setUp( layout );
+  }
+
+  @Benchmark
+  public long solve() throws Exception {
+    return workload.solve();
+  }
+
+  @Benchmark
+  public long solveExact() throws Exception {
+    return workload.solveExact();
+  }
+
+} // PolicyIterationBenchmark class
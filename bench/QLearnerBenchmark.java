@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for a full QLearner.learn, from the same seed on every call, so
+ * each measurement repeats identical work.  The synthetic grids stay
+ * small enough for Q-learning to converge in seconds; maze:32 already
+ * takes minutes.  PolicyIterationBenchmark covers the large grids.
+ */
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class QLearnerBenchmark {
+
+  @Param( { "tinyGrid.lay", "smallGrid.lay", "rnGrid.lay", "mediumGrid.lay", "openGrid.lay",
+            "open:32", "open:64", "maze:16" } )
+  public String layout;
+
+  private Workload workload;
+
+  @Setup
+  public void setUp() throws Exception {
+    workload = Workload.load();
+    workload.setUp( layout );
+  }
+
+  @Benchmark
+  public long learn() throws Exception {
+    return workload.learn();
+  }
+
+} // QLearnerBenchmark class
@@ -0,0 +1,42 @@
+package bench;
+
+/**
+ * What the JMH benchmarks measure, seen from the bench package.  JMH will
+ * not generate code for benchmarks in the default package, and a named
+ * package cannot refer to default-package classes, so the benchmarks go
+ * through this interface.  BenchmarkWorkload, in the default package,
+ * implements it over GridWorld, QLearner and PolicyIteration, and
+ * load() creates one reflectively.
+ */
+
+public interface Workload {
+
+  // Loads a .lay file, or builds a synthetic "open:N", "maze:N" or "gen:N" grid
+  void setUp( String layout ) throws Exception;
+
+  // GridWorld.A on the next state in a fixed cycle; returns the list size
+  int actions();
+
+  // GridWorld.P on the next (state, action) pair in a fixed cycle
+  int transitions();
+
+  // One GridWorld.act step along a running trajectory; returns the state id
+  int act();
+
+  // A full QLearner.learn from a fixed seed; returns its iterations
+  long learn() throws Exception;
+
+  // A full PolicyIteration.solve; returns its iterations
+  long solve() throws Exception;
+
+  // The same with exact evaluation, which does not stop early on a big
+  // maze the way the default one-sweep evaluation can
+  long solveExact() throws Exception;
+
+  int stateCount();
+
+  static Workload load() throws ReflectiveOperationException {
+    return (Workload) Class.forName( "BenchmarkWorkload" ).getDeclaredConstructor().newInstance();
+  }
+
+} // Workload interface
@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the calls every learner makes per step: GridWorld.A,
+ * GridWorld.P and GridWorld.act, on each bundled layout and on synthetic
+ * grids up to a million states.
+ */
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class WorldBenchmark {
+
+  @Param( { "tinyGrid.lay", "smallGrid.lay", "rnGrid.lay", "mediumGrid.lay", "openGrid.lay",
+            "open:256", "maze:256", "open:1024" } )
+  public String layout;
+
+  private Workload workload;
+
+  @Setup
+  public void setUp() throws Exception {
+    workload = Workload.load();
+    workload.setUp( layout );
+  }
+
+  @Benchmark
+  public int a() {
+    return workload.actions();
+  }
+
+  @Benchmark
+  public int p() {
+    return workload.transitions();
+  }
+
+  @Benchmark
+  public int act() {
+    return workload.act();
+  }
+
+} // WorldBenchmark class